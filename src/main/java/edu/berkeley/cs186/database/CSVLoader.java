@@ -0,0 +1,333 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads a CSV file into a table. The file is streamed through a three stage pipeline:
+ *
+ *   1. a reader thread splits the file into batches of lines,
+ *   2. a pool of parser threads turns each batch into DataBox lists matching the table's schema,
+ *   3. the calling thread writes the parsed batches, in file order, with Transaction#bulkLoad,
+ *      which fills whole table pages at a time and maintains the table's indices.
+ *
+ * Parsed batches are handed to the writer through a bounded queue, so if the writer falls behind
+ * the reader blocks instead of buffering the whole file in memory.
+ *
+ * Each line holds one record's fields separated by commas, in schema order. Fields are trimmed;
+ * quoting is not supported. Blank lines are skipped. Strings longer than their column are
+ * truncated, like StringDataBox does.
+ *
+ * Properties:
+ * `transaction`: the transaction to load the table in
+ * `tableName`: the name of the table to load
+ * `schema`: the schema of the table
+ * `numParsers`: the number of parser threads
+ * `queueCapacity`: the maximum number of batches read but not yet written
+ * `progress`: where to report progress, or null for no reporting
+ * `reportInterval`: the number of milliseconds between progress reports
+ * `numRowsLoaded`: the number of rows written by the last call to load
+ * `elapsedNanos`: how long the last call to load took
+ */
+public class CSVLoader {
+  public static final int BATCH_SIZE = 1024;
+  public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+  private final Database.Transaction transaction;
+  private final String tableName;
+  private final Schema schema;
+  private final int numParsers;
+  private final int queueCapacity;
+  private PrintStream progress;
+  private long reportInterval;
+  private long numRowsLoaded;
+  private long elapsedNanos;
+
+  /**
+   * Create a loader for tableName with one parser thread per processor.
+   *
+   * @param transaction the transaction to load the table in
+   * @param tableName the name/alias of the table to load
+   * @throws DatabaseException if the table does not exist
+   */
+  public CSVLoader(Database.Transaction transaction, String tableName) throws DatabaseException {
+    this(transaction, tableName, Runtime.getRuntime().availableProcessors(), DEFAULT_QUEUE_CAPACITY);
+  }
+
+  /**
+   * @param transaction the transaction to load the table in
+   * @param tableName the name/alias of the table to load
+   * @param numParsers the number of parser threads
+   * @param queueCapacity the maximum number of batches of BATCH_SIZE lines read but not yet written
+   * @throws DatabaseException if the table does not exist
+   */
+  public CSVLoader(Database.Transaction transaction, String tableName, int numParsers, int queueCapacity)
+      throws DatabaseException {
+    if (numParsers < 1 || queueCapacity < 1) {
+      throw new IllegalArgumentException("CSVLoader needs at least one parser and a queue capacity of at least one");
+    }
+    this.transaction = transaction;
+    this.tableName = tableName;
+    this.schema = transaction.getSchema(tableName);
+    this.numParsers = numParsers;
+    this.queueCapacity = queueCapacity;
+  }
+
+  /**
+   * Prints the number of rows loaded and the load rate to out every intervalMillis milliseconds
+   * while loading.
+   *
+   * @param out the stream to report to, or null to stop reporting
+   * @param intervalMillis the time between reports
+   */
+  public void reportProgress(PrintStream out, long intervalMillis) {
+    this.progress = out;
+    this.reportInterval = intervalMillis;
+  }
+
+  /**
+   * Loads every line of file into the table.
+   *
+   * @param file the CSV file to load
+   * @return the number of rows loaded
+   * @throws DatabaseException if a line can't be parsed against the table's schema; the batches
+   *         before the bad one have already been loaded
+   * @throws IOException if the file can't be read
+   */
+  public long load(final Path file) throws DatabaseException, IOException {
+    final BufferedReader reader = Files.newBufferedReader(file, Charset.defaultCharset());
+    final ExecutorService parsers = Executors.newFixedThreadPool(this.numParsers, new LoaderThreadFactory("CSVLoader-parser"));
+    final BlockingQueue<Future<List<List<DataBox>>>> parsed =
+      new ArrayBlockingQueue<Future<List<List<DataBox>>>>(this.queueCapacity);
+    final Future<List<List<DataBox>>> endOfFile = new EndOfFile();
+    final IOException[] readError = new IOException[1];
+
+    Thread readerThread = new LoaderThreadFactory("CSVLoader-reader").newThread(new Runnable() {
+      public void run() {
+        try {
+          long lineNum = 1;
+          List<String> lines = new ArrayList<String>(BATCH_SIZE);
+          String line;
+          while ((line = reader.readLine()) != null) {
+            lines.add(line);
+            if (lines.size() == BATCH_SIZE) {
+              parsed.put(parsers.submit(new ParseTask(lines, lineNum)));
+              lineNum += lines.size();
+              lines = new ArrayList<String>(BATCH_SIZE);
+            }
+          }
+          if (!lines.isEmpty()) {
+            parsed.put(parsers.submit(new ParseTask(lines, lineNum)));
+          }
+        } catch (IOException e) {
+          readError[0] = e;
+        } catch (InterruptedException e) {
+          return;
+        } catch (RejectedExecutionException e) {
+          // the writer gave up and shut the parsers down
+          return;
+        }
+        try {
+          parsed.put(endOfFile);
+        } catch (InterruptedException e) {
+          return;
+        }
+      }
+    });
+
+    this.numRowsLoaded = 0;
+    long start = System.nanoTime();
+    long lastReport = start;
+    readerThread.start();
+    try {
+      while (true) {
+        Future<List<List<DataBox>>> batch = parsed.take();
+        if (batch == endOfFile) {
+          break;
+        }
+        List<List<DataBox>> rows = batch.get();
+        this.numRowsLoaded += this.transaction.bulkLoad(this.tableName, rows.iterator());
+
+        long now = System.nanoTime();
+        if (this.progress != null && (now - lastReport) / 1000000 >= this.reportInterval) {
+          this.elapsedNanos = now - start;
+          this.progress.println(this.tableName + ": loaded " + this.numRowsLoaded + " rows ("
+              + Math.round(this.getRowsPerSecond()) + " rows/sec)");
+          lastReport = now;
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new DatabaseException("Interrupted while loading " + file);
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof DatabaseException) {
+        throw (DatabaseException) e.getCause();
+      }
+      throw new DatabaseException("Could not parse " + file + ": " + e.getCause());
+    } finally {
+      readerThread.interrupt();
+      parsers.shutdownNow();
+      reader.close();
+      this.elapsedNanos = System.nanoTime() - start;
+    }
+
+    if (readError[0] != null) {
+      throw readError[0];
+    }
+    return this.numRowsLoaded;
+  }
+
+  /**
+   * @return the number of rows written by the last call to load
+   */
+  public long getNumRowsLoaded() {
+    return this.numRowsLoaded;
+  }
+
+  /**
+   * @return the average number of rows written per second by the last call to load
+   */
+  public double getRowsPerSecond() {
+    if (this.elapsedNanos == 0) {
+      return 0;
+    }
+    return this.numRowsLoaded * 1e9 / this.elapsedNanos;
+  }
+
+  /**
+   * Parses one CSV line into values for schema.
+   *
+   * @param line the line to parse
+   * @param lineNum the line's number in its file, for error messages
+   * @param schema the schema to parse the line against
+   * @return the values of the line
+   * @throws DatabaseException if the line does not have a well-formed value for each column
+   */
+  public static List<DataBox> parseLine(String line, long lineNum, Schema schema) throws DatabaseException {
+    List<DataBox> types = schema.getFieldTypes();
+    String[] splits = line.split(",", -1);
+    if (splits.length != types.size()) {
+      throw new DatabaseException("Line " + lineNum + ": expected " + types.size() + " fields but found " + splits.length);
+    }
+
+    List<DataBox> values = new ArrayList<DataBox>(types.size());
+    for (int i = 0; i < splits.length; i++) {
+      String field = splits[i].trim();
+      DataBox type = types.get(i);
+      try {
+        switch (type.type()) {
+          case INT:
+            values.add(new IntDataBox(Integer.parseInt(field)));
+            break;
+          case FLOAT:
+            values.add(new FloatDataBox(Float.parseFloat(field)));
+            break;
+          case BOOL:
+            values.add(new BoolDataBox(parseBool(field)));
+            break;
+          case STRING:
+            values.add(new StringDataBox(field, type.getSize()));
+            break;
+          default:
+            throw new DatabaseException("Line " + lineNum + ": unsupported type " + type.type());
+        }
+      } catch (NumberFormatException e) {
+        throw new DatabaseException("Line " + lineNum + ": field " + i + " is not a valid " + type.type() + ": " + field);
+      }
+    }
+    return values;
+  }
+
+  /**
+   * Boolean.parseBoolean reads anything other than "true" as false, which would load a malformed
+   * field silently; only "true" and "false", in any case, are accepted here.
+   */
+  private static boolean parseBool(String field) {
+    if (field.equalsIgnoreCase("true")) {
+      return true;
+    }
+    if (field.equalsIgnoreCase("false")) {
+      return false;
+    }
+    throw new NumberFormatException(field);
+  }
+
+  private class ParseTask implements Callable<List<List<DataBox>>> {
+    private final List<String> lines;
+    private final long firstLineNum;
+
+    private ParseTask(List<String> lines, long firstLineNum) {
+      this.lines = lines;
+      this.firstLineNum = firstLineNum;
+    }
+
+    public List<List<DataBox>> call() throws DatabaseException {
+      List<List<DataBox>> rows = new ArrayList<List<DataBox>>(this.lines.size());
+      for (int i = 0; i < this.lines.size(); i++) {
+        String line = this.lines.get(i);
+        if (!line.trim().isEmpty()) {
+          rows.add(CSVLoader.parseLine(line, this.firstLineNum + i, CSVLoader.this.schema));
+        }
+      }
+      return rows;
+    }
+  }
+
+  /**
+   * Marks the end of the file in the queue of parsed batches.
+   */
+  private static class EndOfFile implements Future<List<List<DataBox>>> {
+    public boolean cancel(boolean mayInterruptIfRunning) {
+      return false;
+    }
+
+    public boolean isCancelled() {
+      return false;
+    }
+
+    public boolean isDone() {
+      return true;
+    }
+
+    public List<List<DataBox>> get() {
+      return new ArrayList<List<DataBox>>();
+    }
+
+    public List<List<DataBox>> get(long timeout, TimeUnit unit) {
+      return get();
+    }
+  }
+
+  private static class LoaderThreadFactory implements ThreadFactory {
+    private final String name;
+
+    private LoaderThreadFactory(String name) {
+      this.name = name;
+    }
+
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, this.name);
+      t.setDaemon(true);
+      return t;
+    }
+  }
+}
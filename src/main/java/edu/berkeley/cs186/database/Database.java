@@ -1,16 +1,31 @@
 package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 import edu.berkeley.cs186.database.concurrency.*;
 import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.index.BPlusTreeException;
+import edu.berkeley.cs186.database.index.LeafEntry;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 import java.util.List;
 import java.util.Iterator;
 
@@ -20,12 +35,26 @@ import java.util.Set;
 import java.util.HashSet;
 
 public class Database {
+  public static final int BULK_LOAD_BATCH_PAGES = 64;
+  public static final int DEFAULT_OPEN_THREADS = 4;
+
+  private static final Comparator<LeafEntry> LEAF_ENTRY_ORDER = new Comparator<LeafEntry>() {
+    public int compare(LeafEntry a, LeafEntry b) {
+      return a.compareTo(b);
+    }
+  };
+
   private Map<String, Table> tableLookup;
   private Map<String, BPlusTree> indexLookup;
+  private Map<String, Object> unopenedTables;
+  private Map<String, Object> unopenedIndices;
   private long numTransactions;
   private String fileDir;
   private LockManager lockMan;
   private int numMemoryPages;
+  private long durabilityWindow;
+  private volatile double compactionThreshold;
+  private volatile boolean checksums;
 
   /**
    * Creates a new database.
@@ -47,11 +76,48 @@ public class Database {
    * @throws DatabaseException
    */
   public Database(String fileDir, int numMemoryPages) throws DatabaseException {
+    this(fileDir, numMemoryPages, 0);
+  }
+
+  /**
+   * Creates a new database whose tables and indices group-commit their page allocation metadata.
+   * Metadata updates are forced to disk when a transaction that modified the table ends, or at
+   * most durabilityWindow milliseconds after they are made.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param durabilityWindow the maximum delay in milliseconds before metadata is forced, or 0 to force synchronously
+   * @throws DatabaseException
+   */
+  public Database(String fileDir, int numMemoryPages, long durabilityWindow) throws DatabaseException {
+    this(fileDir, numMemoryPages, durabilityWindow, DEFAULT_OPEN_THREADS, false);
+  }
+
+  /**
+   * Creates a new database, opening the existing tables and indices in fileDir with up to
+   * numOpenThreads threads at once. With lazyOpen set, existing tables and indices are not opened
+   * until they are first used, so the constructor only lists fileDir.
+   *
+   * @param fileDir the directory to put the table files in
+   * @param numMemoryPages the number of pages of memory Database Operations should use when executing Queries
+   * @param durabilityWindow the maximum delay in milliseconds before metadata is forced, or 0 to force synchronously
+   * @param numOpenThreads the maximum number of tables and indices to open concurrently
+   * @param lazyOpen whether to defer opening each table and index until it is first used
+   * @throws DatabaseException if an existing table or index can't be opened
+   */
+  public Database(String fileDir, int numMemoryPages, long durabilityWindow, int numOpenThreads,
+                  boolean lazyOpen) throws DatabaseException {
+    if (numOpenThreads < 1) {
+      throw new IllegalArgumentException("Database needs at least one thread to open tables with");
+    }
     this.numMemoryPages = numMemoryPages;
+    this.durabilityWindow = durabilityWindow;
     this.fileDir = fileDir;
     numTransactions = 0;
     tableLookup = new ConcurrentHashMap<String, Table>();
     indexLookup = new ConcurrentHashMap<String, BPlusTree>();
+    unopenedTables = new ConcurrentHashMap<String, Object>();
+    unopenedIndices = new ConcurrentHashMap<String, Object>();
 
     File dir = new File(fileDir);
     lockMan = new LockManager();
@@ -66,16 +132,211 @@ public class Database {
       String fName = f.getName();
       if (fName.endsWith(Table.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(Table.FILENAME_EXTENSION);
-        String tableName = fName.substring(0, lastIndex);
-        tableLookup.put(tableName, new Table(tableName, this.fileDir));
+        unopenedTables.put(fName.substring(0, lastIndex), new Object());
       } else if (fName.endsWith(BPlusTree.FILENAME_EXTENSION)) {
         int lastIndex = fName.lastIndexOf(BPlusTree.FILENAME_EXTENSION);
-        String indexName = fName.substring(0, lastIndex);
-        indexLookup.put(indexName, new BPlusTree(indexName, this.fileDir));
+        unopenedIndices.put(fName.substring(0, lastIndex), new Object());
       }
     }
+
+    if (!lazyOpen) {
+      this.openAll(numOpenThreads);
+    }
   }
 
+  /**
+   * Opens every unopened table and index, up to numThreads at a time. Each table and index has its
+   * own file, so they can be opened independently; the BufferPool they share is thread-safe.
+   *
+   * @param numThreads the maximum number of tables and indices to open concurrently
+   * @throws DatabaseException if some table or index can't be opened
+   */
+  private void openAll(int numThreads) throws DatabaseException {
+    int numFiles = this.unopenedTables.size() + this.unopenedIndices.size();
+    if (numFiles == 0) {
+      return;
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(Math.min(numThreads, numFiles));
+    List<Future<?>> opened = new ArrayList<Future<?>>();
+    for (final String tableName : new ArrayList<String>(this.unopenedTables.keySet())) {
+      opened.add(pool.submit(new Callable<Table>() {
+        public Table call() {
+          return Database.this.openTable(tableName);
+        }
+      }));
+    }
+    for (final String indexName : new ArrayList<String>(this.unopenedIndices.keySet())) {
+      opened.add(pool.submit(new Callable<BPlusTree>() {
+        public BPlusTree call() {
+          return Database.this.openIndex(indexName);
+        }
+      }));
+    }
+    pool.shutdown();
+
+    try {
+      for (Future<?> f : opened) {
+        f.get();
+      }
+    } catch (InterruptedException e) {
+      this.abandonOpenAll(pool);
+      Thread.currentThread().interrupt();
+      throw new DatabaseException("Interrupted while opening " + this.fileDir);
+    } catch (ExecutionException e) {
+      this.abandonOpenAll(pool);
+      throw new DatabaseException("Could not open " + this.fileDir + ": " + e.getCause());
+    }
+  }
+
+  /**
+   * Cancels the opens of openAll that have not finished and closes every table and index opened
+   * so far, since the constructor that failed won't return a Database to close them with.
+   *
+   * @param pool the threads of openAll
+   */
+  private void abandonOpenAll(ExecutorService pool) {
+    pool.shutdownNow();
+    try {
+      // an open already under way still adds its table or index to the lookups when it finishes
+      while (!pool.awaitTermination(1, TimeUnit.SECONDS)) {
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    for (Table table : this.tableLookup.values()) {
+      table.close();
+    }
+    for (BPlusTree index : this.indexLookup.values()) {
+      index.close();
+    }
+    this.tableLookup.clear();
+    this.indexLookup.clear();
+  }
+
+  /**
+   * Opens tableName if it has not been opened yet. Each unopened table has its own lock, so
+   * different tables can be opened at the same time. A table is added to tableLookup before it is
+   * removed from unopenedTables, so it is always in at least one of them.
+   *
+   * @param tableName the name of the table
+   * @return the table, or null if there is no such table
+   */
+  private Table openTable(String tableName) {
+    Object lock = this.unopenedTables.get(tableName);
+    if (lock == null) {
+      return this.tableLookup.get(tableName);
+    }
+    synchronized (lock) {
+      Table table = this.tableLookup.get(tableName);
+      if (table == null && this.unopenedTables.containsKey(tableName)) {
+        table = new Table(tableName, this.fileDir);
+        table.setDurabilityWindow(this.durabilityWindow);
+        this.tableLookup.put(tableName, table);
+        this.unopenedTables.remove(tableName);
+      }
+      return table;
+    }
+  }
+
+  /**
+   * Opens indexName if it has not been opened yet, like openTable. An index file written in an
+   * older format (see BPlusTree#readFormatVersion) is rebuilt from its table instead.
+   *
+   * @param indexName the name of the index, tableName + "," + columnName
+   * @return the index, or null if there is no such index
+   */
+  private BPlusTree openIndex(String indexName) {
+    Object lock = this.unopenedIndices.get(indexName);
+    if (lock == null) {
+      return this.indexLookup.get(indexName);
+    }
+    synchronized (lock) {
+      BPlusTree index = this.indexLookup.get(indexName);
+      if (index == null && this.unopenedIndices.containsKey(indexName)) {
+        try {
+          index = new BPlusTree(indexName, this.fileDir);
+        } catch (BPlusTreeException e) {
+          if (BPlusTree.readFormatVersion(indexName, this.fileDir) == BPlusTree.FORMAT_VERSION) {
+            throw e;
+          }
+          index = this.rebuildIndex(indexName);
+        }
+        index.setDurabilityWindow(this.durabilityWindow);
+        this.indexLookup.put(indexName, index);
+        this.unopenedIndices.remove(indexName);
+      }
+      return index;
+    }
+  }
+
+  /**
+   * Replaces the file of indexName with a new index built from its table, sorted and bulk loaded
+   * as by createIndex. The sort only uses temporary tables of its own transaction, so it takes no
+   * table locks and can run while another transaction holds them.
+   *
+   * @param indexName the name of the index, tableName + "," + columnName
+   * @return the rebuilt index
+   * @throws BPlusTreeException if the index's table or column does not exist, or the index can't
+   *         be built
+   */
+  private BPlusTree rebuildIndex(String indexName) {
+    int comma = indexName.lastIndexOf(',');
+    Table table = comma < 0 ? null : this.openTable(indexName.substring(0, comma));
+    int column = table == null ? -1 : table.getSchema().getFieldNames().indexOf(indexName.substring(comma + 1));
+    if (column < 0) {
+      throw new BPlusTreeException("Can't rebuild index " + indexName + ": its table or column does not exist");
+    }
+
+    new File(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION).delete();
+    BPlusTree index = new BPlusTree(table.getSchema().getFieldTypes().get(column), indexName, this.fileDir,
+                                    this.checksums);
+    Transaction t = this.beginTransaction();
+    try {
+      index.bulkLoad(t.sortIndexEntries(table, column, indexName));
+      index.sync();
+    } catch (DatabaseException | RuntimeException e) {
+      index.close();
+      new File(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION).delete();
+      throw new BPlusTreeException("Can't rebuild index " + indexName + ": " + e.getMessage());
+    } finally {
+      t.end();
+    }
+    return index;
+  }
+
+  /**
+   * @param tableName the name of the table
+   * @return whether tableName exists, whether or not it has been opened
+   */
+  private boolean hasTable(String tableName) {
+    return this.unopenedTables.containsKey(tableName) || this.tableLookup.containsKey(tableName);
+  }
+
+  /**
+   * Makes transactions compact a table (see Transaction#compactTable) when they end, if their
+   * deletes left its fill factor below minFillFactor and compaction could free a data page.
+   * Compaction is never done by the delete itself, so RecordIDs and iterators obtained within a
+   * transaction stay valid until it ends.
+   *
+   * @param minFillFactor the fill factor below which tables are compacted, or 0 to never compact
+   *        them automatically
+   */
+  public void setCompactionThreshold(double minFillFactor) {
+    this.compactionThreshold = minFillFactor;
+  }
+
+  /**
+   * Makes the tables and indices created from now on checksum their pages (see PageAllocator), so
+   * that a corrupt or torn page is reported instead of being read. Existing tables and indices keep
+   * the choice they were created with, and are reopened with it.
+   *
+   * @param checksums whether new tables and indices checksum their pages
+   */
+  public void setChecksums(boolean checksums) {
+    this.checksums = checksums;
+  }
 
   /**
    * Create a new table in this database.
@@ -85,11 +346,25 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTable(Schema s, String tableName) throws DatabaseException {
-    if (this.tableLookup.containsKey(tableName)) {
+    this.createTable(s, tableName, Table.Layout.FIXED);
+  }
+
+  /**
+   * Create a new table in this database whose data pages use the given layout.
+   *
+   * @param s the table schema
+   * @param tableName the name of the table
+   * @param layout the arrangement of records in the table's data pages
+   * @throws DatabaseException
+   */
+  public synchronized void createTable(Schema s, String tableName, Table.Layout layout) throws DatabaseException {
+    if (this.hasTable(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
-    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
+    Table table = new Table(s, tableName, this.fileDir, layout, this.checksums);
+    table.setDurabilityWindow(this.durabilityWindow);
+    this.tableLookup.put(tableName, table);
   }
 
   /**
@@ -101,7 +376,7 @@ public class Database {
    * @throws DatabaseException
    */
   public synchronized void createTableWithIndices(Schema s, String tableName, List<String> indexColumns) throws DatabaseException {
-    if (this.tableLookup.containsKey(tableName)) {
+    if (this.hasTable(tableName)) {
       throw new DatabaseException("Table name already exists");
     }
 
@@ -122,12 +397,72 @@ public class Database {
       schemaColIndex.add(schemaColNames.indexOf(col));
     }
 
-    this.tableLookup.put(tableName, new Table(s, tableName, this.fileDir));
+    Table table = new Table(s, tableName, this.fileDir, Table.Layout.FIXED, this.checksums);
+    table.setDurabilityWindow(this.durabilityWindow);
+    this.tableLookup.put(tableName, table);
     for (int i : schemaColIndex) {
       String colName = schemaColNames.get(i);
       DataBox colType = schemaColType.get(i);
       String indexName = tableName + "," + colName;
-      this.indexLookup.put(indexName, new BPlusTree(colType, indexName, this.fileDir));
+      BPlusTree index = new BPlusTree(colType, indexName, this.fileDir, this.checksums);
+      index.setDurabilityWindow(this.durabilityWindow);
+      this.indexLookup.put(indexName, index);
+    }
+  }
+
+  /**
+   * Create an index on a column of an existing table, holding the records already in the table.
+   * The (key, RecordID) pairs of the column are sorted with an external merge sort that keeps at
+   * most numMemoryPages pages' worth of pairs in memory, and the index is bulk loaded from the
+   * sorted pairs (see BPlusTree#bulkLoad). Queries can use the index as soon as this returns.
+   *
+   * The table is locked exclusively while the index is built, so this waits for the transactions
+   * using the table to end.
+   *
+   * @param tableName the name of the table
+   * @param columnName the name of the column to index
+   * @throws DatabaseException if the table or column does not exist, or the index already exists
+   */
+  public void createIndex(String tableName, String columnName) throws DatabaseException {
+    if (!this.hasTable(tableName)) {
+      throw new DatabaseException("Table: " + tableName + " does not exist");
+    }
+    String indexName = tableName + "," + columnName;
+
+    Transaction t = this.beginTransaction();
+    try {
+      // lock the table before taking this database's monitor, so that waiting for the lock can't
+      // keep the transactions holding it from beginning, creating tables, or ending
+      t.checkAndGrabExclusiveLock(tableName);
+      Table table;
+      synchronized (this) {
+        if (this.indexLookup.containsKey(indexName) || this.unopenedIndices.containsKey(indexName)) {
+          throw new DatabaseException("Index already exists");
+        }
+        table = this.openTable(tableName);
+      }
+      int column = table.getSchema().getFieldNames().indexOf(columnName);
+      if (column < 0) {
+        throw new DatabaseException("Column desired for index does not exist");
+      }
+
+      BPlusTree index = new BPlusTree(table.getSchema().getFieldTypes().get(column), indexName, this.fileDir,
+                                      this.checksums);
+      try {
+        index.setDurabilityWindow(this.durabilityWindow);
+        index.bulkLoad(t.sortIndexEntries(table, column, indexName));
+        index.sync();
+      } catch (DatabaseException | RuntimeException e) {
+        // don't leave a half-built index file to be opened as the index next time
+        index.close();
+        new File(this.fileDir, indexName + BPlusTree.FILENAME_EXTENSION).delete();
+        throw e;
+      }
+      synchronized (this) {
+        this.indexLookup.put(indexName, index);
+      }
+    } finally {
+      t.end();
     }
   }
 
@@ -138,15 +473,25 @@ public class Database {
    * @return true if the database was successfully deleted
    */
   public synchronized boolean deleteTable(String tableName) {
-    if (!this.tableLookup.containsKey(tableName)) {
+    if (!this.hasTable(tableName)) {
       return false;
     }
 
-    this.tableLookup.get(tableName).close();
-    this.tableLookup.remove(tableName);
+    // take the table's open lock so that a concurrent lazy open can't open it as it is deleted
+    Object lock = this.unopenedTables.get(tableName);
+    if (lock != null) {
+      synchronized (lock) {
+        this.unopenedTables.remove(tableName);
+      }
+    }
+    Table table = this.tableLookup.remove(tableName);
+    if (table != null) {
+      table.close();
+    }
 
-    File f = new File(fileDir + tableName + Table.FILENAME_EXTENSION);
+    File f = new File(fileDir, tableName + Table.FILENAME_EXTENSION);
     f.delete();
+    new File(fileDir, tableName + Table.FILENAME_EXTENSION + Table.METADATA_EXTENSION).delete();
 
     return true;
   }
@@ -156,6 +501,7 @@ public class Database {
    */
   public synchronized void deleteAllTables() {
     List<String> tableNames = new ArrayList<String>(tableLookup.keySet());
+    tableNames.addAll(unopenedTables.keySet());
 
     for (String s : tableNames) {
       deleteTable(s);
@@ -171,6 +517,48 @@ public class Database {
     }
 
     this.tableLookup.clear();
+    this.unopenedTables.clear();
+  }
+
+  /**
+   * Returns the live I/O counters of every table and index. Tables are keyed by name and indices
+   * by tableName + "," + columnName. Take a snapshot of a counter before and after a transaction or
+   * query to measure just that work, or reset all counters with resetIOStats. Tables and indices
+   * that have not been opened yet have done no I/O and are left out.
+   *
+   * @return the I/O counters of every table and index in this database
+   */
+  public Map<String, IOStats> getIOStats() {
+    Map<String, IOStats> stats = new HashMap<String, IOStats>();
+    for (Map.Entry<String, Table> entry : this.tableLookup.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().getIOStats());
+    }
+    for (Map.Entry<String, BPlusTree> entry : this.indexLookup.entrySet()) {
+      stats.put(entry.getKey(), entry.getValue().getIOStats());
+    }
+    return stats;
+  }
+
+  /**
+   * @param tableName the name of the table
+   * @return the live I/O counters of the table
+   * @throws DatabaseException if the table does not exist
+   */
+  public IOStats getIOStats(String tableName) throws DatabaseException {
+    Table table = this.openTable(tableName);
+    if (table == null) {
+      throw new DatabaseException("Table: " + tableName + " does not exist");
+    }
+    return table.getIOStats();
+  }
+
+  /**
+   * Resets the I/O counters of every table and index.
+   */
+  public void resetIOStats() {
+    for (IOStats stats : getIOStats().values()) {
+      stats.reset();
+    }
   }
 
   /**
@@ -191,6 +579,9 @@ public class Database {
     HashMap<String, LockManager.LockType> locksHeld;
     HashMap<String, Table> tempTables;
     HashMap<String, String> aliasMaps;
+    HashSet<String> modifiedTables;
+    HashSet<String> sparseTables;
+    int numSortRuns;
 
     private Transaction(long tNum) {
       this.transNum = tNum;
@@ -198,6 +589,8 @@ public class Database {
       this.locksHeld = new HashMap<String, LockManager.LockType>();
       this.tempTables = new HashMap<String, Table>();
       this.aliasMaps = new HashMap<String, String>();
+      this.modifiedTables = new HashSet<String>();
+      this.sparseTables = new HashSet<String>();
     }
 
     public boolean isActive() {
@@ -207,6 +600,8 @@ public class Database {
     public void end() {
       assert(this.active);
 
+      compactSparseTables();
+      syncModifiedTables();
       releaseAllLocks();
       deleteAllTempTables();
       this.active = false;
@@ -236,13 +631,13 @@ public class Database {
     public void queryAs(String tableName, String alias) throws DatabaseException {
       assert(this.active);
 
-      if (Database.this.tableLookup.containsKey(alias)
+      if (Database.this.hasTable(alias)
               || this.tempTables.containsKey(alias)
               || this.aliasMaps.containsKey(alias)) {
         throw new DatabaseException("Table name already exists");
       }
       checkAndGrabSharedLock(tableName);
-      if (Database.this.tableLookup.containsKey(tableName)) {
+      if (Database.this.hasTable(tableName)) {
         this.aliasMaps.put(alias, tableName);
       } else if (tempTables.containsKey(tableName)) {
         this.aliasMaps.put(alias, tableName);
@@ -261,7 +656,7 @@ public class Database {
     public void createTempTable(Schema schema, String tempTableName) throws DatabaseException {
       assert(this.active);
 
-      if (Database.this.tableLookup.containsKey(tempTableName)
+      if (Database.this.hasTable(tempTableName)
               || this.tempTables.containsKey(tempTableName))  {
         throw new DatabaseException("Table name already exists");
       }
@@ -270,7 +665,9 @@ public class Database {
         f.mkdirs();
       }
 
-      this.tempTables.put(tempTableName, new Table(schema, tempTableName, Database.this.fileDir + "temp/"));
+      Table tempTable = new Table(schema, tempTableName, Database.this.fileDir + "temp/");
+      tempTable.setDurabilityWindow(Database.this.durabilityWindow);
+      this.tempTables.put(tempTableName, tempTable);
       this.locksHeld.put(tempTableName, LockManager.LockType.EXCLUSIVE);
     }
 
@@ -302,6 +699,26 @@ public class Database {
       return new RecordIterator(tab, index.sortedScanFrom(startValue));
     }
 
+    /**
+     * Looks up the records whose values of an indexed column are within two bounds, in order of
+     * that column (see BPlusTree#rangeScan).
+     *
+     * @param tableName the name/alias of the table
+     * @param columnName the name of the indexed column
+     * @param lo the lower bound, or null for none
+     * @param loInclusive whether values equal to lo are returned
+     * @param hi the upper bound, or null for none
+     * @param hiInclusive whether values equal to hi are returned
+     * @return an iterator over the matching records
+     * @throws DatabaseException if the table or index does not exist
+     */
+    public Iterator<Record> rangeScan(String tableName, String columnName, DataBox lo, boolean loInclusive,
+                                      DataBox hi, boolean hiInclusive) throws DatabaseException {
+      Table tab = getTable(tableName);
+      BPlusTree index = resolveIndexFromName(tableName, columnName);
+      return new RecordIterator(tab, index.rangeScan(lo, loInclusive, hi, hiInclusive));
+    }
+
     public Iterator<Record> lookupKey(String tableName, String columnName, DataBox key) throws DatabaseException {
       Table tab = getTable(tableName);
       BPlusTree index = resolveIndexFromName(tableName, columnName);
@@ -320,6 +737,7 @@ public class Database {
       checkAndGrabExclusiveLock(tableName);
       Table tab = getTable(tableName);
       RecordID rid = tab.addRecord(values);
+      markModified(tableName);
       Schema s = tab.getSchema();
       List<String> colNames = s.getFieldNames();
 
@@ -333,6 +751,83 @@ public class Database {
       return rid;
     }
 
+    /**
+     * Adds every row produced by rows to a table, filling whole pages at a time (see
+     * Table#addRecords) and updating the table's indices. Rows are loaded in batches of
+     * BULK_LOAD_BATCH_PAGES pages' worth, so memory use does not grow with the number of rows.
+     * Indices that are empty when the load starts are built once at the end with
+     * BPlusTree#bulkLoad (see Database#createIndex); the others get one insertKey per row.
+     *
+     * If a row does not conform to the table's schema, the batches before it are kept and a
+     * DatabaseException is thrown.
+     *
+     * @param tableName the name/alias of the table
+     * @param rows the values of the records to add
+     * @return the number of records added
+     * @throws DatabaseException if the table does not exist or some row does not correspond to its schema
+     */
+    public long bulkLoad(String tableName, Iterator<List<DataBox>> rows) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      markModified(tableName);
+      Schema s = tab.getSchema();
+      List<String> colNames = s.getFieldNames();
+
+      List<BPlusTree> indices = new ArrayList<BPlusTree>();
+      List<Integer> indexCols = new ArrayList<Integer>();
+      List<BPlusTree> emptyIndices = new ArrayList<BPlusTree>();
+      List<Integer> emptyIndexCols = new ArrayList<Integer>();
+      for (int i = 0; i < colNames.size(); i++) {
+        if (indexExists(tableName, colNames.get(i))) {
+          BPlusTree index = resolveIndexFromName(tableName, colNames.get(i));
+          if (index.sortedScan().hasNext()) {
+            indices.add(index);
+            indexCols.add(i);
+          } else {
+            emptyIndices.add(index);
+            emptyIndexCols.add(i);
+          }
+        }
+      }
+
+      int batchSize = tab.getNumEntriesPerPage() * BULK_LOAD_BATCH_PAGES;
+      List<Record> batch = new ArrayList<Record>(batchSize);
+      long numAdded = 0;
+      try {
+        while (rows.hasNext()) {
+          // verify the whole batch before adding any of it, so every added row gets indexed
+          batch.clear();
+          while (batch.size() < batchSize && rows.hasNext()) {
+            try {
+              batch.add(s.verify(rows.next()));
+            } catch (SchemaException se) {
+              throw new DatabaseException(se.getMessage());
+            }
+          }
+
+          List<RecordID> rids = tab.addRecords(batch);
+          for (int j = 0; j < indices.size(); j++) {
+            int col = indexCols.get(j);
+            for (int k = 0; k < rids.size(); k++) {
+              indices.get(j).insertKey(batch.get(k).getValues().get(col), rids.get(k));
+            }
+          }
+          numAdded += rids.size();
+        }
+      } finally {
+        if (numAdded > 0) {
+          for (int j = 0; j < emptyIndices.size(); j++) {
+            String indexName = tableName + "," + colNames.get(emptyIndexCols.get(j));
+            emptyIndices.get(j).bulkLoad(this.sortIndexEntries(tab, emptyIndexCols.get(j), indexName));
+          }
+        }
+      }
+
+      return numAdded;
+    }
+
     public int getNumMemoryPages() throws DatabaseException {
       assert(this.active);
 
@@ -348,6 +843,7 @@ public class Database {
       Schema s = tab.getSchema();
 
       Record rec = tab.deleteRecord(rid);
+      markModified(tableName);
       List<DataBox> values = rec.getValues();
       List<String> colNames = s.getFieldNames();
       for (int i = 0; i < colNames.size(); i++) {
@@ -356,6 +852,42 @@ public class Database {
           resolveIndexFromName(tableName, col).deleteKey(values.get(i), rid);
         }
       }
+
+      if (tab.isSparse(Database.this.compactionThreshold)) {
+        // compacted in end, since moving records now would invalidate the caller's RecordIDs
+        this.sparseTables.add(tableName);
+      }
+    }
+
+    /**
+     * Compacts a table (see Table#compact) and points its indices at the new RecordIDs of the
+     * records that moved. RecordIDs of the table obtained before compaction may no longer be valid.
+     *
+     * @param tableName the name/alias of the table
+     * @return the new RecordID of every moved record, keyed by its old RecordID
+     * @throws DatabaseException if the table does not exist
+     */
+    public Map<RecordID, RecordID> compactTable(String tableName) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabExclusiveLock(tableName);
+      Table tab = getTable(tableName);
+      Map<RecordID, RecordID> moved = tab.compact();
+      markModified(tableName);
+
+      List<String> colNames = tab.getSchema().getFieldNames();
+      for (int i = 0; i < colNames.size(); i++) {
+        String col = colNames.get(i);
+        if (!indexExists(tableName, col)) {
+          continue;
+        }
+        BPlusTree tree = resolveIndexFromName(tableName, col);
+        for (Map.Entry<RecordID, RecordID> entry : moved.entrySet()) {
+          DataBox key = tab.getRecord(entry.getValue()).getValues().get(i);
+          tree.updateRecordID(key, entry.getKey(), entry.getValue());
+        }
+      }
+      return moved;
     }
 
     public Record getRecord(String tableName, RecordID rid) throws DatabaseException {
@@ -365,11 +897,19 @@ public class Database {
       return getTable(tableName).getRecord(rid);
     }
 
+    /**
+     * Scans a table for a query. The records are RecordViews over the table's pages, so they must
+     * not be updated or deleted while the scan's records are in use.
+     *
+     * @param tableName the name/alias of a table or temp table
+     * @return an iterator over the records of the table
+     * @throws DatabaseException if the table does not exist
+     */
     public Iterator<Record> getRecordIterator(String tableName) throws DatabaseException {
       assert(this.active);
 
       checkAndGrabSharedLock(tableName);
-      return getTable(tableName).iterator();
+      return getTable(tableName).viewIterator();
     }
 
     public Iterator<Page> getPageIterator(String tableName) throws DatabaseException {
@@ -386,6 +926,7 @@ public class Database {
       Schema s = tab.getSchema();
 
       Record rec = tab.updateRecord(values, rid);
+      markModified(tableName);
 
       List<DataBox> oldValues = rec.getValues();
       List<String> colNames = s.getFieldNames();
@@ -407,6 +948,30 @@ public class Database {
       return getTable(tableName).getStats();
     }
 
+    /**
+     * @param tableName the name/alias of a table or temp table
+     * @return the live I/O counters of the table
+     * @throws DatabaseException if the table does not exist
+     */
+    public IOStats getIOStats(String tableName) throws DatabaseException {
+      assert(this.active);
+
+      return getTable(tableName).getIOStats();
+    }
+
+    /**
+     * @param tableName the name/alias of the table
+     * @param columnName the indexed column
+     * @return the live I/O counters of the index
+     * @throws DatabaseException if the index does not exist
+     */
+    public IOStats getIndexIOStats(String tableName, String columnName) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return this.resolveIndexFromName(tableName, columnName).getIOStats();
+    }
+
     public int getNumDataPages(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -435,6 +1000,13 @@ public class Database {
       return getTable(tableName).getPageHeaderSize();
     }
 
+    public Record readRecord(String tableName, Page p, int entryNum) throws DatabaseException {
+      assert(this.active);
+
+      checkAndGrabSharedLock(tableName);
+      return getTable(tableName).readRecord(p, entryNum);
+    }
+
     public int getEntrySize(String tableName) throws DatabaseException {
       assert(this.active);
 
@@ -494,8 +1066,9 @@ public class Database {
         columnName = columnName.split("\\.")[1];
       }
       String indexName = tableName + "," + columnName;
-      if (Database.this.indexLookup.containsKey(indexName)) {
-        return Database.this.indexLookup.get(indexName);
+      BPlusTree index = Database.this.openIndex(indexName);
+      if (index != null) {
+        return index;
       }
       throw new DatabaseException("Index does not exist");
     }
@@ -509,11 +1082,11 @@ public class Database {
         tableName = aliasMaps.get(tableName);
       }
 
-      if (!Database.this.tableLookup.containsKey(tableName)) {
+      if (!Database.this.hasTable(tableName)) {
         throw new DatabaseException("Table: " + tableName + "does not exist");
       }
       checkAndGrabSharedLock(tableName);
-      return Database.this.tableLookup.get(tableName);
+      return Database.this.openTable(tableName);
     }
 
     private void checkAndGrabSharedLock(String tableName) throws DatabaseException{
@@ -525,16 +1098,16 @@ public class Database {
         tableName = aliasMaps.get(tableName);
       }
 
-      if (!this.tempTables.containsKey(tableName) && !Database.this.tableLookup.containsKey(tableName)) {
+      if (!this.tempTables.containsKey(tableName) && !Database.this.hasTable(tableName)) {
         throw new DatabaseException("Table: " + tableName + " Does not exist");
       }
 
       LockManager lockMan = Database.this.lockMan;
-      if (lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.SHARED)) {
-        this.locksHeld.put(tableName, LockManager.LockType.SHARED);
-      } else {
+      if (!lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.SHARED)) {
         lockMan.acquireLock(tableName, this.transNum, LockManager.LockType.SHARED);
       }
+      // record the lock as soon as it is acquired, so end releases it even if nothing else locks
+      this.locksHeld.put(tableName, LockManager.LockType.SHARED);
     }
 
     private void checkAndGrabExclusiveLock(String tableName) throws DatabaseException {
@@ -546,17 +1119,200 @@ public class Database {
         return;
       }
 
-      if (!this.tempTables.containsKey(tableName) && !Database.this.tableLookup.containsKey(tableName)) {
+      if (!this.tempTables.containsKey(tableName) && !Database.this.hasTable(tableName)) {
         throw new DatabaseException("Table: " + tableName + " Does not exist");
       }
 
       LockManager lockMan = Database.this.lockMan;
 
-      if (lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.EXCLUSIVE)) {
-        this.locksHeld.put(tableName, LockManager.LockType.EXCLUSIVE);
-      } else {
+      if (!lockMan.holdsLock(tableName, this.transNum, LockManager.LockType.EXCLUSIVE)) {
         lockMan.acquireLock(tableName, this.transNum, LockManager.LockType.EXCLUSIVE);
       }
+      // record the lock as soon as it is acquired, so end releases it even if nothing else locks
+      this.locksHeld.put(tableName, LockManager.LockType.EXCLUSIVE);
+    }
+
+    /**
+     * Sorts the (key, RecordID) pairs of a column of a table. Runs of up to numMemoryPages pages'
+     * worth of pairs are sorted in memory and written to temporary tables, and the runs are merged
+     * numMemoryPages - 1 at a time until a single merge is left, which is returned as an iterator.
+     * A table whose pairs fit in one run is sorted in memory.
+     *
+     * @param table the table to index
+     * @param column the index of the column to index
+     * @param indexName the name of the index, used to name the temporary tables
+     * @return the pairs as LeafEntries, in sorted order
+     * @throws DatabaseException if a temporary table can't be written
+     */
+    private Iterator<LeafEntry> sortIndexEntries(Table table, int column, String indexName) throws DatabaseException {
+      DataBox keyType = table.getSchema().getFieldTypes().get(column);
+      int numPages = Math.max(1, Database.this.numMemoryPages);
+      int runSize = numPages * Page.pageSize / (keyType.getSize() + RecordID.getSize());
+      int fanIn = Math.max(2, numPages - 1);
+      Schema runSchema = new Schema(Arrays.asList("key", "pageNum", "entryNum"),
+                                    Arrays.<DataBox>asList(keyType, new IntDataBox(), new IntDataBox()));
+
+      List<String> runs = new ArrayList<String>();
+      List<LeafEntry> run = new ArrayList<LeafEntry>();
+      Iterator<Record> records = table.viewIterator();
+      while (records.hasNext()) {
+        RecordView record = (RecordView) records.next();
+        run.add(new LeafEntry(record.getValues().get(column), record.getRecordID()));
+        if (run.size() == runSize && records.hasNext()) {
+          Collections.sort(run, LEAF_ENTRY_ORDER);
+          runs.add(this.writeRun(runSchema, indexName, run.iterator()));
+          run.clear();
+        }
+      }
+      Collections.sort(run, LEAF_ENTRY_ORDER);
+      if (runs.isEmpty()) {
+        return run.iterator();
+      }
+      runs.add(this.writeRun(runSchema, indexName, run.iterator()));
+
+      while (runs.size() > fanIn) {
+        List<String> merged = new ArrayList<String>();
+        for (int i = 0; i < runs.size(); i += fanIn) {
+          List<String> group = runs.subList(i, Math.min(i + fanIn, runs.size()));
+          merged.add(this.writeRun(runSchema, indexName, new RunMerger(group)));
+        }
+        runs = merged;
+      }
+      return new RunMerger(runs);
+    }
+
+    /**
+     * Writes a sorted run of sortIndexEntries to a new temporary table. Runs are numbered across
+     * the transaction, so a transaction can sort the same index more than once.
+     *
+     * @return the name of the temporary table
+     */
+    private String writeRun(Schema runSchema, String indexName, final Iterator<LeafEntry> entries)
+        throws DatabaseException {
+      String runName = "Temp CreateIndex " + indexName + " Run " + this.numSortRuns++;
+      this.createTempTable(runSchema, runName);
+      this.bulkLoad(runName, new Iterator<List<DataBox>>() {
+        public boolean hasNext() {
+          return entries.hasNext();
+        }
+
+        public List<DataBox> next() {
+          LeafEntry entry = entries.next();
+          RecordID rid = entry.getRecordID();
+          return Arrays.<DataBox>asList(entry.getKey(), new IntDataBox(rid.getPageNum()),
+                                        new IntDataBox(rid.getEntryNumber()));
+        }
+
+        public void remove() {
+          throw new UnsupportedOperationException();
+        }
+      });
+      return runName;
+    }
+
+    /**
+     * Merges runs written by writeRun into one sorted iterator. The next entry of each run is kept
+     * in heads, and the runs are ordered by their next entries in a priority queue. Each run's
+     * temporary table is deleted as soon as the run is used up, so a merge pass frees its input
+     * while it writes its output.
+     */
+    private class RunMerger implements Iterator<LeafEntry> {
+      private List<String> runNames;
+      private List<Iterator<Record>> runs;
+      private LeafEntry[] heads;
+      private PriorityQueue<Integer> queue;
+
+      public RunMerger(List<String> runNames) throws DatabaseException {
+        this.runNames = new ArrayList<String>(runNames);
+        this.runs = new ArrayList<Iterator<Record>>();
+        for (String runName : runNames) {
+          this.runs.add(Transaction.this.getRecordIterator(runName));
+        }
+        this.heads = new LeafEntry[this.runs.size()];
+        this.queue = new PriorityQueue<Integer>(this.runs.size(), new Comparator<Integer>() {
+          public int compare(Integer a, Integer b) {
+            return RunMerger.this.heads[a].compareTo(RunMerger.this.heads[b]);
+          }
+        });
+        for (int i = 0; i < this.runs.size(); i++) {
+          this.advance(i);
+        }
+      }
+
+      private void advance(int run) {
+        Iterator<Record> records = this.runs.get(run);
+        if (records.hasNext()) {
+          List<DataBox> values = records.next().getValues();
+          RecordID rid = new RecordID(values.get(1).getInt(), values.get(2).getInt());
+          this.heads[run] = new LeafEntry(values.get(0), rid);
+          this.queue.add(run);
+        } else {
+          Transaction.this.deleteTempTable(this.runNames.get(run));
+        }
+      }
+
+      public boolean hasNext() {
+        return !this.queue.isEmpty();
+      }
+
+      public LeafEntry next() {
+        if (!this.hasNext()) {
+          throw new NoSuchElementException();
+        }
+        int run = this.queue.poll();
+        LeafEntry entry = this.heads[run];
+        this.advance(run);
+        return entry;
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException();
+      }
+    }
+
+    private void markModified(String tableName) {
+      while (aliasMaps.containsKey(tableName)) {
+        tableName = aliasMaps.get(tableName);
+      }
+      if (!this.tempTables.containsKey(tableName)) {
+        this.modifiedTables.add(tableName);
+      }
+    }
+
+    /**
+     * Compacts the tables this transaction's deletes left sparse (see
+     * Database#setCompactionThreshold) that are still sparse.
+     */
+    private void compactSparseTables() {
+      for (String tableName : this.sparseTables) {
+        try {
+          if (getTable(tableName).isSparse(Database.this.compactionThreshold)) {
+            compactTable(tableName);
+          }
+        } catch (DatabaseException e) {
+          // the table was deleted after it was made sparse, so there is nothing to compact
+        }
+      }
+      this.sparseTables.clear();
+    }
+
+    /**
+     * Forces the deferred allocation metadata of every table this transaction modified, and of
+     * those tables' indices, so that the transaction's changes are durable once end returns.
+     */
+    private void syncModifiedTables() {
+      for (String tableName : this.modifiedTables) {
+        Table table = Database.this.tableLookup.get(tableName);
+        if (table != null) {
+          table.sync();
+        }
+        for (Map.Entry<String, BPlusTree> entry : Database.this.indexLookup.entrySet()) {
+          if (entry.getKey().startsWith(tableName + ",")) {
+            entry.getValue().sync();
+          }
+        }
+      }
+      this.modifiedTables.clear();
     }
 
     private void releaseAllLocks() {
@@ -574,15 +1330,16 @@ public class Database {
         return;
       }
 
-      this.tempTables.get(tempTableName).close();
+      this.tempTables.remove(tempTableName).close();
       Database.this.tableLookup.remove(tempTableName);
 
       File f = new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION);
       f.delete();
+      new File(Database.this.fileDir + "temp/" + tempTableName + Table.FILENAME_EXTENSION + Table.METADATA_EXTENSION).delete();
     }
 
     private void deleteAllTempTables() {
-      Set<String> keys = tempTables.keySet();
+      Set<String> keys = new HashSet<String>(tempTables.keySet());
 
       for (String tableName : keys) {
         deleteTempTable(tableName);
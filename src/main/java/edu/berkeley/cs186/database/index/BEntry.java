@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordID;
 
 import java.util.Arrays;
@@ -26,6 +27,30 @@ public abstract class BEntry implements Comparable {
         return key;
     }
 
+    /**
+     * Decode a key of type keySchema directly from a page, without copying
+     * fixed-width keys out of the page first.
+     *
+     * @param keySchema the schema of the key
+     * @param page the page containing the key
+     * @param offset the offset of the key in page
+     * @return the decoded key
+     */
+    protected static DataBox readKey(DataBox keySchema, Page page, int offset) {
+        switch (keySchema.type()) {
+            case INT:
+                return new IntDataBox(page.getInt(offset));
+            case FLOAT:
+                return new FloatDataBox(page.getFloat(offset));
+            case BOOL:
+                return new BoolDataBox(page.readByte(offset) != 0);
+            case STRING:
+                return new StringDataBox(page.readBytes(offset, keySchema.getSize()));
+            default:
+                throw new BPlusTreeException("Unknown key type " + keySchema.type());
+        }
+    }
+
     public int getPageNum() {
         throw new BPlusTreeException("Not Implemented");
     }
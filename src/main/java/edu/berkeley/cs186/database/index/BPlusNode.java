@@ -13,6 +13,10 @@ import java.util.ArrayList;
  * bitmap, and entries. The type of page header and entry are determined by the
  * subclasses InnerNode and LeafNode.
  *
+ * The entries of a node are kept sorted in entry numbers 0 to
+ * getNumValidEntries() - 1, so a node is searched by binary search over its
+ * raw entry bytes, without decoding any entry into a BEntry.
+ *
  * Properties:
  * keySchema: DataBox for this index's search key
  * entrySize: physical size (in bytes) of the page entry of this node
@@ -52,7 +56,9 @@ public abstract class BPlusNode {
             this.entrySize = keySchema.getSize() + 4;
         }
 
-        this.bitMapSize = (8 * (Page.pageSize - 5) / (1 + 8 * this.entrySize)) / 8;
+        // a checksummed page's trailer is not available to the node
+        int pageSize = Page.pageSize - (tree.hasChecksums() ? Page.checksumSize : 0);
+        this.bitMapSize = (8 * (pageSize - 5) / (1 + 8 * this.entrySize)) / 8;
         this.numEntries = bitMapSize * 8;
     }
 
@@ -95,7 +101,7 @@ public abstract class BPlusNode {
     }
 
     public boolean hasSpace() {
-        return findFreeEntry() > -1;
+        return getNumValidEntries(getPage()) < numEntries;
     }
 
     /**
@@ -118,10 +124,6 @@ public abstract class BPlusNode {
         throw new BPlusTreeException("Not Implemented");
     }
 
-    private byte[] getBitMap() {
-        return getPage().readBytes(headerSize, bitMapSize);
-    }
-
     private void setBitMap(byte[] bitMap) {
         getPage().writeBytes(headerSize, bitMapSize, bitMap);
     }
@@ -135,6 +137,15 @@ public abstract class BPlusNode {
         return entryNum*entrySize + this.headerSize + this.bitMapSize;
     }
 
+    /**
+     * @param entryNum position of bit on bitmap
+     * @return starting byte of the part of the entry after its key, which is a
+     * RecordID in a LeafNode and a child page number in an InnerNode
+     */
+    protected int getValueOffset(int entryNum) {
+        return getOffset(entryNum) + keySchema.getSize();
+    }
+
     /**
      * Write a BEentry into the entryNum specified.
      *
@@ -146,11 +157,11 @@ public abstract class BPlusNode {
         int bitOffset = 7 - (entryNum % 8);
         byte mask = (byte) (1 << bitOffset);
 
-        byte[] bitMap = getBitMap();
-        bitMap[byteOffset] = (byte) (bitMap[byteOffset] | mask);
-        setBitMap(bitMap);
+        Page page = getPage();
+        byte b = page.readByte(headerSize + byteOffset);
+        page.writeByte(headerSize + byteOffset, (byte) (b | mask));
         int entryOffset = getOffset(entryNum);
-        getPage().writeBytes(entryOffset, entrySize, ent.toBytes());
+        page.writeBytes(entryOffset, entrySize, ent.toBytes());
     }
 
     /**
@@ -159,41 +170,248 @@ public abstract class BPlusNode {
      * @param entryNum the entry number to read from
      * @return the BEntry corresponding to the entryNum
      */
-    private BEntry readEntry(int entryNum) {
+    private BEntry readEntry(Page page, int entryNum) {
         if (isLeaf()) {
-            return new LeafEntry(this.keySchema, getPage().readBytes(getOffset(entryNum), entrySize));
+            return new LeafEntry(this.keySchema, page, getOffset(entryNum));
         } else {
-            return new InnerEntry(this.keySchema, getPage().readBytes(getOffset(entryNum), entrySize));
+            return new InnerEntry(this.keySchema, page, getOffset(entryNum));
         }
     }
 
+    private boolean isValidEntry(Page page, int entryNum) {
+        byte b = page.readByte(headerSize + entryNum/8);
+        return (b & (1 << (7 - (entryNum % 8)))) != 0;
+    }
+
+    private void setValidEntry(Page page, int entryNum, boolean valid) {
+        int byteOffset = headerSize + entryNum/8;
+        byte mask = (byte) (1 << (7 - (entryNum % 8)));
+        byte b = page.readByte(byteOffset);
+        page.writeByte(byteOffset, (byte) (valid ? b | mask : b & ~mask));
+    }
+
     /**
-     * Return the entry number of the first free entry of this node.
+     * Return the number of entries of this node. Since the entries fill entry
+     * numbers 0 to n - 1, this is the position of the first clear bit of the
+     * bitmap, which is found by binary search.
      *
-     * @return the first free entry number, otherwise -1 if none exists
+     * @param page the Page of this node
+     * @return the number of valid entries
      */
-    private int findFreeEntry() {
-        byte[] bitMap = this.getBitMap();
+    protected int getNumValidEntries(Page page) {
+        int low = 0;
+        int high = this.numEntries;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (isValidEntry(page, mid)) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
 
-        for (int i = 0; i < this.numEntries; i++) {
-            int byteOffset = i/8;
-            int bitOffset = 7 - (i % 8);
-            byte mask = (byte) (1 << bitOffset);
-            byte value = (byte) (bitMap[byteOffset] & mask);
-            if (value == 0) {
-                return i;
+    /**
+     * Compare the key of an entry with a search key, reading the key straight
+     * out of the page.
+     *
+     * @param page the Page of this node
+     * @param entryNum the entry number whose key to compare
+     * @param key the search key
+     * @param keyBytes the bytes of key from getSearchBytes
+     * @return a negative number, zero, or a positive number as the entry's key
+     * is less than, equal to, or greater than key
+     */
+    protected int compareKey(Page page, int entryNum, DataBox key, byte[] keyBytes) {
+        int offset = getOffset(entryNum);
+        switch (keySchema.type()) {
+            case INT:
+                return Integer.compare(page.getInt(offset), key.getInt());
+            case FLOAT:
+                return Float.compare(page.getFloat(offset), key.getFloat());
+            case BOOL:
+                return Boolean.compare(page.readByte(offset) != 0, key.getBool());
+            default:
+                if (keyBytes != null) {
+                    return page.compareBytes(offset, keyBytes, 0, keyBytes.length);
+                }
+                return BEntry.readKey(keySchema, page, offset).compareTo(key);
+        }
+    }
+
+    /**
+     * Return the bytes compareKey compares a string search key by. Unsigned
+     * byte order of UTF-8 agrees with String.compareTo when one side is ASCII,
+     * so this is only done for ASCII keys of the key size; other keys are
+     * compared by decoding the entry's key.
+     *
+     * @param key the search key
+     * @return the bytes of key, or null if key must be compared decoded
+     */
+    protected byte[] getSearchBytes(DataBox key) {
+        if (keySchema.type() != DataBox.Types.STRING || key.type() != DataBox.Types.STRING) {
+            return null;
+        }
+        byte[] bytes = key.getBytes();
+        if (bytes.length != keySchema.getSize()) {
+            return null;
+        }
+        for (byte b : bytes) {
+            if (b < 0) {
+                return null;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Return the first entry number whose key is greater than or equal to key.
+     *
+     * @param page the Page of this node
+     * @param count the number of valid entries of this node
+     * @param key the search key
+     * @return the entry number, or count if every key is less than key
+     */
+    protected int lowerBound(Page page, int count, DataBox key) {
+        return search(page, 0, count, key, false);
+    }
+
+    /**
+     * Return the first entry number whose key is greater than key.
+     *
+     * @param page the Page of this node
+     * @param count the number of valid entries of this node
+     * @param key the search key
+     * @return the entry number, or count if no key is greater than key
+     */
+    protected int upperBound(Page page, int count, DataBox key) {
+        return search(page, 0, count, key, true);
+    }
+
+    private int search(Page page, int low, int high, DataBox key, boolean upper) {
+        byte[] keyBytes = getSearchBytes(key);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            int cmp = compareKey(page, mid, key, keyBytes);
+            if (cmp < 0 || (upper && cmp == 0)) {
+                low = mid + 1;
+            } else {
+                high = mid;
             }
         }
+        return low;
+    }
+
+    /**
+     * Compare the part of an entry after its key with that of ent, for
+     * ordering entries with equal keys.
+     *
+     * @param page the Page of this node
+     * @param entryNum the entry number to compare
+     * @param ent an entry of this node's type
+     * @return a negative number, zero, or a positive number as the entry is
+     * less than, equal to, or greater than ent
+     */
+    protected int compareValue(Page page, int entryNum, BEntry ent) {
+        throw new BPlusTreeException("Not Implemented");
+    }
+
+    /**
+     * Return the entry number ent belongs at: after every entry less than or
+     * equal to it.
+     *
+     * @param page the Page of this node
+     * @param count the number of valid entries of this node
+     * @param ent the entry to place
+     * @return the entry number to insert ent at
+     */
+    protected int findInsertPosition(Page page, int count, BEntry ent) {
+        int low = lowerBound(page, count, ent.getKey());
+        int high = search(page, low, count, ent.getKey(), true);
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareValue(page, mid, ent) <= 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Return the entry number of an entry equal to ent.
+     *
+     * @param page the Page of this node
+     * @param count the number of valid entries of this node
+     * @param ent the entry to find
+     * @return the entry number, or -1 if this node has no such entry
+     */
+    protected int findEntry(Page page, int count, BEntry ent) {
+        int entryNum = findInsertPosition(page, count, ent) - 1;
+        if (entryNum >= 0 && compareKey(page, entryNum, ent.getKey(), getSearchBytes(ent.getKey())) == 0
+                && compareValue(page, entryNum, ent) == 0) {
+            return entryNum;
+        }
         return -1;
     }
 
+    /**
+     * Insert ent in sorted position, shifting the entries after it over by one.
+     *
+     * @param page the Page of this node
+     * @param count the number of valid entries of this node, which must be
+     * less than numEntries
+     * @param ent the entry to insert
+     */
+    protected void insertSorted(Page page, int count, BEntry ent) {
+        int entryNum = findInsertPosition(page, count, ent);
+        if (entryNum < count) {
+            byte[] tail = page.readBytes(getOffset(entryNum), (count - entryNum) * entrySize);
+            page.writeBytes(getOffset(entryNum + 1), tail.length, tail);
+        }
+        page.writeBytes(getOffset(entryNum), entrySize, ent.toBytes());
+        setValidEntry(page, count, true);
+    }
+
+    /**
+     * Write ent after the last entry of this node. The caller must give
+     * entries in sorted order.
+     *
+     * @param page the Page of this node
+     * @param count the number of valid entries of this node, which must be
+     * less than numEntries
+     * @param ent the entry to append
+     */
+    protected void appendEntry(Page page, int count, BEntry ent) {
+        page.writeBytes(getOffset(count), entrySize, ent.toBytes());
+        setValidEntry(page, count, true);
+    }
+
+    /**
+     * Remove an entry, shifting the entries after it back by one.
+     *
+     * @param page the Page of this node
+     * @param count the number of valid entries of this node
+     * @param entryNum the entry number to remove
+     */
+    protected void removeEntry(Page page, int count, int entryNum) {
+        if (entryNum < count - 1) {
+            byte[] tail = page.readBytes(getOffset(entryNum + 1), (count - entryNum - 1) * entrySize);
+            page.writeBytes(getOffset(entryNum), tail.length, tail);
+        }
+        setValidEntry(page, count - 1, false);
+    }
+
     /**
      * Return a list of valid, existing entries of this node.
      *
      * @return a list of entries that have the valid bit set
      */
     protected List<BEntry> getAllValidEntries() {
-        byte[] bitMap = this.getBitMap();
+        Page page = getPage();
+        byte[] bitMap = page.readBytes(headerSize, bitMapSize);
         List<BEntry> entries = new ArrayList<BEntry>();
         for (int i = 0; i < this.numEntries; i++) {
             int byteOffset = i/8;
@@ -203,7 +421,7 @@ public abstract class BPlusNode {
             byte value = (byte) (bitMap[byteOffset] & mask);
 
             if (value != 0) {
-                entries.add(readEntry(i));
+                entries.add(readEntry(page, i));
             }
         }
         return entries;
@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.RecordID;
@@ -11,8 +13,8 @@ import java.nio.file.Paths;
 /**
  * A B+ tree. Allows the user to add, delete, search, and scan for keys in an
  * index. A BPlusTree has an associated page allocator. The first page in the
- * page allocator is a header page that serializes the search key data type,
- * root node page, and first leaf node page. Each subsequent page is a
+ * page allocator is a header page that serializes the root node page, first
+ * leaf node page, search key data type, and the file's FORMAT_VERSION. Each subsequent page is a
  * BPlusNode, specifically either an InnerNode or LeafNode. Note that a
  * BPlusTree can have duplicate keys that appear across multiple pages.
  *
@@ -26,6 +28,14 @@ import java.nio.file.Paths;
 public class BPlusTree {
     public static final String FILENAME_PREFIX = "db";
     public static final String FILENAME_EXTENSION = ".index";
+    public static final double DEFAULT_FILL_FACTOR = 0.9;
+
+    /**
+     * The version of the on-disk node layout, written to the header page.
+     * Version 2 added the next-leaf pointer to the leaf header; files written
+     * before it have no version (0) in the header page.
+     */
+    public static final int FORMAT_VERSION = 2;
 
     protected PageAllocator allocator;
     protected DataBox keySchema;
@@ -44,8 +54,22 @@ public class BPlusTree {
     }
 
     public BPlusTree(DataBox keySchema, String fName, String filePrefix) {
+        this(keySchema, fName, filePrefix, false);
+    }
+
+    /**
+     * This constructor is used for creating an empty BPlusTree whose pages
+     * are checksummed (see PageAllocator). Nodes leave the checksum trailer
+     * of their page alone, and reopening the tree keeps its choice.
+     *
+     * @param keySchema the schema of the index key
+     * @param fName the filename of select the index will be built
+     * @param filePrefix the directory of the file
+     * @param checksums whether to checksum the index's pages
+     */
+    public BPlusTree(DataBox keySchema, String fName, String filePrefix, boolean checksums) {
         String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
-        this.allocator = new PageAllocator(pathname, true);
+        this.allocator = new PageAllocator(pathname, true, true, BufferPool.getDefault(), 0, checksums);
         this.keySchema = keySchema;
         int headerPageNum = this.allocator.allocPage();
         assert(headerPageNum == 0);
@@ -67,8 +91,13 @@ public class BPlusTree {
 
     public BPlusTree(String fName, String filePrefix) {
         String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
-        this.allocator = new PageAllocator(pathname, false);
-        this.readHeader();
+        this.allocator = openAllocator(pathname);
+        try {
+            this.readHeader();
+        } catch (BPlusTreeException e) {
+            this.allocator.close();
+            throw new BPlusTreeException(pathname + ": " + e.getMessage());
+        }
     }
 
     public void incrementNumNodes() {
@@ -83,6 +112,78 @@ public class BPlusTree {
         return this.numNodes;
     }
 
+    /**
+     * Sets how long this index's page allocation metadata may go unforced.
+     *
+     * @param durabilityWindow the maximum delay in milliseconds, or 0 to force synchronously
+     * @see PageAllocator#setDurabilityWindow(long)
+     */
+    public void setDurabilityWindow(long durabilityWindow) {
+        this.allocator.setDurabilityWindow(durabilityWindow);
+    }
+
+    /**
+     * Forces any deferred page allocation metadata of this index to disk.
+     */
+    public void sync() {
+        this.allocator.sync();
+    }
+
+    /**
+     * Reads the format version of an existing index file without opening
+     * the tree, so that an index written in an older format can be rebuilt
+     * instead.
+     *
+     * @param fName the filename of a preexisting BPlusTree
+     * @param filePrefix the directory of the file
+     * @return the file's format version, 0 if it was written before
+     * versions were recorded
+     * @throws BPlusTreeException if the file's header page is invalid
+     */
+    public static int readFormatVersion(String fName, String filePrefix) {
+        String pathname = Paths.get(filePrefix, fName + FILENAME_EXTENSION).toString();
+        PageAllocator headerAllocator = openAllocator(pathname);
+        try {
+            // the same layout readHeader reads: root, first leaf, key type,
+            // the length of STRING keys, and then the version
+            Page headerPage = headerAllocator.fetchPage(0);
+            int keyOrd = headerPage.readInt(8);
+            if (keyOrd < 0 || keyOrd >= DataBox.Types.values().length) {
+                throw new BPlusTreeException(pathname + ": invalid key type " + keyOrd + " in index header");
+            }
+            boolean stringKey = DataBox.Types.values()[keyOrd].equals(DataBox.Types.STRING);
+            return headerPage.readInt(stringKey ? 16 : 12);
+        } finally {
+            headerAllocator.close();
+        }
+    }
+
+    /**
+     * @return whether this index's pages end with a checksum trailer
+     */
+    public boolean hasChecksums() {
+        return this.allocator.hasChecksums();
+    }
+
+    private static PageAllocator openAllocator(String pathname) {
+        return new PageAllocator(pathname, false, true, BufferPool.getDefault(), 0,
+                                 PageAllocator.hasChecksums(pathname));
+    }
+
+    /**
+     * Closes this index's file. The index can't be used afterwards.
+     */
+    public void close() {
+        this.allocator.close();
+    }
+
+    /**
+     * @return the I/O counters of this index's file
+     */
+    public IOStats getIOStats() {
+        return this.allocator.getIOStats();
+    }
+
     /**
      * Perform a sorted scan.
      * The iterator should return all RecordIDs, starting from the beginning to
@@ -91,8 +192,7 @@ public class BPlusTree {
      * @return Iterator of all RecordIDs in sorted order
      */
     public Iterator<RecordID> sortedScan() {
-        BPlusNode rootNode = BPlusNode.getBPlusNode(this, rootPageNum);
-        return new BPlusIterator(rootNode);
+        return new BPlusIterator(firstLeafPageNum, null, true, null, true);
     }
 
     /**
@@ -105,8 +205,66 @@ public class BPlusTree {
      * in sorted order
      */
     public Iterator<RecordID> sortedScanFrom(DataBox keyStart) {
-        BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
-        return new BPlusIterator(root, keyStart, true);
+        return new BPlusIterator(findLeaf(keyStart, true), keyStart, true, null, true);
+    }
+
+    /**
+     * Perform a range search between two keys.
+     * The iterator should return all RecordIDs whose keys are between lo and
+     * hi, inclusive, and stops at the first key greater than hi.
+     *
+     * @param lo the smallest key to return
+     * @param hi the largest key to return
+     * @return Iterator of RecordIDs with keys in [lo, hi] in sorted order
+     */
+    public Iterator<RecordID> rangeScan(DataBox lo, DataBox hi) {
+        return rangeScan(lo, true, hi, true);
+    }
+
+    /**
+     * Perform a range search between two bounds, either of which may be left
+     * open. The iterator should return all RecordIDs whose keys are within
+     * the bounds in sorted order, and stops at the first key past hi.
+     *
+     * @param lo the lower bound, or null to start at the smallest key
+     * @param loInclusive whether keys equal to lo are returned
+     * @param hi the upper bound, or null to end at the largest key
+     * @param hiInclusive whether keys equal to hi are returned
+     * @return Iterator of RecordIDs with keys within the bounds in sorted
+     * order
+     */
+    public Iterator<RecordID> rangeScan(DataBox lo, boolean loInclusive, DataBox hi, boolean hiInclusive) {
+        int leafPageNum = lo == null ? firstLeafPageNum : findLeaf(lo, loInclusive);
+        return new BPlusIterator(leafPageNum, lo, loInclusive, hi, hiInclusive);
+    }
+
+    /**
+     * Points the entry with the matching key and RecordID at a new RecordID,
+     * for a record that moved within its table (see Table#compact). Only the
+     * leaf holding the entry changes.
+     *
+     * @param key the key of the entry
+     * @param oldRid the RecordID of the entry
+     * @param newRid the new RecordID of the record
+     * @return true if the entry was found
+     */
+    public boolean updateRecordID(DataBox key, RecordID oldRid, RecordID newRid) {
+        // duplicates of key may span several leaves, so walk the leaves from
+        // the first one that may hold key until one holds a greater key
+        int leafPageNum = findLeaf(key, true);
+        while (leafPageNum != -1) {
+            LeafNode leaf = new LeafNode(this, leafPageNum);
+            if (leaf.replaceRecordID(key, oldRid, newRid)) {
+                return true;
+            }
+            Page page = leaf.getPage();
+            int count = leaf.getNumValidEntries(page);
+            if (leaf.upperBound(page, count, key) < count) {
+                return false;
+            }
+            leafPageNum = leaf.getNextLeaf();
+        }
+        return false;
     }
 
     /**
@@ -117,8 +275,29 @@ public class BPlusTree {
      * @return Iterator of RecordIDs that match the given key
      */
     public Iterator<RecordID> lookupKey(DataBox key) {
-        BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
-        return new BPlusIterator(root, key, false);
+        return new BPlusIterator(findLeaf(key, true), key, true, key, true);
+    }
+
+    /**
+     * Descend from the root to the leftmost leaf that may hold a key after
+     * the given bound.
+     *
+     * @param key the bound
+     * @param inclusive whether keys equal to the bound are after it
+     * @return the page number of the leaf
+     */
+    private int findLeaf(DataBox key, boolean inclusive) {
+        BPlusNode node = BPlusNode.getBPlusNode(this, rootPageNum);
+        while (!node.isLeaf()) {
+            // the child left of the first entry after the bound may still hold
+            // keys after it, since duplicates of a key can span children
+            InnerNode inner = (InnerNode) node;
+            Page page = inner.getPage();
+            int count = inner.getNumValidEntries(page);
+            int entryNum = inclusive ? inner.lowerBound(page, count, key) : inner.upperBound(page, count, key);
+            node = BPlusNode.getBPlusNode(this, inner.getChild(page, entryNum - 1));
+        }
+        return node.getPageNum();
     }
 
     /**
@@ -144,6 +323,105 @@ public class BPlusTree {
         }
     }
 
+    /**
+     * Bulk load sorted entries into this BPlusTree, with nodes filled to
+     * DEFAULT_FILL_FACTOR.
+     *
+     * @param entries the entries to load, sorted by key and then RecordID
+     * @see #bulkLoad(Iterator, double)
+     */
+    public void bulkLoad(Iterator<LeafEntry> entries) {
+        bulkLoad(entries, DEFAULT_FILL_FACTOR);
+    }
+
+    /**
+     * Bulk load sorted entries into this empty BPlusTree. Leaves are filled
+     * left to right, each up to fillFactor of its capacity, and the inner
+     * levels are built bottom-up along the way: only the rightmost node of
+     * each level is open, and a node is never written again once the next one
+     * on its level is started. The tree can be added to with insertKey
+     * afterwards; a fillFactor below 1 leaves room for those inserts before
+     * nodes split.
+     *
+     * @param entries the entries to load, sorted by key and then RecordID
+     * @param fillFactor the fraction of each node to fill, in (0, 1]
+     * @throws BPlusTreeException if this tree is not empty, fillFactor is out
+     * of range, or entries are not sorted
+     */
+    public void bulkLoad(Iterator<LeafEntry> entries, double fillFactor) {
+        if (fillFactor <= 0 || fillFactor > 1) {
+            throw new BPlusTreeException("fill factor must be in (0, 1]");
+        }
+        BPlusNode root = BPlusNode.getBPlusNode(this, rootPageNum);
+        if (!root.isLeaf() || root.getNumValidEntries(root.getPage()) > 0) {
+            throw new BPlusTreeException("can only bulk load an empty BPlusTree");
+        }
+
+        LeafNode leaf = (LeafNode) root;
+        int leafCapacity = Math.max(1, (int) (leaf.numEntries * fillFactor));
+        int leafCount = 0;
+        List<InnerNode> levels = new ArrayList<InnerNode>();
+        LeafEntry previous = null;
+        while (entries.hasNext()) {
+            LeafEntry ent = entries.next();
+            if (previous != null && previous.compareTo(ent) > 0) {
+                throw new BPlusTreeException("bulk loaded entries are not sorted");
+            }
+            previous = ent;
+
+            if (leafCount == leafCapacity) {
+                LeafNode nextLeaf = new LeafNode(this);
+                leaf.setNextLeaf(nextLeaf.getPageNum());
+                addToLevel(levels, 0, new InnerEntry(ent.getKey(), nextLeaf.getPageNum()), leaf.getPageNum(),
+                           fillFactor);
+                leaf = nextLeaf;
+                leafCount = 0;
+            }
+            leaf.appendEntry(leaf.getPage(), leafCount, ent);
+            leafCount++;
+        }
+
+        if (!levels.isEmpty()) {
+            updateRoot(levels.get(levels.size() - 1).getPageNum());
+        }
+    }
+
+    /**
+     * Append an entry to the rightmost node of an inner level during a bulk
+     * load, starting a new node on that level (and pushing its first key up)
+     * if the rightmost one is full.
+     *
+     * @param levels the rightmost node of each inner level, from the bottom
+     * @param level the level to add ent to
+     * @param ent the entry to add
+     * @param leftPageNum the node left of ent's child, which is the first child
+     * of a new top level
+     * @param fillFactor the fraction of each node to fill
+     */
+    private void addToLevel(List<InnerNode> levels, int level, InnerEntry ent, int leftPageNum,
+                            double fillFactor) {
+        if (level == levels.size()) {
+            InnerNode top = new InnerNode(this);
+            top.setFirstChild(leftPageNum);
+            levels.add(top);
+        }
+
+        InnerNode node = levels.get(level);
+        Page page = node.getPage();
+        int count = node.getNumValidEntries(page);
+        if (count < Math.max(1, (int) (node.numEntries * fillFactor))) {
+            node.appendEntry(page, count, ent);
+        } else {
+            // ent's child becomes the first child of the new node, and its key
+            // separates the new node from the full one
+            InnerNode nextNode = new InnerNode(this);
+            nextNode.setFirstChild(ent.getPageNum());
+            levels.set(level, nextNode);
+            addToLevel(levels, level + 1, new InnerEntry(ent.getKey(), nextNode.getPageNum()), node.getPageNum(),
+                       fillFactor);
+        }
+    }
+
     /**
      * Delete an entry with the matching key and RecordID.
      *
@@ -201,6 +479,9 @@ public class BPlusTree {
             headerPage.writeInt(bytesWritten, this.keySchema.getSize());
             bytesWritten += 4;
         }
+
+        headerPage.writeInt(bytesWritten, FORMAT_VERSION);
+        bytesWritten += 4;
         headerPage.flush();
     }
 
@@ -217,6 +498,9 @@ public class BPlusTree {
 
         int keyOrd = headerPage.readInt(bytesRead);
         bytesRead += 4;
+        if (keyOrd < 0 || keyOrd >= DataBox.Types.values().length) {
+            throw new BPlusTreeException("invalid key type " + keyOrd + " in index header");
+        }
         DataBox.Types type = DataBox.Types.values()[keyOrd];
 
         switch(type) {
@@ -225,6 +509,7 @@ public class BPlusTree {
                 break;
             case STRING:
                 int len = headerPage.readInt(bytesRead);
+                bytesRead += 4;
                 this.keySchema = new StringDataBox(len);
                 break;
             case BOOL:
@@ -234,101 +519,78 @@ public class BPlusTree {
                 this.keySchema = new FloatDataBox();
                 break;
         }
-    }
 
-    private enum TypeOfScan {SORTED_SCAN, SORTED_SCAN_FROM, LOOKUP_KEY};
+        // older leaves have no next-leaf pointer, so they would be misread;
+        // Database rebuilds such an index from its table (see
+        // readFormatVersion)
+        int version = headerPage.readInt(bytesRead);
+        if (version != FORMAT_VERSION) {
+            throw new BPlusTreeException("index format version " + version
+                    + " is not supported, expected " + FORMAT_VERSION);
+        }
+    }
 
     /**
      * A BPlusIterator provides several ways of iterating over RecordIDs stored
-     * in a BPlusTree.
+     * in a BPlusTree. It starts at one leaf and follows the chain of next leaf
+     * pointers, so it reads each leaf once, in key order, and stops at the
+     * first key past its upper bound.
+     *
+     * Properties:
+     * `low`, `lowInclusive`: the lower bound of the keys to return, or null
+     * `high`, `highInclusive`: the upper bound of the keys to return, or null
+     * `nextLeafPageNum`: the next leaf to read, or -1 if there is none
+     * `currLeafIterator`: the RecordIDs of the current leaf
      */
     private class BPlusIterator implements Iterator<RecordID> {
-
-        private TypeOfScan typeOfScan;
-        private BPlusNode rootNode;
-        private DataBox searchKey;
-        private Stack<BPlusNode> nodeStack = new Stack<BPlusNode>();
-        private BPlusNode currentNode;
+        private DataBox low;
+        private boolean lowInclusive;
+        private DataBox high;
+        private boolean highInclusive;
+        private int nextLeafPageNum;
         private Iterator<RecordID> currLeafIterator;
 
         /**
-         * Construct an iterator that performs a sorted scan on this BPlusTree
-         * tree.
-         * The iterator should return all RecordIDs, starting from the
-         * beginning to the end of the index.
+         * Construct an iterator over the RecordIDs whose keys are between two
+         * bounds, in sorted order.
          *
-         * @param root the root node of this BPlusTree
+         * @param leafPageNum the leftmost leaf that may hold a key in range
+         * @param low the lower bound, or null to start at the first key
+         * @param lowInclusive whether keys equal to low are returned
+         * @param high the upper bound, or null to end at the last key
+         * @param highInclusive whether keys equal to high are returned
          */
-        public BPlusIterator(BPlusNode root) {
-            typeOfScan = TypeOfScan.SORTED_SCAN;
-            rootNode = root;
-            currentNode = root;
-            while (!currentNode.isLeaf()) {
-                List<BEntry> validEntries = currentNode.getAllValidEntries();
-                Collections.reverse(validEntries);
-                for (BEntry entry : validEntries) {
-                    int childPageNum = entry.getPageNum();
-                    BPlusNode childNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), childPageNum);
-                    nodeStack.add(childNode);
-                }
-                int firstChildPageNum = ((InnerNode) currentNode).getFirstChild();
-                BPlusNode firstChildNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), firstChildPageNum);
-                currentNode = firstChildNode;
-            }
-            currLeafIterator = ((LeafNode) currentNode).scan();
+        public BPlusIterator(int leafPageNum, DataBox low, boolean lowInclusive, DataBox high,
+                             boolean highInclusive) {
+            this.low = low;
+            this.lowInclusive = lowInclusive;
+            this.high = high;
+            this.highInclusive = highInclusive;
+            this.nextLeafPageNum = leafPageNum;
+            this.currLeafIterator = Collections.<RecordID>emptyList().iterator();
         }
 
         /**
-         * Construct an iterator that performs either an equality or range
-         * search with a specified key.
-         * If @param scan is true, the iterator should return all RecordIDs,
-         * starting from the specified key to the end of the index.
-         * If @param scan is false, the iterator should return all RecordIDs
-         * that match the specified key.
-         *
-         * @param root the root node of this BPlusTree
-         * @param key the specified key value
-         * @param scan if true, do a range search; else, equality search
+         * Read the RecordIDs of the next leaf that are in range.
          */
-        public BPlusIterator(BPlusNode root, DataBox key, boolean scan) {
-            searchKey = key;
-            rootNode = root;
-            currentNode = root;
-            if (scan) {
-                typeOfScan = TypeOfScan.SORTED_SCAN_FROM;
-            } else {
-                typeOfScan = TypeOfScan.LOOKUP_KEY;
+        private void readNextLeaf() {
+            LeafNode leaf = new LeafNode(BPlusTree.this, nextLeafPageNum);
+            Page page = leaf.getPage();
+            int count = leaf.getNumValidEntries(page);
+            int start = 0;
+            if (low != null) {
+                start = lowInclusive ? leaf.lowerBound(page, count, low) : leaf.upperBound(page, count, low);
             }
-            while (!currentNode.isLeaf()) {
-                List<BEntry> validEntries = currentNode.getAllValidEntries();
-                Collections.reverse(validEntries);
-                boolean addFirstChild = true;
-                for (BEntry entry : validEntries) {
-                    if (typeOfScan == TypeOfScan.LOOKUP_KEY && entry.getKey().compareTo(searchKey) > 0) {
-                        continue;
-                    }
-                    int childPageNum = entry.getPageNum();
-                    BPlusNode childNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), childPageNum);
-                    nodeStack.add(childNode);
-                    if (entry.getKey().compareTo(searchKey) < 0) {
-                        addFirstChild = false;
-                        break;
-                    }
-                }
-                if (addFirstChild) {
-                    int firstChildPageNum = ((InnerNode) currentNode).getFirstChild();
-                    BPlusNode firstChildNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), firstChildPageNum);
-                    nodeStack.add(firstChildNode);
-                }
-                currentNode = nodeStack.pop();
+            int end = count;
+            if (high != null) {
+                end = highInclusive ? leaf.upperBound(page, count, high) : leaf.lowerBound(page, count, high);
             }
-            switch (typeOfScan) {
-                case SORTED_SCAN_FROM:
-                    currLeafIterator = ((LeafNode) currentNode).scanFrom(searchKey);
-                    break;
-                case LOOKUP_KEY:
-                    currLeafIterator = ((LeafNode) currentNode).scanForKey(searchKey);
-                    break;
+            currLeafIterator = leaf.scanRange(page, start, end);
+            // a key past high means every later leaf is past it too
+            nextLeafPageNum = end < count ? -1 : leaf.getNextLeaf();
+            if (start < count) {
+                // every key of the later leaves is after low
+                low = null;
             }
         }
 
@@ -339,55 +601,11 @@ public class BPlusTree {
          * otherwise
          */
         public boolean hasNext() {
-            if (currLeafIterator.hasNext()) {
-                return true;
-            } else if (nodeStack.isEmpty()) {
-                return false;
-            } else {
-                currentNode = nodeStack.pop();
-                while (!currentNode.isLeaf()) {
-                    List<BEntry> validEntries = currentNode.getAllValidEntries();
-                    Collections.reverse(validEntries);
-                    boolean addFirstChild = true;
-                    for (BEntry entry : validEntries) {
-                        if (typeOfScan == TypeOfScan.LOOKUP_KEY && entry.getKey().compareTo(searchKey) > 0) {
-                            continue;
-                        }
-                        int childPageNum = entry.getPageNum();
-                        BPlusNode childNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), childPageNum);
-                        nodeStack.add(childNode);
-                        if ((typeOfScan == TypeOfScan.SORTED_SCAN_FROM || typeOfScan == TypeOfScan.LOOKUP_KEY)
-                                && entry.getKey().compareTo(searchKey) < 0) {
-                            addFirstChild = false;
-                            break;
-                        }
-                    }
-                    if (addFirstChild) {
-                        int firstChildPageNum = ((InnerNode) currentNode).getFirstChild();
-                        BPlusNode firstChildNode = BPlusNode.getBPlusNode(this.rootNode.getTree(), firstChildPageNum);
-                        nodeStack.add(firstChildNode);
-                    }
-                    currentNode = nodeStack.pop();
-                }
-                switch (typeOfScan) {
-                    case SORTED_SCAN:
-                        currLeafIterator = ((LeafNode) currentNode).scan();
-                        break;
-                    case SORTED_SCAN_FROM:
-                        currLeafIterator = ((LeafNode) currentNode).scanFrom(searchKey);
-                        break;
-                    case LOOKUP_KEY:
-                        currLeafIterator = ((LeafNode) currentNode).scanForKey(searchKey);
-                        break;
-                }
-                if (currLeafIterator.hasNext()) {
-                    return true;
-                } else {
-                    return false;
-                }
+            while (!currLeafIterator.hasNext() && nextLeafPageNum != -1) {
+                readNextLeaf();
             }
+            return currLeafIterator.hasNext();
         }
-
         /**
          * Yield the next RecordID of this iterator.
          *
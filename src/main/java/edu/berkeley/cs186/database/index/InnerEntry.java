@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.Page;
 
 import java.util.Arrays;
 import java.nio.ByteBuffer;
@@ -41,6 +42,11 @@ public class InnerEntry extends BEntry {
         this.pageNum = ByteBuffer.wrap(pBytes).getInt();
     }
 
+    public InnerEntry(DataBox keySchema, Page page, int offset) {
+        this.key = readKey(keySchema, page, offset);
+        this.pageNum = page.getInt(offset + keySchema.getSize());
+    }
+
     @Override
     public int getPageNum() {
         return this.pageNum;
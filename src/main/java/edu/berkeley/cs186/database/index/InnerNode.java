@@ -53,16 +53,28 @@ public class InnerNode extends BPlusNode {
      * contains the given key
      */
     public int findChildFromKey(DataBox key) {
-        int childToTraverse = getFirstChild();
-        List<BEntry> validEntries = getAllValidEntries();
-        for (BEntry entry : validEntries) {
-            if (key.compareTo(entry.getKey()) < 0) {
-                break;
-            } else {
-                childToTraverse = entry.getPageNum();
-            }
+        Page page = getPage();
+        int entryNum = upperBound(page, getNumValidEntries(page), key) - 1;
+        return getChild(page, entryNum);
+    }
+
+    /**
+     * Returns the child to the right of an entry of this InnerNode.
+     *
+     * @param page the Page of this InnerNode
+     * @param entryNum the entry number, or -1 for the first child
+     * @return page number of the child
+     */
+    protected int getChild(Page page, int entryNum) {
+        if (entryNum < 0) {
+            return page.readInt(1);
         }
-        return childToTraverse;
+        return page.getInt(getValueOffset(entryNum));
+    }
+
+    @Override
+    protected int compareValue(Page page, int entryNum, BEntry ent) {
+        return Integer.compare(page.getInt(getValueOffset(entryNum)), ent.getPageNum());
     }
 
     /**
@@ -78,11 +90,10 @@ public class InnerNode extends BPlusNode {
         InnerEntry pushedEntry = childNode.insertBEntry(ent);
 
         if (pushedEntry != null) {
-            if (hasSpace()) {
-                List<BEntry> validEntries = getAllValidEntries();
-                validEntries.add(pushedEntry);
-                Collections.sort(validEntries);
-                overwriteBNodeEntries(validEntries);
+            Page page = getPage();
+            int count = getNumValidEntries(page);
+            if (count < numEntries) {
+                insertSorted(page, count, pushedEntry);
                 return null;
             } else {
                 return splitNode(pushedEntry);
@@ -1,6 +1,7 @@
 package edu.berkeley.cs186.database.index;
 
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.table.RecordID;
 
 import java.util.Arrays;
@@ -44,6 +45,12 @@ public class LeafEntry extends BEntry {
         this.rid = new RecordID(rBytes);
     }
 
+    public LeafEntry(DataBox keySchema, Page page, int offset) {
+        this.key = readKey(keySchema, page, offset);
+        int ridOffset = offset + keySchema.getSize();
+        this.rid = new RecordID(page.getInt(ridOffset), page.getShort(ridOffset + 4));
+    }
+
     @Override
     public RecordID getRecordID() {
         return rid;
@@ -11,18 +11,21 @@ import java.util.ArrayList;
 
 /**
  * A leaf node of a B+ tree. A LeafNode header contains an `isLeaf` flag set
- * to 1. A LeafNode contains LeafEntries.
+ * to 1 and the page number of the next leaf node to the right (or -1 if this
+ * is the last leaf), so that the leaves form a chain in key order. A LeafNode
+ * contains LeafEntries.
  *
  * Inherits all the properties of a BPlusNode.
  */
 public class LeafNode extends BPlusNode {
 
-    public static int headerSize = 1;       // isLeaf
+    public static int headerSize = 5;       // isLeaf + pageNum of next leaf
 
     public LeafNode(BPlusTree tree) {
         super(tree, true);
         tree.incrementNumNodes();
         getPage().writeByte(0, (byte) 1);   // isLeaf = 1
+        setNextLeaf(-1);
     }
 
     public LeafNode(BPlusTree tree, int pageNum) {
@@ -37,6 +40,14 @@ public class LeafNode extends BPlusNode {
         return true;
     }
 
+    public int getNextLeaf() {
+        return getPage().readInt(1);
+    }
+
+    public void setNextLeaf(int val) {
+        getPage().writeInt(1, val);
+    }
+
     /**
      * Inserts a LeafEntry into this LeafNode.
      *
@@ -46,11 +57,10 @@ public class LeafNode extends BPlusNode {
      */
     @Override
     public InnerEntry insertBEntry(LeafEntry ent) {
-        if (hasSpace()) {
-            List<BEntry> validEntries = getAllValidEntries();
-            validEntries.add(ent);
-            Collections.sort(validEntries);
-            overwriteBNodeEntries(validEntries);
+        Page page = getPage();
+        int count = getNumValidEntries(page);
+        if (count < numEntries) {
+            insertSorted(page, count, ent);
             return null;
         } else {
             return splitNode(ent);
@@ -81,6 +91,8 @@ public class LeafNode extends BPlusNode {
 
         LeafNode rightNode = new LeafNode(getTree());
         rightNode.overwriteBNodeEntries(rightNodeEntries);
+        rightNode.setNextLeaf(getNextLeaf());
+        setNextLeaf(rightNode.getPageNum());
 
         InnerEntry newMiddleEntry = new InnerEntry(middleEntry.getKey(), rightNode.getPageNum());
 
@@ -88,22 +100,49 @@ public class LeafNode extends BPlusNode {
     }
 
 
+    @Override
+    protected int compareValue(Page page, int entryNum, BEntry ent) {
+        RecordID rid = ent.getRecordID();
+        int offset = getValueOffset(entryNum);
+        int pageCompVal = Integer.compare(page.getInt(offset), rid.getPageNum());
+        if (pageCompVal == 0) {
+            return Integer.compare(page.getShort(offset + 4), rid.getEntryNumber());
+        }
+        return pageCompVal;
+    }
+
+    private RecordID readRecordID(Page page, int entryNum) {
+        int offset = getValueOffset(entryNum);
+        return new RecordID(page.getInt(offset), page.getShort(offset + 4));
+    }
+
     /**
-     * Creates an iterator of RecordIDs for all entries in this node.
+     * Creates an iterator of RecordIDs for the entries from start up to, but
+     * not including, end.
      *
+     * @param page the Page of this LeafNode
+     * @param start the first entry number
+     * @param end the entry number to stop at
      * @return an iterator of RecordIDs
      */
-    public Iterator<RecordID> scan() {
-        List<BEntry> validEntries = getAllValidEntries();
-        List<RecordID> rids = new ArrayList<RecordID>();
-
-        for (BEntry le : validEntries) {
-            rids.add(le.getRecordID());
+    protected Iterator<RecordID> scanRange(Page page, int start, int end) {
+        List<RecordID> rids = new ArrayList<RecordID>(Math.max(end - start, 0));
+        for (int i = start; i < end; i++) {
+            rids.add(readRecordID(page, i));
         }
-
         return rids.iterator();
     }
 
+    /**
+     * Creates an iterator of RecordIDs for all entries in this node.
+     *
+     * @return an iterator of RecordIDs
+     */
+    public Iterator<RecordID> scan() {
+        Page page = getPage();
+        return scanRange(page, 0, getNumValidEntries(page));
+    }
+
     /**
      * Creates an iterator of RecordIDs whose keys are greater than or equal to
      * the given start value key.
@@ -112,15 +151,9 @@ public class LeafNode extends BPlusNode {
      * @return an iterator of RecordIDs
      */
     public Iterator<RecordID> scanFrom(DataBox startValue) {
-        List<BEntry> validEntries = getAllValidEntries();
-        List<RecordID> rids = new ArrayList<RecordID>();
-
-        for (BEntry le : validEntries) {
-            if (startValue.compareTo(le.getKey()) < 1) {
-                rids.add(le.getRecordID());
-            }
-        }
-        return rids.iterator();
+        Page page = getPage();
+        int count = getNumValidEntries(page);
+        return scanRange(page, lowerBound(page, count, startValue), count);
     }
 
     /**
@@ -131,26 +164,36 @@ public class LeafNode extends BPlusNode {
      * @return an iterator of RecordIDs
      */
     public Iterator<RecordID> scanForKey(DataBox key) {
-        List<BEntry> validEntries = getAllValidEntries();
-        List<RecordID> rids = new ArrayList<RecordID>();
+        Page page = getPage();
+        int count = getNumValidEntries(page);
+        return scanRange(page, lowerBound(page, count, key), upperBound(page, count, key));
+    }
 
-        for (BEntry le : validEntries) {
-            if (key.compareTo(le.getKey()) == 0) {
-                rids.add(le.getRecordID());
-            }
+    /**
+     * Replaces the RecordID of the entry with the given key and RecordID,
+     * keeping the entries of this node sorted.
+     *
+     * @param key the key of the entry
+     * @param oldRid the RecordID of the entry
+     * @param newRid the RecordID to replace it with
+     * @return true if this node held the entry
+     */
+    public boolean replaceRecordID(DataBox key, RecordID oldRid, RecordID newRid) {
+        Page page = getPage();
+        int count = getNumValidEntries(page);
+        int entryNum = findEntry(page, count, new LeafEntry(key, oldRid));
+        if (entryNum < 0) {
+            return false;
         }
-        return rids.iterator();
+        removeEntry(page, count, entryNum);
+        insertSorted(page, count - 1, new LeafEntry(key, newRid));
+        return true;
     }
 
     public boolean containsKey(DataBox key) {
-        List<BEntry> validEntries = getAllValidEntries();
-
-        for (BEntry le : validEntries) {
-            if (key.compareTo(le.getKey()) == 0) {
-                return true;
-            }
-        }
-        return false;
-
+        Page page = getPage();
+        int count = getNumValidEntries(page);
+        int entryNum = lowerBound(page, count, key);
+        return entryNum < count && compareKey(page, entryNum, key, getSearchBytes(key)) == 0;
     }
 }
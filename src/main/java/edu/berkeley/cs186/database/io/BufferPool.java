@@ -0,0 +1,276 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A fixed-size pool of page frames shared by one or more PageAllocators. Frames are keyed by the
+ * virtual page number produced by PageAllocator.translatePageNum. Pinned frames are never chosen
+ * for eviction, and an evicted frame is only written back to disk if it is dirty.
+ *
+ * Lookups of resident pages go through a ConcurrentHashMap and take no locks, so scans on
+ * different tables (or the same table) scale with the number of threads. Misses, removals and
+ * evictions are serialized on the pool's monitor. Which frame is evicted is decided by the pool's
+ * EvictionPolicy: CLOCK unless another policy is given. The database-wide default pool uses
+ * LRU-2, so that a sequential scan of a large table does not flush out hot index pages.
+ *
+ * Properties:
+ * `numFrames`: the maximum number of pages this pool holds at once
+ * `pageTable`: maps virtual page numbers to resident frames
+ * `frames`: the frame slots, indexed by slot number
+ * `freeSlots`: the slots that hold no frame
+ * `policy`: chooses which frame to evict when there are no free slots
+ */
+public class BufferPool {
+  public static final int DEFAULT_NUM_FRAMES = 1024;
+
+  private static final BufferPool defaultPool = new BufferPool(DEFAULT_NUM_FRAMES, new LRUKPolicy(2));
+
+  private final int numFrames;
+  private final ConcurrentHashMap<Long, Frame> pageTable;
+  private final Frame[] frames;
+  private final Deque<Integer> freeSlots;
+  private volatile EvictionPolicy policy;
+
+  /**
+   * Create a new BufferPool that holds at most numFrames pages and evicts with CLOCK.
+   *
+   * @param numFrames the number of frames in this pool
+   */
+  public BufferPool(int numFrames) {
+    this(numFrames, new ClockPolicy());
+  }
+
+  /**
+   * Create a new BufferPool that holds at most numFrames pages.
+   *
+   * @param numFrames the number of frames in this pool
+   * @param policy the eviction policy, which must not be shared with another pool
+   */
+  public BufferPool(int numFrames, EvictionPolicy policy) {
+    if (numFrames < 1) {
+      throw new IllegalArgumentException("BufferPool needs at least one frame");
+    }
+    this.numFrames = numFrames;
+    this.pageTable = new ConcurrentHashMap<Long, Frame>(numFrames);
+    this.frames = new Frame[numFrames];
+    this.freeSlots = new ArrayDeque<Integer>(numFrames);
+    for (int i = 0; i < numFrames; i++) {
+      this.freeSlots.add(i);
+    }
+    policy.init(numFrames);
+    this.policy = policy;
+  }
+
+  /**
+   * @return the database-wide pool used by PageAllocators that are not given one explicitly
+   */
+  public static BufferPool getDefault() {
+    return BufferPool.defaultPool;
+  }
+
+  public int getNumFrames() {
+    return this.numFrames;
+  }
+
+  public EvictionPolicy getEvictionPolicy() {
+    return this.policy;
+  }
+
+  /**
+   * Replaces this pool's eviction policy. Resident pages are handed to the new policy as if they
+   * had just been loaded.
+   *
+   * @param policy the new eviction policy, which must not be shared with another pool
+   */
+  public synchronized void setEvictionPolicy(EvictionPolicy policy) {
+    policy.init(this.numFrames);
+    for (int i = 0; i < this.numFrames; i++) {
+      if (this.frames[i] != null) {
+        policy.inserted(i, true);
+      }
+    }
+    this.policy = policy;
+  }
+
+  /**
+   * Used by eviction policies to skip frames that can't be evicted.
+   *
+   * @param slot a frame slot
+   * @return whether slot holds a page that is not pinned
+   */
+  public boolean isEvictable(int slot) {
+    Frame frame = this.frames[slot];
+    return frame != null && !frame.page.isPinned();
+  }
+
+  /**
+   * @return the number of frames currently holding a page
+   */
+  public int size() {
+    return this.pageTable.size();
+  }
+
+  /**
+   * Looks up the page cached under vPageNum, optionally pinning it. Never blocks.
+   *
+   * @param vPageNum the virtual page number
+   * @param pin whether to pin the page if it is resident
+   * @return the cached Page, or null if it is not resident
+   */
+  Page get(long vPageNum, boolean pin) {
+    Frame frame = this.pageTable.get(vPageNum);
+    if (frame == null) {
+      return null;
+    }
+    // Pin the frame even if the caller doesn't want it pinned, until its access is recorded: a
+    // pinned frame is never evicted, so its slot can't be given to another page while the policy
+    // updates the slot's state.
+    frame.page.pin();
+    // The clock hand may have claimed this frame before our pin became visible; if so, back off
+    // and let the caller take the locked miss path.
+    if (this.pageTable.get(vPageNum) != frame) {
+      frame.page.unpin();
+      return null;
+    }
+    this.policy.accessed(frame.slot);
+    if (!pin) {
+      frame.page.unpin();
+    }
+    return frame.page;
+  }
+
+  /**
+   * @param vPageNum the virtual page number
+   * @return whether the page is resident, without counting this as a reference to it
+   */
+  boolean contains(long vPageNum) {
+    return this.pageTable.containsKey(vPageNum);
+  }
+
+  /**
+   * Caches page under vPageNum unless another thread cached the same page first, evicting an
+   * unpinned frame if the pool is full.
+   *
+   * @param vPageNum the virtual page number
+   * @param page the newly mapped page
+   * @param owner the PageAllocator that owns page
+   * @param pin whether to pin the page that is returned
+   * @return the page now resident under vPageNum
+   * @throws PageException if the pool is full and every frame is pinned
+   */
+  Page putIfAbsent(long vPageNum, Page page, PageAllocator owner, boolean pin) {
+    return putIfAbsent(vPageNum, page, owner, pin, false);
+  }
+
+  /**
+   * Like putIfAbsent(long, Page, PageAllocator, boolean), but a prefetched page is not counted as
+   * referenced until someone fetches it.
+   */
+  synchronized Page putIfAbsent(long vPageNum, Page page, PageAllocator owner, boolean pin,
+                                boolean prefetch) {
+    Frame frame = this.pageTable.get(vPageNum);
+    if (frame == null) {
+      int slot = this.findFreeSlot();
+      frame = new Frame(vPageNum, slot, page, owner);
+      this.frames[slot] = frame;
+      this.pageTable.put(vPageNum, frame);
+      this.policy.inserted(slot, !prefetch);
+    } else if (!prefetch) {
+      this.policy.accessed(frame.slot);
+    }
+    if (pin) {
+      frame.page.pin();
+    }
+    return frame.page;
+  }
+
+  /**
+   * Drops the frame cached under vPageNum without writing it back.
+   *
+   * @param vPageNum the virtual page number
+   * @return the page that was resident, or null if there was none
+   */
+  synchronized Page remove(long vPageNum) {
+    Frame frame = this.pageTable.remove(vPageNum);
+    if (frame == null) {
+      return null;
+    }
+    this.frames[frame.slot] = null;
+    this.freeSlots.add(frame.slot);
+    this.policy.removed(frame.slot);
+    return frame.page;
+  }
+
+  /**
+   * Drops every frame belonging to owner without writing them back.
+   *
+   * @param owner the PageAllocator whose frames should be removed
+   * @return the pages that were resident
+   */
+  synchronized List<Page> removeAll(PageAllocator owner) {
+    List<Page> removed = new ArrayList<Page>();
+    for (int i = 0; i < this.numFrames; i++) {
+      Frame frame = this.frames[i];
+      if (frame != null && frame.owner == owner) {
+        this.pageTable.remove(frame.vPageNum);
+        this.frames[i] = null;
+        this.freeSlots.add(i);
+        this.policy.removed(i);
+        removed.add(frame.page);
+      }
+    }
+    return removed;
+  }
+
+  /**
+   * Finds an empty slot, evicting the frame chosen by the eviction policy if every slot is in use.
+   * Must be called while holding the pool's monitor.
+   *
+   * @return the index of a slot that is now empty
+   * @throws PageException if every frame is pinned
+   */
+  private int findFreeSlot() {
+    if (!this.freeSlots.isEmpty()) {
+      return this.freeSlots.poll();
+    }
+
+    for (int i = 0; i < this.numFrames; i++) {
+      int slot = this.policy.chooseVictim(this);
+      if (slot < 0) {
+        break;
+      }
+
+      Frame frame = this.frames[slot];
+      this.pageTable.remove(frame.vPageNum);
+      if (frame.page.isPinned()) {
+        // A lock-free get pinned the page between the policy's check and the removal.
+        this.pageTable.put(frame.vPageNum, frame);
+        continue;
+      }
+      this.frames[slot] = null;
+      this.policy.removed(slot);
+      frame.page.flush();
+      frame.owner.incrementEvictions();
+      return slot;
+    }
+    throw new PageException("No unpinned frames available for eviction");
+  }
+
+  private static class Frame {
+    private final long vPageNum;
+    private final int slot;
+    private final Page page;
+    private final PageAllocator owner;
+
+    private Frame(long vPageNum, int slot, Page page, PageAllocator owner) {
+      this.vPageNum = vPageNum;
+      this.slot = slot;
+      this.page = page;
+      this.owner = owner;
+    }
+  }
+}
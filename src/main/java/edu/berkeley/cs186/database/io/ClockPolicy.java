@@ -0,0 +1,55 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * The CLOCK approximation of LRU. A hit only sets the frame's reference bit, and the clock hand
+ * clears reference bits until it finds an evictable frame that has not been referenced since the
+ * hand last passed it. Cheap, but a scan that touches more pages than the pool holds will flush
+ * every page out of it.
+ *
+ * Properties:
+ * `referenced`: the reference bit of each slot
+ * `clockHand`: the next slot the clock hand will examine
+ */
+public class ClockPolicy implements EvictionPolicy {
+  private boolean[] referenced;
+  private int clockHand;
+
+  public void init(int numFrames) {
+    this.referenced = new boolean[numFrames];
+    this.clockHand = 0;
+  }
+
+  public void inserted(int slot, boolean referenced) {
+    // Even a prefetched page gets one trip around the clock, or it would be evicted before use.
+    this.referenced[slot] = true;
+  }
+
+  public void accessed(int slot) {
+    if (!this.referenced[slot]) {
+      this.referenced[slot] = true;
+    }
+  }
+
+  public void removed(int slot) {
+    this.referenced[slot] = false;
+  }
+
+  public int chooseVictim(BufferPool pool) {
+    int numFrames = this.referenced.length;
+    // Two full sweeps: the first may only clear reference bits.
+    for (int i = 0; i < 2 * numFrames + 1; i++) {
+      int slot = this.clockHand;
+      this.clockHand = (this.clockHand + 1) % numFrames;
+
+      if (!pool.isEvictable(slot)) {
+        continue;
+      }
+      if (this.referenced[slot]) {
+        this.referenced[slot] = false;
+        continue;
+      }
+      return slot;
+    }
+    return -1;
+  }
+}
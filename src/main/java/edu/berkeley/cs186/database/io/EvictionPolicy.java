@@ -0,0 +1,47 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * Decides which frame of a BufferPool to evict. A policy tracks frames by slot number and belongs
+ * to a single pool. Every method except accessed is called while holding the pool's monitor;
+ * accessed is called on the lock-free hit path, possibly by many threads at once, so it should
+ * do as little as possible and tolerate lost updates. The frame is pinned while accessed runs,
+ * so its slot is not reused for another page until accessed returns.
+ */
+public interface EvictionPolicy {
+  /**
+   * Called once by the pool before any other method.
+   *
+   * @param numFrames the number of slots in the pool
+   */
+  void init(int numFrames);
+
+  /**
+   * A page was loaded into slot.
+   *
+   * @param slot the frame slot
+   * @param referenced false if the page was prefetched and nobody has asked for it yet
+   */
+  void inserted(int slot, boolean referenced);
+
+  /**
+   * The page in slot was fetched while resident.
+   *
+   * @param slot the frame slot
+   */
+  void accessed(int slot);
+
+  /**
+   * The page in slot was evicted or dropped, and slot is now empty.
+   *
+   * @param slot the frame slot
+   */
+  void removed(int slot);
+
+  /**
+   * Chooses the frame to evict. Only slots for which pool.isEvictable returns true may be chosen.
+   *
+   * @param pool the pool that owns this policy
+   * @return the slot to evict, or -1 if no frame can be evicted
+   */
+  int chooseVictim(BufferPool pool);
+}
@@ -0,0 +1,142 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * I/O counters for a single PageAllocator, and so for a single table or index. The counters are
+ * LongAdders, which are striped across threads, so that counting on the lock-free fetch path does
+ * not make concurrent scans contend on one cache line.
+ *
+ * Counters can be reset (for instance at the start of a transaction or query) or copied with
+ * snapshot and compared later with minus. A snapshot is a detached copy that no longer changes.
+ *
+ * Properties:
+ * `logicalReads`: the number of pages fetched, whether or not they were resident
+ * `hits`: the number of fetches served from the BufferPool
+ * `faults`: the number of pages mapped in from the file, including read-ahead
+ * `flushes`: the number of modified pages forced to disk, including header pages
+ * `allocations`: the number of pages allocated
+ * `frees`: the number of pages freed
+ * `evictions`: the number of pages evicted from the BufferPool
+ */
+public class IOStats {
+  private final LongAdder logicalReads = new LongAdder();
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder faults = new LongAdder();
+  private final LongAdder flushes = new LongAdder();
+  private final LongAdder allocations = new LongAdder();
+  private final LongAdder frees = new LongAdder();
+  private final LongAdder evictions = new LongAdder();
+
+  public long getLogicalReads() {
+    return this.logicalReads.sum();
+  }
+
+  public long getHits() {
+    return this.hits.sum();
+  }
+
+  public long getFaults() {
+    return this.faults.sum();
+  }
+
+  public long getFlushes() {
+    return this.flushes.sum();
+  }
+
+  public long getAllocations() {
+    return this.allocations.sum();
+  }
+
+  public long getFrees() {
+    return this.frees.sum();
+  }
+
+  public long getEvictions() {
+    return this.evictions.sum();
+  }
+
+  void recordRead(boolean hit) {
+    this.logicalReads.increment();
+    if (hit) {
+      this.hits.increment();
+    }
+  }
+
+  void recordFault() {
+    this.faults.increment();
+  }
+
+  void recordFlush() {
+    this.flushes.increment();
+  }
+
+  void recordAllocation() {
+    this.allocations.increment();
+  }
+
+  void recordFree() {
+    this.frees.increment();
+  }
+
+  void recordEviction() {
+    this.evictions.increment();
+  }
+
+  /**
+   * Sets every counter back to zero. Updates made concurrently with a reset may be lost.
+   */
+  public void reset() {
+    this.logicalReads.reset();
+    this.hits.reset();
+    this.faults.reset();
+    this.flushes.reset();
+    this.allocations.reset();
+    this.frees.reset();
+    this.evictions.reset();
+  }
+
+  /**
+   * @return a copy of the current counter values
+   */
+  public IOStats snapshot() {
+    return this.minus(new IOStats());
+  }
+
+  /**
+   * @param earlier an earlier snapshot of these counters
+   * @return the counts accumulated since earlier was taken
+   */
+  public IOStats minus(IOStats earlier) {
+    IOStats diff = new IOStats();
+    diff.logicalReads.add(this.getLogicalReads() - earlier.getLogicalReads());
+    diff.hits.add(this.getHits() - earlier.getHits());
+    diff.faults.add(this.getFaults() - earlier.getFaults());
+    diff.flushes.add(this.getFlushes() - earlier.getFlushes());
+    diff.allocations.add(this.getAllocations() - earlier.getAllocations());
+    diff.frees.add(this.getFrees() - earlier.getFrees());
+    diff.evictions.add(this.getEvictions() - earlier.getEvictions());
+    return diff;
+  }
+
+  /**
+   * Adds other's counts to these counters, for totalling the stats of several files.
+   *
+   * @param other the stats to add
+   */
+  public void add(IOStats other) {
+    this.logicalReads.add(other.getLogicalReads());
+    this.hits.add(other.getHits());
+    this.faults.add(other.getFaults());
+    this.flushes.add(other.getFlushes());
+    this.allocations.add(other.getAllocations());
+    this.frees.add(other.getFrees());
+    this.evictions.add(other.getEvictions());
+  }
+
+  public String toString() {
+    return "IOStats(reads=" + getLogicalReads() + ", hits=" + getHits() + ", faults=" + getFaults()
+        + ", flushes=" + getFlushes() + ", allocations=" + getAllocations() + ", frees=" + getFrees()
+        + ", evictions=" + getEvictions() + ")";
+  }
+}
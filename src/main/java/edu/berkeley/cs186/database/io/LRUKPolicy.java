@@ -0,0 +1,87 @@
+package edu.berkeley.cs186.database.io;
+
+/**
+ * The LRU-K policy of O'Neil, O'Neil and Weikum. Each frame remembers the times of its last K
+ * references, and the victim is the evictable frame whose K-th most recent reference is oldest.
+ * Frames referenced fewer than K times are evicted first, least recently used first, so pages
+ * that a sequential scan touches once are evicted before pages that are used again and again,
+ * such as B+ tree inner nodes.
+ *
+ * Time advances by one on every page load, and references to a frame at the same time count as
+ * one, so several fetches of a page by one operation are not mistaken for reuse.
+ *
+ * Properties:
+ * `k`: the number of references remembered per frame
+ * `history`: for each slot, the times of its last k references, most recent first; 0 means none
+ * `loaded`: for each slot, the time its page was loaded
+ * `clock`: the current time
+ */
+public class LRUKPolicy implements EvictionPolicy {
+  private final int k;
+  private long[][] history;
+  private long[] loaded;
+  private volatile long clock;
+
+  /**
+   * @param k the number of references to remember per frame; at least 1, and 1 is plain LRU
+   */
+  public LRUKPolicy(int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("LRU-K needs k of at least 1");
+    }
+    this.k = k;
+  }
+
+  public void init(int numFrames) {
+    this.history = new long[numFrames][this.k];
+    this.loaded = new long[numFrames];
+    this.clock = 0;
+  }
+
+  public void inserted(int slot, boolean referenced) {
+    long now = ++this.clock;
+    long[] h = this.history[slot];
+    for (int i = 0; i < this.k; i++) {
+      h[i] = 0;
+    }
+    if (referenced) {
+      h[0] = now;
+    }
+    this.loaded[slot] = now;
+  }
+
+  public void accessed(int slot) {
+    long now = this.clock;
+    long[] h = this.history[slot];
+    if (h[0] == now) {
+      return;
+    }
+    for (int i = this.k - 1; i > 0; i--) {
+      h[i] = h[i - 1];
+    }
+    h[0] = now;
+  }
+
+  public void removed(int slot) {
+  }
+
+  public int chooseVictim(BufferPool pool) {
+    int victim = -1;
+    long victimKth = Long.MAX_VALUE;
+    long victimLast = Long.MAX_VALUE;
+    for (int slot = 0; slot < this.history.length; slot++) {
+      if (!pool.isEvictable(slot)) {
+        continue;
+      }
+      long[] h = this.history[slot];
+      long kth = h[this.k - 1];
+      long last = (h[0] == 0) ? this.loaded[slot] : h[0];
+      if (kth < victimKth || (kth == victimKth && last < victimLast)) {
+        victim = slot;
+        victimKth = kth;
+        victimLast = last;
+      }
+    }
+    return victim;
+  }
+}
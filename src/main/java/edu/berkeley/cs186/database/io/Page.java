@@ -4,6 +4,7 @@ import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * General-purpose wrapper for interacting with the memory-mapped bytes on a page.
@@ -12,10 +13,17 @@ import java.nio.ByteBuffer;
  */
 public class Page {
   public static final int pageSize = 4096;
+  public static final int checksumSize = 4;
 
-  private MappedByteBuffer pageData;
+  private ByteBuffer pageData;
+  private MappedByteBuffer mapping;
   private int pageNum;
   private boolean durable;
+  private volatile boolean dirty;
+  private final AtomicInteger pinCount = new AtomicInteger(0);
+  private boolean checksummed;
+  private volatile boolean sealed;
+  private IOStats stats;
 
   /**
    * Create a new page using fc with at offset blockNum with virtual page number pageNum
@@ -31,14 +39,33 @@ public class Page {
   public Page(FileChannel fc, int blockNum, int pageNum, boolean durable) {
     this.pageNum = pageNum;
     this.durable = durable;
-    PageAllocator.incrementCacheMisses();
     try {
-      this.pageData = fc.map(FileChannel.MapMode.READ_WRITE, blockNum*Page.pageSize, Page.pageSize);
+      this.mapping = fc.map(FileChannel.MapMode.READ_WRITE, ((long) blockNum)*Page.pageSize, Page.pageSize);
+      this.pageData = this.mapping;
     } catch (IOException e) {
       throw new PageException("Can't mmap page: " + pageNum + "at block: " + blockNum + " ; " + e.getMessage());
     }
   }
 
+  /**
+   * Create a new page that is a view over pageSize bytes of a larger mapped segment. No new mapping
+   * is created; flushing the page forces the whole segment.
+   *
+   * @param segment the mapped segment containing this page
+   * @param offset the offset of this page within segment
+   * @param pageNum the virtual page number
+   * @param durable whether flush should force the page to disk
+   */
+  Page(MappedByteBuffer segment, int offset, int pageNum, boolean durable) {
+    this.pageNum = pageNum;
+    this.durable = durable;
+    ByteBuffer view = segment.duplicate();
+    view.limit(offset + Page.pageSize);
+    view.position(offset);
+    this.pageData = view.slice();
+    this.mapping = segment;
+  }
+
   /**
    * Reads num bytes from offset position into buf.
    *
@@ -115,8 +142,10 @@ public class Page {
       throw new PageException("writeBytes would go out of bounds");
     }
 
+    this.beforeWrite();
     pageData.position(position);
     pageData.put(buf, 0, num);
+    this.dirty = true;
   }
 
   /**
@@ -129,7 +158,9 @@ public class Page {
     if (position < 0 || position >= Page.pageSize) {
       throw new PageException("readByte is out of bounds of page");
     }
+    this.beforeWrite();
     pageData.put(position, b);
+    this.dirty = true;
   }
 
   /**
@@ -139,7 +170,7 @@ public class Page {
    * @param value the value to write
    */
   public void writeInt(int startPos, int value) {
-    this.writeBytes(startPos, 4, ByteBuffer.allocate(4).putInt(value).array());
+    this.putInt(startPos, value);
   }
 
   /**
@@ -149,7 +180,101 @@ public class Page {
    * @return the 4-byte integer at startPos
    */
   public int readInt(int startPos) {
-    return ByteBuffer.wrap(this.readBytes(startPos, 4)).getInt();
+    return this.getInt(startPos);
+  }
+
+  /*
+   * Absolute-position primitive accessors. These read and write the mapped bytes directly, in the
+   * same big-endian format as ByteBuffer, without allocating temporary arrays or buffers.
+   */
+
+  public short getShort(int position) {
+    checkBounds(position, 2);
+    return pageData.getShort(position);
+  }
+
+  public void putShort(int position, short value) {
+    checkBounds(position, 2);
+    this.beforeWrite();
+    pageData.putShort(position, value);
+    this.dirty = true;
+  }
+
+  public int getInt(int position) {
+    checkBounds(position, 4);
+    return pageData.getInt(position);
+  }
+
+  public void putInt(int position, int value) {
+    checkBounds(position, 4);
+    this.beforeWrite();
+    pageData.putInt(position, value);
+    this.dirty = true;
+  }
+
+  public long getLong(int position) {
+    checkBounds(position, 8);
+    return pageData.getLong(position);
+  }
+
+  public void putLong(int position, long value) {
+    checkBounds(position, 8);
+    this.beforeWrite();
+    pageData.putLong(position, value);
+    this.dirty = true;
+  }
+
+  public float getFloat(int position) {
+    checkBounds(position, 4);
+    return pageData.getFloat(position);
+  }
+
+  public void putFloat(int position, float value) {
+    checkBounds(position, 4);
+    this.beforeWrite();
+    pageData.putFloat(position, value);
+    this.dirty = true;
+  }
+
+  /**
+   * Lexicographically compares the length bytes of the page at position with the length bytes of
+   * buf at offset, treating bytes as unsigned. No bytes are copied out of the page.
+   *
+   * @param position the offset in the page to compare from
+   * @param buf the bytes to compare against
+   * @param offset the offset in buf to compare from
+   * @param length the number of bytes to compare
+   * @return a negative number, zero, or a positive number as the page bytes are less than, equal
+   *         to, or greater than the bytes in buf
+   */
+  public int compareBytes(int position, byte[] buf, int offset, int length) {
+    checkBounds(position, length);
+    if (offset < 0 || buf.length < offset + length) {
+      throw new PageException("compareBytes is out of bounds of buffer");
+    }
+    for (int i = 0; i < length; i++) {
+      int a = pageData.get(position + i) & 0xFF;
+      int b = buf[offset + i] & 0xFF;
+      if (a != b) {
+        return a - b;
+      }
+    }
+    return 0;
+  }
+
+  /**
+   * @param position the offset in the page to compare from
+   * @param buf the bytes to compare against
+   * @return whether the buf.length bytes of the page at position equal buf
+   */
+  public boolean bytesEqual(int position, byte[] buf) {
+    return compareBytes(position, buf, 0, buf.length) == 0;
+  }
+
+  private void checkBounds(int position, int num) {
+    if (position < 0 || num < 0 || Page.pageSize < position + num) {
+      throw new PageException("access of " + num + " bytes at " + position + " is out of bounds of page");
+    }
   }
 
   /**
@@ -161,12 +286,88 @@ public class Page {
   }
 
   /**
-   * Force the page to disk.
+   * Faults the page's bytes into memory, so that later reads do not wait on the disk.
+   */
+  void load() {
+    if (this.mapping == this.pageData) {
+      this.mapping.load();
+    } else {
+      this.pageData.get(0);
+    }
+  }
+
+  /**
+   * Force the page to disk if it has been modified since it was last flushed, sealing it with its
+   * new checksum first if it has one.
    */
   public void flush() {
-    if (this.durable) {
-      PageAllocator.incrementCacheMisses();
-      this.pageData.force();
+    if (this.durable && this.dirty) {
+      if (this.stats != null) {
+        this.stats.recordFlush();
+      }
+      this.dirty = false;
+      if (this.checksummed) {
+        PageChecksums.seal(this.pageData);
+        this.sealed = true;
+      }
+      this.mapping.force();
+    }
+  }
+
+  /**
+   * @param stats the counters that flushes of this page are recorded in
+   */
+  void setIOStats(IOStats stats) {
+    this.stats = stats;
+  }
+
+  /**
+   * Verifies this page against the checksum in its last checksumSize bytes, and makes it keep that
+   * checksum up to date from now on (see PageChecksums).
+   *
+   * @throws PageException if the page is sealed and does not match its checksum
+   */
+  void useChecksums() {
+    this.sealed = PageChecksums.verify(this.pageNum, this.pageData);
+    this.checksummed = true;
+  }
+
+  /**
+   * Unseals a sealed page before it is changed, so that its checksum never covers stale bytes.
+   */
+  private void beforeWrite() {
+    if (this.sealed) {
+      PageChecksums.unseal(this.pageData);
+      this.sealed = false;
+    }
+  }
+
+  /**
+   * @return whether the page has been modified since it was last flushed
+   */
+  public boolean isDirty() {
+    return this.dirty;
+  }
+
+  void markDirty() {
+    this.dirty = true;
+  }
+
+  /**
+   * @return whether the page is pinned in its BufferPool and so cannot be evicted
+   */
+  public boolean isPinned() {
+    return this.pinCount.get() > 0;
+  }
+
+  void pin() {
+    this.pinCount.incrementAndGet();
+  }
+
+  void unpin() {
+    if (this.pinCount.getAndDecrement() <= 0) {
+      this.pinCount.incrementAndGet();
+      throw new PageException("Page " + this.pageNum + " is not pinned");
     }
   }
 
@@ -2,6 +2,7 @@ package edu.berkeley.cs186.database.io;
 
 import java.io.RandomAccessFile;
 import java.nio.channels.FileChannel;
+import java.nio.MappedByteBuffer;
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
 import java.nio.ByteOrder;
@@ -14,31 +15,90 @@ import java.util.NoSuchElementException;
 import java.util.Iterator;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.LinkedHashSet;
 import java.io.Closeable;
 /**
  * A PageAllocation system for an OS paging system. Provides memory-mapped paging from the OS, an
- * interface to individual pages with the Page objects, an LRU cache for pages, 16GB worth of paging,
- * and virtual page translation.
+ * interface to individual pages with the Page objects, a shared BufferPool for pages, 16GB worth of
+ * paging, and virtual page translation.
+ *
+ * Pages returned by fetchPage are cached but unpinned, so the BufferPool may evict them at any
+ * time. Callers that need a page to stay resident should use pinPage and release it with unpinPage.
+ *
+ * By default every page is its own 4KB mapping of the file. A PageAllocator created with a
+ * non-zero segmentSize instead maps the file in segments of that many bytes, and each Page is a
+ * view over its segment, so touching millions of pages costs only a handful of mmaps. The on-disk
+ * format is the same in both modes, but mapping a segment grows the file to the end of that
+ * segment.
+ *
+ * The master page's per-header page counts and each header page's allocation bytes are mirrored in
+ * memory (`headers`), so allocation and validity checks never re-read those pages. Only header
+ * pages up to the last one in use are tracked, and a header page's bitmap is loaded the first time
+ * it is needed. `firstFreeHeader` and each header's `nextFree` are lower bounds on the first free
+ * slot, so allocPage is O(1) amortized while still handing out the lowest free page number.
+ *
+ * A durable PageAllocator normally forces the master and header pages to disk on every allocPage
+ * and freePage. With a non-zero durability window (see setDurabilityWindow) those forces are
+ * deferred instead: the touched pages are remembered and forced together by sync, which runs
+ * either when the window expires or when a caller such as a committing transaction asks for it.
+ *
+ * A PageAllocator opened with checksums seals each data page with a CRC32 in its last
+ * Page.checksumSize bytes when it is written back, and verifies it when the page is next brought
+ * into the BufferPool (see PageChecksums), so a corrupt or torn page is reported instead of being
+ * read, at the cost of one pass over the page per cache residency. Those bytes are not available
+ * to the allocator's users.
+ *
+ * Iterators over a PageAllocator read ahead of themselves (see ReadAhead), so a sequential scan
+ * of a cold file is not bound by the latency of faulting in one page at a time.
  *
  * YOU SHOULD NOT NEED TO CHANGE ANY OF THE CODE IN THIS PACKAGE.
  */
 public class PageAllocator implements Iterable<Page>, Closeable {
   private static final int numHeaderPages = 1024;
-  private static final int cacheSize = 1024;
+  private static final long maxFileSize = ((long) 2 + numHeaderPages*(Page.pageSize + 1)) * Page.pageSize;
+
+  public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+  public static final int DEFAULT_READ_AHEAD_WINDOW = 16;
 
   private static AtomicInteger pACounter = new AtomicInteger(0);
-  private static LRUCache<Long, Page> pageLRU = new LRUCache<Long, Page>(cacheSize);
-  private static AtomicLong numIOs = new AtomicLong(0);
-  private static AtomicLong cacheMisses = new AtomicLong(0);
+  private static final ScheduledExecutorService syncTimer =
+    Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "PageAllocator-sync");
+        t.setDaemon(true);
+        return t;
+      }
+    });
 
   private Page masterPage;
   private FileChannel fc;
   private int numPages;
   private int allocID;
   private boolean durable;
+  private BufferPool bufferPool;
+  private int segmentSize;
+  private AtomicReferenceArray<MappedByteBuffer> segments;
+  private boolean checksums;
+
+  private List<HeaderState> headers;
+  private int firstFreeHeader;
+
+  private long durabilityWindow;
+  private Set<Page> pendingSync;
+  private boolean syncScheduled;
+
+  private IOStats stats = new IOStats();
+
   /**
    * Create a new PageAllocator that writes its bytes into a file named fName. If wipe is true, the
    * data in the page is completely removed.
@@ -51,44 +111,129 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   }
 
   public PageAllocator(String fName, boolean wipe, boolean durable) {
+    this(fName, wipe, durable, BufferPool.getDefault());
+  }
+
+  /**
+   * Create a new PageAllocator whose pages are cached in bufferPool.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether modified pages are forced to disk
+   * @param bufferPool the BufferPool to cache pages in
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool) {
+    this(fName, wipe, durable, bufferPool, 0);
+  }
+
+  /**
+   * Create a new PageAllocator that maps its file in segments of segmentSize bytes. A segmentSize
+   * of 0 maps every page separately.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether modified pages are forced to disk
+   * @param bufferPool the BufferPool to cache pages in
+   * @param segmentSize the size in bytes of each mapped segment, a multiple of Page.pageSize, or 0
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool, int segmentSize) {
+    this(fName, wipe, durable, bufferPool, segmentSize, false);
+  }
+
+  /**
+   * Create a new PageAllocator that optionally checksums its data pages. A checksum is kept in the
+   * last Page.checksumSize bytes of each data page, recorded when a dirty page is written back and
+   * verified when a page is brought into the BufferPool; only durable PageAllocators record them.
+   * Whether a file has checksums is chosen when it is created or wiped, and an existing file must
+   * be opened with the same choice.
+   *
+   * @param fName the name of the file for this PageAllocator
+   * @param wipe a boolean specifying whether to wipe the file
+   * @param durable a boolean specifying whether modified pages are forced to disk
+   * @param bufferPool the BufferPool to cache pages in
+   * @param segmentSize the size in bytes of each mapped segment, a multiple of Page.pageSize, or 0
+   * @param checksums whether to checksum data pages
+   * @throws PageException if the file exists and checksums does not match whether it has checksums
+   */
+  public PageAllocator(String fName, boolean wipe, boolean durable, BufferPool bufferPool, int segmentSize,
+                       boolean checksums) {
+    if (segmentSize < 0 || segmentSize % Page.pageSize != 0) {
+      throw new IllegalArgumentException("segmentSize must be a non-negative multiple of Page.pageSize");
+    }
     this.durable = durable;
+    this.bufferPool = bufferPool;
+    this.segmentSize = segmentSize;
+    if (segmentSize > 0) {
+      int numSegments = (int) ((maxFileSize + segmentSize - 1) / segmentSize);
+      this.segments = new AtomicReferenceArray<MappedByteBuffer>(numSegments);
+    }
+    boolean newFile;
     try {
       this.fc = new RandomAccessFile(fName, "rw").getChannel();
+      newFile = this.fc.size() == 0;
     } catch (IOException e) {
       throw new PageException("Could not open File: " + e.getMessage());
     }
+    if (wipe || newFile) {
+      PageChecksums.setEnabled(fName, checksums);
+    } else if (PageChecksums.isEnabled(fName) != checksums) {
+      try {
+        this.fc.close();
+      } catch (IOException e) {
+        // the mismatch is the error worth reporting
+      }
+      throw new PageException(fName + (checksums ? " has no page checksums" : " has page checksums")
+                              + "; open it with wipe to change that");
+    }
+    this.checksums = checksums;
 
-    this.masterPage = new Page(this.fc, 0, -1);
+    this.masterPage = mapPage(0, -1, true);
     this.allocID = pACounter.getAndIncrement();
+    this.durabilityWindow = 0;
+    this.pendingSync = new LinkedHashSet<Page>();
+    this.headers = readHeaderStates();
 
     if (wipe) {
       // Nukes masterPage and headerPages
-      byte[] masterBytes = this.masterPage.readBytes();
-      IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-
-      int[] pageCounts = new int[ib.capacity()];
-      ib.get(pageCounts);
-
-      this.numPages = 0;
-
-      for (int i = 0; i < numHeaderPages; i++) {
-        if (pageCounts[i] > 0) {
+      for (int i = 0; i < this.headers.size(); i++) {
+        if (this.headers.get(i).count > 0) {
           getHeadPage(i).wipe();
         }
       }
 
       this.masterPage.wipe();
+      this.headers = new ArrayList<HeaderState>();
     }
 
-    byte[] masterBytes = masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
-
     this.numPages = 0;
+    this.firstFreeHeader = this.headers.size();
+    for (int i = 0; i < this.headers.size(); i++) {
+      int count = this.headers.get(i).count;
+      this.numPages += count;
+      if (count < Page.pageSize && i < this.firstFreeHeader) {
+        this.firstFreeHeader = i;
+      }
+    }
+  }
+
+  /**
+   * Reads the per-header page counts from the master page, up to the last header page in use.
+   */
+  private List<HeaderState> readHeaderStates() {
+    int numUsed = 0;
     for (int i = 0; i < numHeaderPages; i++) {
-      this.numPages += pageCounts[i];
+      if (this.masterPage.getInt(i*4) > 0) {
+        numUsed = i + 1;
+      }
+    }
+
+    List<HeaderState> states = new ArrayList<HeaderState>(numUsed);
+    for (int i = 0; i < numUsed; i++) {
+      HeaderState state = new HeaderState();
+      state.count = this.masterPage.getInt(i*4);
+      states.add(state);
     }
+    return states;
   }
 
   /**
@@ -96,54 +241,41 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    *
    * @return the virtual page number of the page
    */
-  public int allocPage() {
-    byte[] masterBytes = this.masterPage.readBytes();
-    IntBuffer ib = ByteBuffer.wrap(masterBytes).asIntBuffer();
-    int[] pageCounts = new int[ib.capacity()];
-    ib.get(pageCounts);
-
-    Page headerPage = null;
-    int headerIndex = -1;
-    for (int i = 0; i < numHeaderPages; i++) {
-      if (pageCounts[i] < Page.pageSize) {
-        // Found header page with space
-        headerPage = getHeadPage(i);
-        headerIndex = i;
-        break;
-      }
+  public synchronized int allocPage() {
+    while (this.firstFreeHeader < this.headers.size()
+        && this.headers.get(this.firstFreeHeader).count >= Page.pageSize) {
+      this.firstFreeHeader++;
     }
 
-    if (headerPage == null) {
+    if (this.firstFreeHeader >= numHeaderPages) {
       throw new PageException("No free Pages Available");
     }
-
-    byte[] headerBytes = headerPage.readBytes();
-    int pageIndex = -1;
-
-    for (int i = 0; i < Page.pageSize; i++) {
-      if (headerBytes[i] == 0) {
-        pageIndex = i;
-        break;
-      }
+    if (this.firstFreeHeader == this.headers.size()) {
+      this.headers.add(new HeaderState());
     }
 
-    if (pageIndex == -1) {
+    int headerIndex = this.firstFreeHeader;
+    HeaderState state = this.headers.get(headerIndex);
+    BitSet bits = getHeaderBits(headerIndex);
+    int pageIndex = bits.nextClearBit(state.nextFree);
+
+    if (pageIndex >= Page.pageSize) {
      throw new PageException("Header page should have free page but doesnt");
     }
 
-    int newCount = pageCounts[headerIndex] + 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    this.masterPage.writeBytes(headerIndex*4, 4, newCountBytes);
-    headerPage.writeByte(pageIndex, (byte) 1);
+    Page headerPage = getHeadPage(headerIndex);
+    bits.set(pageIndex);
+    state.nextFree = pageIndex + 1;
+    state.count++;
 
-    if (this.durable) {
-      this.masterPage.flush();
-      headerPage.flush();
-    }
+    this.masterPage.putInt(headerIndex*4, state.count);
+    headerPage.writeByte(pageIndex, (byte) 1);
+    persistMetadata(headerPage);
 
     int pageNum = headerIndex * Page.pageSize + pageIndex;
     fetchPage(pageNum).wipe();
     this.numPages += 1;
+    this.stats.recordAllocation();
     return pageNum;
   }
 
@@ -154,16 +286,44 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @return a Page object wrapping the page corresponding to pageNum
    */
   public Page fetchPage(int pageNum) {
+    return fetchPage(pageNum, false);
+  }
+
+  /**
+   * Fetches the page corresponding to virtual page number pageNum and pins it so that it cannot be
+   * evicted until it is released with unpinPage.
+   *
+   * @param pageNum the virtual page number
+   * @return a pinned Page object wrapping the page corresponding to pageNum
+   * @throws PageException if the page is not allocated or every frame in the BufferPool is pinned
+   */
+  public Page pinPage(int pageNum) {
+    return fetchPage(pageNum, true);
+  }
+
+  /**
+   * Releases one pin on a page obtained from pinPage.
+   *
+   * @param p the pinned page
+   * @param dirtied whether the caller modified the page while it was pinned
+   */
+  public void unpinPage(Page p, boolean dirtied) {
+    if (dirtied) {
+      p.markDirty();
+    }
+    p.unpin();
+  }
+
+  private Page fetchPage(int pageNum, boolean pin) {
     if (pageNum < 0) {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    numIOs.getAndIncrement();
-
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        return pageLRU.get(translatePageNum(pageNum));
-      }
+    long vPageNum = translatePageNum(pageNum);
+    Page cached = this.bufferPool.get(vPageNum, pin);
+    this.stats.recordRead(cached != null);
+    if (cached != null) {
+      return cached;
     }
 
     int headPageIndex = pageNum/Page.pageSize;
@@ -172,31 +332,65 @@ public class PageAllocator implements Iterable<Page>, Closeable {
       throw new PageException("invalid page number -- out of bounds");
     }
 
-    byte[] headCountBytes = this.masterPage.readBytes(headPageIndex*4, 4);
-    int headCount = ByteBuffer.wrap(headCountBytes).getInt();
+    int dataPageIndex = pageNum % Page.pageSize;
 
-    if (headCount < 1) {
+    if (!isAllocated(headPageIndex, dataPageIndex)) {
       throw new PageException("invalid page number -- page not allocated");
     }
 
-    Page headPage = getHeadPage(headPageIndex);
-
-    int dataPageIndex = pageNum % Page.pageSize;
+    int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
+    Page dataPage = mapPage(dataBlockID, pageNum, this.durable);
+    if (this.checksums) {
+      dataPage.useChecksums();
+    }
+    this.stats.recordFault();
 
-    byte validByte = headPage.readByte(dataPageIndex);
+    return this.bufferPool.putIfAbsent(vPageNum, dataPage, this, pin);
+  }
 
-    if (validByte == 0) {
-      throw new PageException("invalid page number -- page not allocated");
+  /**
+   * Maps, faults in and caches page pageNum without pinning it, for read-ahead. Pages that are
+   * already resident or not allocated are skipped.
+   *
+   * @param pageNum the virtual page number
+   * @return false if there is no point prefetching further pages: pageNum is past the last header
+   *         page in use, the BufferPool has no evictable frames, or this allocator is closed
+   */
+  boolean prefetchPage(int pageNum) {
+    int headPageIndex = pageNum/Page.pageSize;
+    int dataPageIndex = pageNum % Page.pageSize;
+    long vPageNum = translatePageNum(pageNum);
+    synchronized (this) {
+      if (this.masterPage == null || headPageIndex >= this.headers.size()) {
+        return false;
+      }
+      if (this.bufferPool.contains(vPageNum) || !isAllocated(headPageIndex, dataPageIndex)) {
+        return true;
+      }
     }
 
+    // Map and fault in the page without holding this allocator's monitor, so that allocation and
+    // the scanner's own misses don't wait behind the read-ahead I/O, as fetchPage does on a miss.
     int dataBlockID = 2 + headPageIndex*(Page.pageSize + 1) + dataPageIndex;
-    Page dataPage = new Page(this.fc, dataBlockID, pageNum, this.durable);
-
-    synchronized(PageAllocator.class) {
-      pageLRU.put(translatePageNum(pageNum), dataPage);
+    try {
+      Page dataPage = mapPage(dataBlockID, pageNum, this.durable);
+      dataPage.load();
+      if (this.checksums) {
+        dataPage.useChecksums();
+      }
+      this.bufferPool.putIfAbsent(vPageNum, dataPage, this, false, true);
+    } catch (PageException e) {
+      return false;
     }
 
-    return dataPage;
+    synchronized (this) {
+      // the page may have been freed, or this allocator closed, while it was being read
+      if (this.masterPage == null || !isAllocated(headPageIndex, dataPageIndex)) {
+        this.bufferPool.remove(vPageNum);
+      }
+    }
+    this.stats.recordFault();
+    return true;
   }
 
   /**
@@ -206,7 +400,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
    * @param p the page to free
    * @return whether or not the page was freed
    */
-  public boolean freePage(Page p) {
+  public synchronized boolean freePage(Page p) {
     if (this.durable) {
       p.flush();
     }
@@ -214,33 +408,25 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     int headPageIndex = pageNum/Page.pageSize;
     int dataPageIndex = pageNum % Page.pageSize;
 
-    Page headPage = getHeadPage(headPageIndex);
-
-    if (headPage.readByte(dataPageIndex) == 0) {
+    if (!isAllocated(headPageIndex, dataPageIndex)) {
       return false;
     }
 
-    headPage.writeByte(dataPageIndex, (byte) 0);
-    if (this.durable) {
-      headPage.flush();
-    }
-    byte[] countBytes = masterPage.readBytes(4*headPageIndex,4);
-    int oldCount = ByteBuffer.wrap(countBytes).getInt();
+    Page headPage = getHeadPage(headPageIndex);
+    HeaderState state = this.headers.get(headPageIndex);
+    state.bits.clear(dataPageIndex);
+    state.nextFree = Math.min(state.nextFree, dataPageIndex);
+    state.count--;
+    this.firstFreeHeader = Math.min(this.firstFreeHeader, headPageIndex);
 
-    int newCount = oldCount - 1;
-    byte[] newCountBytes = ByteBuffer.allocate(4).putInt(newCount).array();
-    masterPage.writeBytes(headPageIndex*4, 4, newCountBytes);
-    if (this.durable) {
-      masterPage.flush();
-    }
+    headPage.writeByte(dataPageIndex, (byte) 0);
+    masterPage.putInt(headPageIndex*4, state.count);
+    persistMetadata(headPage);
 
-    synchronized(PageAllocator.class) {
-      if (pageLRU.containsKey(translatePageNum(pageNum))) {
-        pageLRU.remove(translatePageNum(pageNum));
-      }
-    }
+    this.bufferPool.remove(translatePageNum(pageNum));
 
     this.numPages -= 1;
+    this.stats.recordFree();
     return true;
   }
 
@@ -264,35 +450,18 @@ public class PageAllocator implements Iterable<Page>, Closeable {
   /**
    * Close this PageAllocator.
    */
-  public void close() {
+  public synchronized void close() {
     if (this.masterPage == null) {
       return;
     }
     if (this.durable) {
       this.masterPage.flush();
-    }
-    List<Long> toRemove = new ArrayList<Long>();
-    Set<Long> vPageNums = null;
-    List<Page> toFlush = new ArrayList<Page>();
-
-    synchronized(PageAllocator.class) {
-      vPageNums = pageLRU.keySet();
-    }
-
-    for (Long l : vPageNums) {
-      if (translateAllocator(l) == this.allocID) {
-        toRemove.add(l);
-      }
-    }
-
-    synchronized(PageAllocator.class) {
-      for (Long vPageNum : toRemove) {
-        if (pageLRU.containsKey(vPageNum)) {
-          toFlush.add(pageLRU.get(vPageNum));
-          pageLRU.remove(vPageNum);
-        }
+      for (Page p : this.pendingSync) {
+        p.flush();
       }
     }
+    this.pendingSync.clear();
+    List<Page> toFlush = this.bufferPool.removeAll(this);
     if (this.durable) {
       for (Page p : toFlush) {
         p.flush();
@@ -306,53 +475,241 @@ public class PageAllocator implements Iterable<Page>, Closeable {
     }
   }
 
+  /**
+   * Sets how long master and header page updates of a durable PageAllocator may go unforced. With
+   * a window of 0 (the default) allocPage and freePage force those pages before returning;
+   * otherwise they are forced by sync, which is scheduled to run at most durabilityWindow
+   * milliseconds after the first unforced update.
+   *
+   * @param durabilityWindow the maximum delay in milliseconds, or 0 to force synchronously
+   */
+  public synchronized void setDurabilityWindow(long durabilityWindow) {
+    if (durabilityWindow < 0) {
+      throw new IllegalArgumentException("durabilityWindow can't be negative");
+    }
+    this.durabilityWindow = durabilityWindow;
+    if (durabilityWindow == 0) {
+      this.sync();
+    }
+  }
+
+  public long getDurabilityWindow() {
+    return this.durabilityWindow;
+  }
+
+  synchronized int getNumPendingSync() {
+    return this.pendingSync.size();
+  }
+
+  /**
+   * Forces every master and header page update deferred by the durability window to disk.
+   */
+  public synchronized void sync() {
+    this.syncScheduled = false;
+    if (this.masterPage == null || this.pendingSync.isEmpty()) {
+      return;
+    }
+    this.masterPage.flush();
+    for (Page p : this.pendingSync) {
+      p.flush();
+    }
+    this.pendingSync.clear();
+  }
+
+  /**
+   * Forces the master page and headerPage after an allocation change, or defers them to the next
+   * sync if a durability window is set. Must be called while holding this allocator's monitor.
+   */
+  private void persistMetadata(Page headerPage) {
+    if (!this.durable) {
+      return;
+    }
+    if (this.durabilityWindow == 0) {
+      this.masterPage.flush();
+      headerPage.flush();
+      return;
+    }
+    this.pendingSync.add(headerPage);
+    if (!this.syncScheduled) {
+      this.syncScheduled = true;
+      syncTimer.schedule(new Runnable() {
+        public void run() {
+          PageAllocator.this.sync();
+        }
+      }, this.durabilityWindow, TimeUnit.MILLISECONDS);
+    }
+  }
+
   private Page getHeadPage(int headIndex) {
-    int headBlockID = 1 + headIndex*(Page.pageSize + 1);
-    return new Page(this.fc, headBlockID, -1);
+    HeaderState state = this.headers.get(headIndex);
+    if (state.page == null) {
+      int headBlockID = 1 + headIndex*(Page.pageSize + 1);
+      state.page = mapPage(headBlockID, -1, true);
+    }
+    return state.page;
+  }
+
+  /**
+   * Returns the in-memory allocation bitmap for a header page, loading it from the header page the
+   * first time. Header pages that have never had a page allocated are not mapped.
+   */
+  private BitSet getHeaderBits(int headIndex) {
+    HeaderState state = this.headers.get(headIndex);
+    if (state.bits == null) {
+      BitSet bits = new BitSet(Page.pageSize);
+      if (state.count > 0) {
+        Page headPage = getHeadPage(headIndex);
+        for (int i = 0; i < Page.pageSize; i++) {
+          if (headPage.readByte(i) != 0) {
+            bits.set(i);
+          }
+        }
+      }
+      state.bits = bits;
+    }
+    return state.bits;
+  }
+
+  private synchronized boolean isAllocated(int headIndex, int dataPageIndex) {
+    return headIndex < this.headers.size()
+        && this.headers.get(headIndex).count > 0
+        && getHeaderBits(headIndex).get(dataPageIndex);
+  }
+
+  /**
+   * In-memory mirror of one header page and its count in the master page.
+   */
+  private static class HeaderState {
+    private Page page;
+    private BitSet bits;
+    private int count;
+    private int nextFree;
+  }
+
+  /**
+   * Creates a Page over block blockNum of the file, either as its own mapping or as a view over
+   * the segment containing it.
+   */
+  private Page mapPage(int blockNum, int pageNum, boolean durable) {
+    Page page;
+    if (this.segmentSize == 0) {
+      page = new Page(this.fc, blockNum, pageNum, durable);
+    } else {
+      long position = ((long) blockNum) * Page.pageSize;
+      int segmentIndex = (int) (position / this.segmentSize);
+      int offset = (int) (position % this.segmentSize);
+      page = new Page(getSegment(segmentIndex), offset, pageNum, durable);
+    }
+    page.setIOStats(this.stats);
+    return page;
+  }
+
+  private MappedByteBuffer getSegment(int segmentIndex) {
+    MappedByteBuffer segment = this.segments.get(segmentIndex);
+    if (segment != null) {
+      return segment;
+    }
+    try {
+      segment = this.fc.map(FileChannel.MapMode.READ_WRITE, ((long) segmentIndex) * this.segmentSize, this.segmentSize);
+    } catch (IOException e) {
+      throw new PageException("Can't mmap segment: " + segmentIndex + " ; " + e.getMessage());
+    }
+    // If another thread mapped the segment first, use its mapping so pages share one buffer.
+    if (!this.segments.compareAndSet(segmentIndex, null, segment)) {
+      segment = this.segments.get(segmentIndex);
+    }
+    return segment;
   }
 
   public int getNumPages() {
     return this.numPages;
   }
 
-  public static long getNumIOs() {
-    return PageAllocator.numIOs.get();
+  /**
+   * @return whether this allocator's data pages end with a checksum trailer of Page.checksumSize
+   *         bytes, which its users must leave alone
+   */
+  public boolean hasChecksums() {
+    return this.checksums;
   }
 
-  static void incrementNumIOs() {
-    PageAllocator.numIOs.getAndIncrement();
+  /**
+   * Tells whether an existing file has page checksums, so that it can be reopened with the same
+   * choice it was created with.
+   *
+   * @param fName the name of the file of a PageAllocator
+   * @return whether the file's data pages have checksums; false if the file does not exist
+   */
+  public static boolean hasChecksums(String fName) {
+    return PageChecksums.isEnabled(fName);
   }
 
-  static void incrementCacheMisses() {
-    PageAllocator.cacheMisses.getAndIncrement();
+  /**
+   * @return the I/O counters of this allocator
+   */
+  public IOStats getIOStats() {
+    return this.stats;
   }
 
-  public static long getNumCacheMisses() {
-    return PageAllocator.cacheMisses.get();
+  /**
+   * @return the number of fetches of this allocator's pages served from the BufferPool
+   */
+  public long getNumHits() {
+    return this.stats.getHits();
+  }
+
+  /**
+   * @return the number of this allocator's pages that had to be mapped in from the file
+   */
+  public long getNumMisses() {
+    return this.stats.getFaults();
+  }
+
+  /**
+   * @return the number of this allocator's pages evicted from the BufferPool
+   */
+  public long getNumEvictions() {
+    return this.stats.getEvictions();
+  }
+
+  void incrementEvictions() {
+    this.stats.recordEviction();
+  }
+
+  public BufferPool getBufferPool() {
+    return this.bufferPool;
   }
 
   private long translatePageNum(int pageNum) {
     return (((long) this.allocID) << 32) | (((long) pageNum) & 0xFFFFFFFFL);
   }
 
-  static private int translateAllocator(long vPageNum) {
-    return (int) ((vPageNum & 0xFFFFFFFF00000000L) >> 32);
+  /**
+   * @return an iterator of the valid pages managed by this PageAllocator, reading
+   *         DEFAULT_READ_AHEAD_WINDOW pages ahead.
+   */
+  public Iterator<Page> iterator() {
+      return new PageIterator(DEFAULT_READ_AHEAD_WINDOW);
   }
 
   /**
+   * @param readAheadWindow the number of pages to prefetch ahead of the iterator, or 0 for none
    * @return an iterator of the valid pages managed by this PageAllocator.
+   * @see ReadAhead
    */
-  public Iterator<Page> iterator() {
-      return new PageIterator();
+  public Iterator<Page> iterator(int readAheadWindow) {
+      return new PageIterator(readAheadWindow);
   }
 
   private class PageIterator implements Iterator<Page> {
     private int pageNum;
     private int cursor;
+    private ReadAhead readAhead;
 
-    public PageIterator() {
+    public PageIterator(int readAheadWindow) {
       this.pageNum = 0;
       this.cursor = 0;
+      this.readAhead = new ReadAhead(PageAllocator.this, readAheadWindow);
     }
 
     public boolean hasNext() {
@@ -365,6 +722,7 @@ public class PageAllocator implements Iterable<Page>, Closeable {
           Page p;
           try {
             p = PageAllocator.this.fetchPage(cursor);
+            this.readAhead.access(cursor);
             cursor++;
             pageNum++;
             return p;
@@ -0,0 +1,110 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+
+/**
+ * Checksums of a PageAllocator's data pages. Each checksum is a CRC32 of the first
+ * Page.pageSize - Page.checksumSize bytes of its page, stored in the page's last Page.checksumSize
+ * bytes (its trailer), so the checksum reaches the disk in the same write as the bytes it covers:
+ * a page written back whole verifies, while a page torn by a crash part way through being written
+ * back does not.
+ *
+ * A page is sealed, i.e. given its checksum, when it is flushed, and unsealed (its trailer zeroed)
+ * before its first change after that. So if the kernel writes a mapped page back while it is being
+ * changed and the process then crashes, the page on disk is unsealed rather than carrying a stale
+ * checksum. Unsealed pages (and, once in 2^32 pages, pages whose checksum is 0) are not verified.
+ *
+ * Whether a file's pages have checksums is fixed when the file is created, and recorded by a
+ * marker file named fName + FILENAME_EXTENSION next to it.
+ */
+class PageChecksums {
+  static final String FILENAME_EXTENSION = ".crc";
+
+  private static final int trailerOffset = Page.pageSize - Page.checksumSize;
+
+  private PageChecksums() {
+  }
+
+  /**
+   * @param fName the name of a PageAllocator's file
+   * @return whether the file's pages have checksums
+   */
+  static boolean isEnabled(String fName) {
+    return new File(fName + FILENAME_EXTENSION).exists();
+  }
+
+  /**
+   * Records whether the pages of a new or wiped file have checksums.
+   *
+   * @param fName the name of a PageAllocator's file
+   * @param enabled whether the file's pages have checksums
+   */
+  static void setEnabled(String fName, boolean enabled) {
+    File marker = new File(fName + FILENAME_EXTENSION);
+    try {
+      if (enabled) {
+        marker.createNewFile();
+      } else {
+        marker.delete();
+      }
+    } catch (IOException e) {
+      throw new PageException("Could not create checksum marker: " + e.getMessage());
+    }
+    if (marker.exists() != enabled) {
+      throw new PageException("Could not " + (enabled ? "create" : "delete") + " checksum marker " + marker);
+    }
+  }
+
+  /**
+   * @param pageData the bytes of the page
+   * @return the CRC32 of every byte of the page before its trailer
+   */
+  static int compute(ByteBuffer pageData) {
+    ByteBuffer view = pageData.duplicate();
+    view.clear();
+    view.limit(trailerOffset);
+    CRC32 crc = new CRC32();
+    crc.update(view);
+    return (int) crc.getValue();
+  }
+
+  /**
+   * Stores the checksum of the page's current bytes in its trailer.
+   *
+   * @param pageData the bytes of the page
+   */
+  static void seal(ByteBuffer pageData) {
+    pageData.putInt(trailerOffset, PageChecksums.compute(pageData));
+  }
+
+  /**
+   * Zeroes the page's trailer, so that the page is not verified until it is sealed again.
+   *
+   * @param pageData the bytes of the page
+   */
+  static void unseal(ByteBuffer pageData) {
+    pageData.putInt(trailerOffset, 0);
+  }
+
+  /**
+   * Checks the bytes of a freshly mapped page against the checksum in its trailer.
+   *
+   * @param pageNum the virtual page number, for the error message
+   * @param pageData the bytes of the page
+   * @return whether the page is sealed
+   * @throws PageException if the page is sealed and does not match its checksum
+   */
+  static boolean verify(int pageNum, ByteBuffer pageData) {
+    int expected = pageData.getInt(trailerOffset);
+    if (expected == 0) {
+      return false;
+    }
+    if (PageChecksums.compute(pageData) != expected) {
+      throw new PageException("checksum mismatch on page " + pageNum + ": page is corrupt or torn");
+    }
+    return true;
+  }
+}
@@ -0,0 +1,111 @@
+package edu.berkeley.cs186.database.io;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Read-ahead for one sequential scan of a PageAllocator. The scan reports every page it touches
+ * with access; once it has touched two consecutive pages, the next `window` allocated pages after
+ * the current one are mapped, faulted in and cached in the BufferPool on a background thread, so
+ * that the scan finds them resident instead of waiting on the disk. Another window is requested
+ * whenever the scan gets within half a window of the last page requested.
+ *
+ * Prefetched pages are not pinned, and the window is capped at a quarter of the BufferPool so that
+ * a scan cannot evict the pages it is about to read.
+ *
+ * Properties:
+ * `allocator`: the PageAllocator being scanned
+ * `window`: the number of pages to read ahead of the scan, or 0 to disable read-ahead
+ * `lastAccess`: the page number the scan touched most recently
+ * `prefetchedUpTo`: one past the last page number handed to the background thread
+ * `pending`: the most recently submitted prefetch
+ */
+public class ReadAhead {
+  private static final ExecutorService prefetcher =
+    Executors.newSingleThreadExecutor(new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, "PageAllocator-readahead");
+        t.setDaemon(true);
+        return t;
+      }
+    });
+
+  private final PageAllocator allocator;
+  private final int window;
+  private int lastAccess;
+  private int prefetchedUpTo;
+  private Future<?> pending;
+
+  /**
+   * Create a ReadAhead for a scan of allocator.
+   *
+   * @param allocator the PageAllocator being scanned
+   * @param window the number of pages to read ahead, or 0 to disable read-ahead
+   */
+  public ReadAhead(PageAllocator allocator, int window) {
+    if (window < 0) {
+      throw new IllegalArgumentException("read-ahead window can't be negative");
+    }
+    this.allocator = allocator;
+    this.window = Math.min(window, allocator.getBufferPool().getNumFrames() / 4);
+    this.lastAccess = -2;
+    this.prefetchedUpTo = 0;
+  }
+
+  /**
+   * @return the effective read-ahead window, after capping to the BufferPool's size
+   */
+  public int getWindow() {
+    return this.window;
+  }
+
+  /**
+   * Records that the scan touched pageNum, and starts prefetching the following pages if the
+   * scan is sequential and has caught up with the previous prefetch.
+   *
+   * @param pageNum the page number the scan just fetched
+   */
+  public void access(int pageNum) {
+    boolean sequential = (pageNum == this.lastAccess + 1);
+    this.lastAccess = pageNum;
+    if (this.window == 0 || !sequential) {
+      return;
+    }
+
+    if (pageNum + this.window / 2 < this.prefetchedUpTo) {
+      return;
+    }
+
+    final int start = Math.max(pageNum + 1, this.prefetchedUpTo);
+    final int end = pageNum + 1 + this.window;
+    this.prefetchedUpTo = end;
+    this.pending = prefetcher.submit(new Runnable() {
+      public void run() {
+        for (int i = start; i < end; i++) {
+          if (!ReadAhead.this.allocator.prefetchPage(i)) {
+            return;
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Waits for the most recently submitted prefetch to finish.
+   */
+  void awaitPending() {
+    if (this.pending == null) {
+      return;
+    }
+    try {
+      this.pending.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (ExecutionException e) {
+      throw new PageException("read-ahead failed: " + e.getCause());
+    }
+  }
+}
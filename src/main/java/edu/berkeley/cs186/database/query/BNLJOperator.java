@@ -203,10 +203,7 @@ public class BNLJOperator extends JoinOperator {
             byte mask = (byte) (1 << bitOffset);
             byte value = (byte) (b & mask);
             if (value != 0) {
-              int entrySize = BNLJOperator.this.getEntrySize(this.leftTableName);
-              int offset = BNLJOperator.this.getHeaderSize(this.leftTableName) + (entrySize * this.leftEntryNum);
-              byte[] bytes = this.leftPage.readBytes(offset, entrySize);
-              Record toRtn = BNLJOperator.this.getLeftSource().getOutputSchema().decode(bytes);
+              Record toRtn = BNLJOperator.this.readRecord(this.leftTableName, this.leftPage, this.leftEntryNum);
               this.leftEntryNum++;
               return toRtn;
             }
@@ -233,10 +230,7 @@ public class BNLJOperator extends JoinOperator {
           byte mask = (byte) (1 << bitOffset);
           byte value = (byte) (b & mask);
           if (value != 0) {
-            int entrySize = BNLJOperator.this.getEntrySize(this.rightTableName);
-            int offset = BNLJOperator.this.getHeaderSize(this.rightTableName) + (entrySize * rightEntryNum);
-            byte[] bytes = this.rightPage.readBytes(offset, entrySize);
-            Record toRtn = BNLJOperator.this.getRightSource().getOutputSchema().decode(bytes);
+            Record toRtn = BNLJOperator.this.readRecord(this.rightTableName, this.rightPage, this.rightEntryNum);
             this.rightEntryNum++;
             return toRtn;
           }
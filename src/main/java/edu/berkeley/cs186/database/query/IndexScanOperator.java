@@ -19,6 +19,8 @@ public class IndexScanOperator extends QueryOperator {
   private String columnName;
   private QueryPlan.PredicateOperator predicate;
   private DataBox value;
+  private QueryPlan.PredicateOperator otherPredicate;
+  private DataBox otherValue;
 
   private int columnIndex;
 
@@ -36,12 +38,38 @@ public class IndexScanOperator extends QueryOperator {
                            String columnName,
                            QueryPlan.PredicateOperator predicate,
                            DataBox value) throws QueryPlanException, DatabaseException {
+    this(transaction, tableName, columnName, predicate, value, null, null);
+  }
+
+  /**
+   * An index scan operator that applies two predicates on the indexed column, such as the lower
+   * and upper bound of lo < x < hi, in a single range scan of the index.
+   *
+   * @param transaction the transaction containing this operator
+   * @param tableName the table to iterate over
+   * @param columnName the name of the column the index is on
+   * @param predicate the first predicate on the column
+   * @param value the value of the first predicate
+   * @param otherPredicate the second predicate on the column, or null for none
+   * @param otherValue the value of the second predicate
+   * @throws QueryPlanException
+   * @throws DatabaseException
+   */
+  public IndexScanOperator(Database.Transaction transaction,
+                           String tableName,
+                           String columnName,
+                           QueryPlan.PredicateOperator predicate,
+                           DataBox value,
+                           QueryPlan.PredicateOperator otherPredicate,
+                           DataBox otherValue) throws QueryPlanException, DatabaseException {
     super(OperatorType.INDEXSCAN);
     this.tableName = tableName;
     this.transaction = transaction;
     this.columnName = columnName;
     this.predicate = predicate;
     this.value = value;
+    this.otherPredicate = otherPredicate;
+    this.otherValue = otherValue;
     this.setOutputSchema(this.computeSchema());
     columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
     this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
@@ -51,11 +79,16 @@ public class IndexScanOperator extends QueryOperator {
   }
 
   public String str() {
-    return "type: " + this.getType() +
+    String str = "type: " + this.getType() +
         "\ntable: " + this.tableName +
         "\ncolumn: " + this.columnName +
         "\noperator: " + this.predicate +
         "\nvalue: " + this.value;
+    if (this.otherPredicate != null) {
+      str += "\noperator: " + this.otherPredicate +
+          "\nvalue: " + this.otherValue;
+    }
+    return str;
   }
 
   /**
@@ -72,9 +105,15 @@ public class IndexScanOperator extends QueryOperator {
       throw new QueryPlanException(de);
     }
 
-    return stats.copyWithPredicate(this.columnIndex,
-                                   this.predicate,
-                                   this.value);
+    stats = stats.copyWithPredicate(this.columnIndex,
+                                    this.predicate,
+                                    this.value);
+    if (this.otherPredicate != null) {
+      stats = stats.copyWithPredicate(this.columnIndex,
+                                      this.otherPredicate,
+                                      this.otherValue);
+    }
+    return stats;
   }
 
   /**
@@ -100,7 +139,11 @@ public class IndexScanOperator extends QueryOperator {
     int numberOfPages;
     long numberOfRecords;
     try {
-      rf = this.transaction.getStats(this.tableName).getReductionFactor(this.columnIndex, this.predicate, this.value);
+      TableStats tableStats = this.transaction.getStats(this.tableName);
+      rf = tableStats.getReductionFactor(this.columnIndex, this.predicate, this.value);
+      if (this.otherPredicate != null) {
+        rf *= tableStats.getReductionFactor(this.columnIndex, this.otherPredicate, this.otherValue);
+      }
     } catch (DatabaseException e) {
       throw new QueryPlanException("Error: Database exception while getting stats from transaction.");
     }
@@ -134,43 +177,67 @@ public class IndexScanOperator extends QueryOperator {
   }
 
   /**
-   * An implementation of Iterator that provides an iterator interface for this operator.
+   * An implementation of Iterator that provides an iterator interface for this operator. The
+   * predicates are turned into the bounds of one range scan of the index, which stops at the first
+   * key past the upper bound.
    */
   private class IndexScanIterator implements Iterator<Record> {
     private Iterator<Record> sourceIterator;
-    private Record nextRecord;
+    private DataBox lo;
+    private boolean loInclusive;
+    private DataBox hi;
+    private boolean hiInclusive;
 
     public IndexScanIterator() throws QueryPlanException, DatabaseException {
-      this.nextRecord = null;
-      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.EQUALS) {
-        this.sourceIterator = IndexScanOperator.this.transaction.lookupKey(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN ||
-              IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
-        this.sourceIterator = IndexScanOperator.this.transaction.sortedScan(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName);
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.GREATER_THAN) {
-        this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
-        while (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) > 0) {
-            this.nextRecord = r;
-            break;
-          }
-        }
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.GREATER_THAN_EQUALS) {
-        this.sourceIterator = IndexScanOperator.this.transaction.sortedScanFrom(
-                IndexScanOperator.this.tableName,
-                IndexScanOperator.this.columnName,
-                IndexScanOperator.this.value);
+      this.addBound(IndexScanOperator.this.predicate, IndexScanOperator.this.value);
+      if (IndexScanOperator.this.otherPredicate != null) {
+        this.addBound(IndexScanOperator.this.otherPredicate, IndexScanOperator.this.otherValue);
+      }
+      this.sourceIterator = IndexScanOperator.this.transaction.rangeScan(
+              IndexScanOperator.this.tableName,
+              IndexScanOperator.this.columnName,
+              this.lo, this.loInclusive, this.hi, this.hiInclusive);
+    }
+
+    /**
+     * Narrows the bounds of the scan to the values that satisfy a predicate.
+     */
+    private void addBound(QueryPlan.PredicateOperator predicate, DataBox value) throws QueryPlanException {
+      switch (predicate) {
+        case EQUALS:
+          this.addLowerBound(value, true);
+          this.addUpperBound(value, true);
+          break;
+        case LESS_THAN:
+          this.addUpperBound(value, false);
+          break;
+        case LESS_THAN_EQUALS:
+          this.addUpperBound(value, true);
+          break;
+        case GREATER_THAN:
+          this.addLowerBound(value, false);
+          break;
+        case GREATER_THAN_EQUALS:
+          this.addLowerBound(value, true);
+          break;
+        default:
+          throw new QueryPlanException("Index scans do not support " + predicate);
+      }
+    }
+
+    private void addLowerBound(DataBox value, boolean inclusive) {
+      int cmp = this.lo == null ? 1 : value.compareTo(this.lo);
+      if (cmp > 0 || (cmp == 0 && !inclusive)) {
+        this.lo = value;
+        this.loInclusive = inclusive;
+      }
+    }
+
+    private void addUpperBound(DataBox value, boolean inclusive) {
+      int cmp = this.hi == null ? -1 : value.compareTo(this.hi);
+      if (cmp < 0 || (cmp == 0 && !inclusive)) {
+        this.hi = value;
+        this.hiInclusive = inclusive;
       }
     }
 
@@ -180,37 +247,7 @@ public class IndexScanOperator extends QueryOperator {
      * @return true if this iterator has another record to yield, otherwise false
      */
     public boolean hasNext() {
-      if (this.nextRecord != null) {
-        return true;
-      }
-      if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN) {
-        if (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) >= 0) {
-            return false;
-          }
-          this.nextRecord = r;
-          return true;
-        }
-        return false;
-      } else if (IndexScanOperator.this.predicate == QueryPlan.PredicateOperator.LESS_THAN_EQUALS) {
-        if (this.sourceIterator.hasNext()) {
-          Record r = this.sourceIterator.next();
-          if (r.getValues().get(IndexScanOperator.this.columnIndex)
-                  .compareTo(IndexScanOperator.this.value) > 0) {
-            return false;
-          }
-          this.nextRecord = r;
-          return true;
-        }
-        return false;
-      }
-      if (this.sourceIterator.hasNext()) {
-        this.nextRecord = this.sourceIterator.next();
-        return true;
-      }
-      return false;
+      return this.sourceIterator.hasNext();
     }
 
     /**
@@ -221,9 +258,7 @@ public class IndexScanOperator extends QueryOperator {
      */
     public Record next() {
       if (this.hasNext()) {
-        Record r = this.nextRecord;
-        this.nextRecord = null;
-        return r;
+        return this.sourceIterator.next();
       }
       throw new NoSuchElementException();
     }
@@ -232,4 +267,4 @@ public class IndexScanOperator extends QueryOperator {
       throw new UnsupportedOperationException();
     }
   }
-}
\ No newline at end of file
+}
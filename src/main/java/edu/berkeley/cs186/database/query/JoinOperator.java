@@ -156,6 +156,10 @@ public abstract class JoinOperator extends QueryOperator {
     return this.transaction.getNumEntriesPerPage(tableName);
   }
 
+  public Record readRecord(String tableName, Page p, int entryNum) throws DatabaseException {
+    return this.transaction.readRecord(tableName, p, entryNum);
+  }
+
   public int getEntrySize(String tableName) throws DatabaseException {
     return this.transaction.getEntrySize(tableName);
   }
@@ -172,10 +172,7 @@ public class PNLJOperator extends JoinOperator {
           byte mask = (byte) (1 << bitOffset);
           byte value = (byte) (b & mask);
           if (value != 0) {
-            int entrySize = PNLJOperator.this.getEntrySize(this.leftTableName);
-            int offset = PNLJOperator.this.getHeaderSize(this.leftTableName) + (entrySize * this.leftEntryNum);
-            byte[] bytes = this.leftPage.readBytes(offset, entrySize);
-            Record toRtn = PNLJOperator.this.getLeftSource().getOutputSchema().decode(bytes);
+            Record toRtn = PNLJOperator.this.readRecord(this.leftTableName, this.leftPage, this.leftEntryNum);
             this.leftEntryNum++;
             return toRtn;
           }
@@ -195,10 +192,7 @@ public class PNLJOperator extends JoinOperator {
           byte mask = (byte) (1 << bitOffset);
           byte value = (byte) (b & mask);
           if (value != 0) {
-            int entrySize = PNLJOperator.this.getEntrySize(this.rightTableName);
-            int offset = PNLJOperator.this.getHeaderSize(this.rightTableName) + (entrySize * rightEntryNum);
-            byte[] bytes = this.rightPage.readBytes(offset, entrySize);
-            Record toRtn = PNLJOperator.this.getRightSource().getOutputSchema().decode(bytes);
+            Record toRtn = PNLJOperator.this.readRecord(this.rightTableName, this.rightPage, this.rightEntryNum);
             this.rightEntryNum++;
             return toRtn;
           }
@@ -247,9 +247,9 @@ public class QueryPlan {
 
   /**
    * Applies all eligible SELECT predicates to a given source, except for the
-   * predicate at index except. The purpose of except is because there might
-   * be one SELECT predicate that was already used for an index scan, so no
-   * point applying it again. A SELECT predicate is represented as elements of
+   * predicates at the indices in except. The purpose of except is because there
+   * might be SELECT predicates that were already used for an index scan, so no
+   * point applying them again. A SELECT predicate is represented as elements of
    * this.selectColumnNames, this.selectOperators, and this.selectDataBoxes that
    * correspond to the same index of these lists.
    *
@@ -257,31 +257,68 @@ public class QueryPlan {
    * @throws DatabaseException
    * @throws QueryPlanException
    */
-  private QueryOperator pushDownSelects(QueryOperator source, int except) throws QueryPlanException, DatabaseException {
+  private QueryOperator pushDownSelects(QueryOperator source, List<Integer> except) throws QueryPlanException, DatabaseException {
     /* DONE: Implement me! */
-    int index = 0;
-    for (String selectColumn : this.selectColumnNames) {
-      if (index == except) { // false if exceptName still null
+    for (int index = 0; index < this.selectColumnNames.size(); index++) {
+      if (except.contains(index)) {
         continue;
       }
 
-      PredicateOperator operator;
-      DataBox value;
       SelectOperator selectOperator;
       try {
-        operator = this.selectOperators.get(index);
-        value = this.selectDataBoxes.get(index);
-        selectOperator = new SelectOperator(source, selectColumn, operator, value);
+        selectOperator = new SelectOperator(source, this.selectColumnNames.get(index),
+            this.selectOperators.get(index), this.selectDataBoxes.get(index));
       } catch (QueryPlanException e) { // if predicate does not belong to this table
         continue;
       }
       source = selectOperator;
-      index++;
     }
 
     return source;
   }
 
+  /**
+   * Finds a SELECT predicate on the same column as the predicate at index i
+   * that bounds the column from the other side, so that an index scan can
+   * apply both as one range scan: x > lo with x < hi, for example.
+   *
+   * @param i the index of a SELECT predicate
+   * @return the index of the other predicate, or -1 if there is none
+   */
+  private int findOtherBound(int i) {
+    boolean lower = isLowerBound(this.selectOperators.get(i));
+    boolean upper = isUpperBound(this.selectOperators.get(i));
+    for (int j = 0; j < this.selectColumnNames.size(); j++) {
+      if (j != i && this.selectColumnNames.get(j).equals(this.selectColumnNames.get(i))
+          && ((lower && isUpperBound(this.selectOperators.get(j)))
+              || (upper && isLowerBound(this.selectOperators.get(j))))) {
+        return j;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean isLowerBound(PredicateOperator operator) {
+    return operator == PredicateOperator.GREATER_THAN || operator == PredicateOperator.GREATER_THAN_EQUALS;
+  }
+
+  private static boolean isUpperBound(PredicateOperator operator) {
+    return operator == PredicateOperator.LESS_THAN || operator == PredicateOperator.LESS_THAN_EQUALS;
+  }
+
+  /**
+   * Creates an index scan for the SELECT predicate at index i, which also
+   * applies the predicate at index other if other is not -1.
+   */
+  private IndexScanOperator createIndexScan(String table, int i, int other) throws QueryPlanException, DatabaseException {
+    if (other < 0) {
+      return new IndexScanOperator(this.transaction, table, this.selectColumnNames.get(i),
+          this.selectOperators.get(i), this.selectDataBoxes.get(i));
+    }
+    return new IndexScanOperator(this.transaction, table, this.selectColumnNames.get(i),
+        this.selectOperators.get(i), this.selectDataBoxes.get(i),
+        this.selectOperators.get(other), this.selectDataBoxes.get(other));
+  }
 
   /**
    * Finds the lowest cost QueryOperator that scans the given table. First
@@ -306,17 +343,13 @@ public class QueryPlan {
     // table and retain the lowest cost operator
     // DONE: Implement me!
     List<Integer> selectIndices = this.getEligibleIndexColumns(table);
-    int minSelectIdx = -1;
+    List<Integer> minSelectIdx = new ArrayList<Integer>();
 
     for (Integer i : selectIndices) {
-      PredicateOperator operator;
-      DataBox value;
+      int other = this.findOtherBound(i);
       QueryOperator iso;
       try {
-        operator = this.selectOperators.get(i);
-        value = this.selectDataBoxes.get(i);
-        iso = new IndexScanOperator(this.transaction, table, this.selectColumnNames.get(i),
-                operator, value);
+        iso = this.createIndexScan(table, i, other);
       } catch (QueryPlanException e) { // if predicate does not belong to this table
         continue;
       }
@@ -325,7 +358,11 @@ public class QueryPlan {
       if (iso.getIOCost() < minCost) {
         minOp = iso;
         minCost = iso.getIOCost();
-        minSelectIdx = i;
+        minSelectIdx.clear();
+        minSelectIdx.add(i);
+        if (other >= 0) {
+          minSelectIdx.add(other);
+        }
       }
     }
 
@@ -494,15 +531,22 @@ public class QueryPlan {
 
   private void generateIndexPlan(String indexColumn) throws QueryPlanException, DatabaseException {
     int selectIndex = this.selectColumnNames.indexOf(indexColumn);
-    PredicateOperator operator = this.selectOperators.get(selectIndex);
-    DataBox value = this.selectDataBoxes.get(selectIndex);
+    while (this.selectOperators.get(selectIndex) == PredicateOperator.NOT_EQUALS) {
+      selectIndex = this.selectColumnNames.subList(selectIndex + 1, this.selectColumnNames.size())
+          .indexOf(indexColumn) + selectIndex + 1;
+    }
+    int other = this.findOtherBound(selectIndex);
 
-    this.finalOperator = new IndexScanOperator(this.transaction, this.startTableName, indexColumn, operator,
-        value);
+    this.finalOperator = this.createIndexScan(this.startTableName, selectIndex, other);
 
-    this.selectColumnNames.remove(selectIndex);
-    this.selectOperators.remove(selectIndex);
-    this.selectDataBoxes.remove(selectIndex);
+    // remove the later predicate first so that the earlier one's index stays valid
+    for (int i : new int[] {Math.max(selectIndex, other), Math.min(selectIndex, other)}) {
+      if (i >= 0) {
+        this.selectColumnNames.remove(i);
+        this.selectOperators.remove(i);
+        this.selectDataBoxes.remove(i);
+      }
+    }
 
     this.addSelects();
     this.addProjects();
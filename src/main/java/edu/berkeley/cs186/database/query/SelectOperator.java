@@ -9,6 +9,7 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.MarkerRecord;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordView;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -73,6 +74,49 @@ public class SelectOperator extends QueryOperator {
 
   public Iterator<Record> iterator() throws QueryPlanException, DatabaseException { return new SelectIterator(); }
 
+  /**
+   * Evaluates the predicate on a record. RecordViews compare the column in place, so records that
+   * are filtered out are never decoded.
+   *
+   * @param r the record to check
+   * @return true if r satisfies the predicate
+   */
+  private boolean matches(Record r) {
+    if (this.operator == QueryPlan.PredicateOperator.EQUALS) {
+      return this.columnEquals(r);
+    }
+    if (this.operator == QueryPlan.PredicateOperator.NOT_EQUALS) {
+      return !this.columnEquals(r);
+    }
+
+    int cmp;
+    if (r instanceof RecordView) {
+      cmp = ((RecordView) r).compareColumn(this.columnIndex, this.value);
+    } else {
+      cmp = r.getValues().get(this.columnIndex).compareTo(this.value);
+    }
+
+    switch (this.operator) {
+      case LESS_THAN:
+        return cmp < 0;
+      case LESS_THAN_EQUALS:
+        return cmp <= 0;
+      case GREATER_THAN:
+        return cmp > 0;
+      case GREATER_THAN_EQUALS:
+        return cmp >= 0;
+      default:
+        return false;
+    }
+  }
+
+  private boolean columnEquals(Record r) {
+    if (r instanceof RecordView) {
+      return ((RecordView) r).columnEquals(this.columnIndex, this.value);
+    }
+    return r.getValues().get(this.columnIndex).equals(this.value);
+  }
+
   /**
    * An implementation of Iterator that provides an iterator interface for this operator.
    */
@@ -102,51 +146,9 @@ public class SelectOperator extends QueryOperator {
           this.nextRecord = r;
           return true;
         }
-        switch (SelectOperator.this.operator) {
-          case EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case NOT_EQUALS:
-            if (!r.getValues().get(SelectOperator.this.columnIndex).equals(value)) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case LESS_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == -1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          case GREATER_THAN_EQUALS:
-            if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 1) {
-              this.nextRecord = r;
-              return true;
-            } else if (r.getValues().get(SelectOperator.this.columnIndex).compareTo(value) == 0) {
-              this.nextRecord = r;
-              return true;
-            }
-            break;
-          default:
-            break;
+        if (SelectOperator.this.matches(r)) {
+          this.nextRecord = r;
+          return true;
         }
       }
       return false;
@@ -235,10 +235,7 @@ public class SortMergeOperator extends JoinOperator {
           byte mask = (byte) (1 << bitOffset);
           byte value = (byte) (b & mask);
           if (value != 0) {
-            int entrySize = SortMergeOperator.this .getEntrySize(this.leftTableName);
-            int offset = SortMergeOperator.this.getHeaderSize(this.leftTableName) + (entrySize * this.leftEntryNum);
-            byte[] bytes = this.leftPage.readBytes(offset, entrySize);
-            Record toRtn = SortMergeOperator.this.getLeftSource().getOutputSchema().decode(bytes);
+            Record toRtn = SortMergeOperator.this.readRecord(this.leftTableName, this.leftPage, this.leftEntryNum);
             this.leftEntryNum++;
             return toRtn;
           }
@@ -258,10 +255,7 @@ public class SortMergeOperator extends JoinOperator {
           byte mask = (byte) (1 << bitOffset);
           byte value = (byte) (b & mask);
           if (value != 0) {
-            int entrySize = SortMergeOperator.this.getEntrySize(this.rightTableName);
-            int offset = SortMergeOperator.this.getHeaderSize(this.rightTableName) + (entrySize * rightEntryNum);
-            byte[] bytes = this.rightPage.readBytes(offset, entrySize);
-            Record toRtn = SortMergeOperator.this.getRightSource().getOutputSchema().decode(bytes);
+            Record toRtn = SortMergeOperator.this.readRecord(this.rightTableName, this.rightPage, this.rightEntryNum);
             this.rightEntryNum++;
             return toRtn;
           }
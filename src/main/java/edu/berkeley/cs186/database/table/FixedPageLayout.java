@@ -0,0 +1,167 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.io.Page;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * The original Table page layout: a slot bitmap followed by numEntriesPerPage fixed-size entries,
+ * each getEntrySize() bytes of the schema. The record in slot i is at
+ * pageHeaderSize + i * entrySize.
+ *
+ * Properties:
+ * `entrySize`: physical size (in bytes) of a record
+ * `numEntriesPerPage`: number of records a data page can hold
+ * `pageHeaderSize`: physical size (in bytes) of the slot bitmap
+ */
+class FixedPageLayout extends PageLayout {
+  private final int entrySize;
+  private final int numEntriesPerPage;
+  private final int pageHeaderSize;
+
+  /**
+   * Calculates the number of record entries a data page can hold and the size (in bytes) of the
+   * page header. The page header only contains the slot bitmap and takes up no other space. For
+   * ease of calculations and to prevent header byte splitting, `numEntriesPerPage` is a multiple of
+   * 8 (this may waste some space).
+   *
+   * @param schema the schema of the records to store
+   * @param checksums whether the pages end with a checksum trailer
+   */
+  FixedPageLayout(Schema schema, boolean checksums) {
+    super(schema, checksums);
+    this.entrySize = schema.getEntrySize();
+    this.pageHeaderSize = ((this.pageSize * 8) / (1 + 8 * this.entrySize)) / 8;
+    this.numEntriesPerPage = this.pageHeaderSize * 8;
+  }
+
+  int getNumSlots() {
+    return this.numEntriesPerPage;
+  }
+
+  int getHeaderSize() {
+    return this.pageHeaderSize;
+  }
+
+  byte[] readSlotBits(Page page) {
+    return page.readBytes(0, this.pageHeaderSize);
+  }
+
+  @Override
+  boolean isUsed(Page page, int slot) {
+    int bitOffset = 7 - (slot % 8);
+    return (page.readByte(slot / 8) & (1 << bitOffset)) != 0;
+  }
+
+  boolean hasSpace(Page page) {
+    return this.slots(page).nextClear(0) < this.numEntriesPerPage;
+  }
+
+  int insert(Page page, Record record) {
+    int slot = this.slots(page).nextClear(0);
+    if (slot >= this.numEntriesPerPage) {
+      return -1;
+    }
+
+    this.writeBit(page, slot, true);
+    this.writeEntry(page, slot, record);
+    return slot;
+  }
+
+  /**
+   * Fills the page in memory and writes it back once, so that the slot bitmap is updated once
+   * rather than once per record.
+   */
+  @Override
+  int fill(Page page, List<Record> records, int start, List<Integer> slots) {
+    byte[] image = page.readBytes(0, this.pageSize);
+    ByteBuffer buf = ByteBuffer.wrap(image);
+    SlotBitmap bitmap = new SlotBitmap(image, this.numEntriesPerPage);
+
+    int count = 0;
+    int slot = bitmap.nextClear(0);
+    while (slot < this.numEntriesPerPage && start + count < records.size()) {
+      bitmap.set(slot);
+      this.writeEntry(buf, slot, records.get(start + count));
+      slots.add(slot);
+      count++;
+
+      slot = bitmap.nextClear(slot + 1);
+    }
+
+    if (count > 0) {
+      page.writeBytes(0, this.pageSize, image);
+    }
+    return count;
+  }
+
+  Record read(Page page, int slot) {
+    return this.schema.decode(page.readBytes(this.offset(slot), this.entrySize));
+  }
+
+  int getColumnOffset(Page page, int slot, int column) {
+    return this.offset(slot) + this.schema.getFieldOffset(column);
+  }
+
+  void delete(Page page, int slot) {
+    this.writeBit(page, slot, false);
+  }
+
+  void update(Page page, int slot, Record record) {
+    this.writeEntry(page, slot, record);
+  }
+
+  /**
+   * Writes the bytes of record for slot, leaving the slot bitmap alone.
+   *
+   * @param page the page to write to
+   * @param slot the slot of the record
+   * @param record the record to write, which conforms to the schema
+   */
+  void writeEntry(Page page, int slot, Record record) {
+    byte[] bytes = this.schema.encode(record);
+    page.writeBytes(this.offset(slot), bytes.length, bytes);
+  }
+
+  /**
+   * Writes the bytes of record for slot into an in-memory image of a page, as fill does.
+   *
+   * @param image a buffer over a copy of the page
+   * @param slot the slot of the record
+   * @param record the record to write, which conforms to the schema
+   */
+  void writeEntry(ByteBuffer image, int slot, Record record) {
+    image.position(this.offset(slot));
+    this.schema.encode(record, image);
+  }
+
+  private int offset(int slot) {
+    return this.pageHeaderSize + slot * this.entrySize;
+  }
+
+  private SlotBitmap slots(Page page) {
+    return new SlotBitmap(this.readSlotBits(page), this.numEntriesPerPage);
+  }
+
+  /**
+   * Utility method to write a particular bit into the header of a particular page.
+   *
+   * @param page the page to modify
+   * @param slot the header slot to modify
+   * @param value the value of the bit to write
+   */
+  private void writeBit(Page page, int slot, boolean value) {
+    int byteOffset = slot / 8;
+    int bitOffset = 7 - (slot % 8);
+    byte b = page.readByte(byteOffset);
+
+    if (value) {
+      b = (byte) (b | (1 << bitOffset));
+    } else {
+      b = (byte) (b & ~(1 << bitOffset));
+    }
+
+    page.writeByte(byteOffset, b);
+  }
+}
@@ -0,0 +1,181 @@
+package edu.berkeley.cs186.database.table;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Tracks the number of free slots of each data page of a Table, so that inserts can find a page
+ * with room without reading any page headers.
+ *
+ * Pages are grouped into categories by how full they are: category 0 holds full pages, and the
+ * higher categories hold pages with progressively more free slots. Each category keeps its pages
+ * in an array, and each page remembers its index in that array, so moving a page between
+ * categories is O(1), and so is getPageWithSpace, which returns a page of the emptiest non-empty
+ * category. Preferring emptier pages keeps inserts from bouncing between pages that a few deletes
+ * have left with a slot or two free; those slots are used once the emptier pages fill up.
+ *
+ * For FIXED and PAX tables the counts are exact. For SLOTTED tables they count free directory
+ * entries, which may not have room for a record's bytes, so Table sets a page's count to 0 when an
+ * insert into it fails.
+ *
+ * Properties:
+ * `numSlots`: the number of slots of a data page
+ * `freeSlots`: the number of free slots of each page, indexed by page number
+ * `categories`: the pages of each category, in no particular order
+ * `categorySizes`: the number of pages in each category
+ * `positions`: the index of each page in its category's array, indexed by page number
+ * `tracked`: whether each page is in the map, indexed by page number
+ */
+class FreeSpaceMap {
+  private static final int NUM_CATEGORIES = 5;
+
+  private final int numSlots;
+  private int[] freeSlots;
+  private int[][] categories;
+  private int[] categorySizes;
+  private int[] positions;
+  private boolean[] tracked;
+
+  FreeSpaceMap(int numSlots) {
+    this.numSlots = numSlots;
+    this.clear();
+  }
+
+  /**
+   * Removes every page from the map.
+   */
+  void clear() {
+    this.freeSlots = new int[16];
+    this.positions = new int[16];
+    this.tracked = new boolean[16];
+    this.categories = new int[NUM_CATEGORIES][16];
+    this.categorySizes = new int[NUM_CATEGORIES];
+  }
+
+  /**
+   * @return a page with at least one free slot, or -1 if every page in the map is full
+   */
+  int getPageWithSpace() {
+    for (int category = NUM_CATEGORIES - 1; category > 0; category--) {
+      if (this.categorySizes[category] > 0) {
+        return this.categories[category][this.categorySizes[category] - 1];
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * @param pageNum a data page number
+   * @return the number of free slots of pageNum, or 0 if it is not in the map
+   */
+  int getFreeSlots(int pageNum) {
+    return pageNum < this.tracked.length && this.tracked[pageNum] ? this.freeSlots[pageNum] : 0;
+  }
+
+  /**
+   * Records the number of free slots of a page, adding the page to the map if it is not in it.
+   *
+   * @param pageNum a data page number
+   * @param freeSlots the number of free slots of pageNum, which is clamped to [0, numSlots]
+   */
+  void setFreeSlots(int pageNum, int freeSlots) {
+    freeSlots = Math.max(0, Math.min(this.numSlots, freeSlots));
+    this.ensureCapacity(pageNum + 1);
+    if (this.tracked[pageNum]) {
+      if (this.category(this.freeSlots[pageNum]) == this.category(freeSlots)) {
+        this.freeSlots[pageNum] = freeSlots;
+        return;
+      }
+      this.removeFromCategory(pageNum);
+    }
+    this.tracked[pageNum] = true;
+    this.freeSlots[pageNum] = freeSlots;
+    this.addToCategory(pageNum);
+  }
+
+  /**
+   * Removes a page from the map, for a page that is freed.
+   *
+   * @param pageNum a data page number
+   */
+  void removePage(int pageNum) {
+    if (pageNum < this.tracked.length && this.tracked[pageNum]) {
+      this.removeFromCategory(pageNum);
+      this.tracked[pageNum] = false;
+    }
+  }
+
+  /**
+   * Writes the map, as the number of tracked pages followed by a page number and a two byte free
+   * slot count for each, so that it can be read back with readFrom.
+   *
+   * @param out the output to write to
+   * @throws IOException if out can't be written
+   */
+  void writeTo(DataOutput out) throws IOException {
+    int numTracked = 0;
+    for (boolean t : this.tracked) {
+      numTracked += t ? 1 : 0;
+    }
+    out.writeInt(numTracked);
+    for (int pageNum = 0; pageNum < this.tracked.length; pageNum++) {
+      if (this.tracked[pageNum]) {
+        out.writeInt(pageNum);
+        out.writeShort(this.freeSlots[pageNum]);
+      }
+    }
+  }
+
+  /**
+   * @param numSlots the number of slots of a data page
+   * @param in the input to read a map written by writeTo from
+   * @return the map
+   * @throws IOException if in can't be read
+   */
+  static FreeSpaceMap readFrom(int numSlots, DataInput in) throws IOException {
+    FreeSpaceMap map = new FreeSpaceMap(numSlots);
+    int numTracked = in.readInt();
+    for (int i = 0; i < numTracked; i++) {
+      int pageNum = in.readInt();
+      map.setFreeSlots(pageNum, in.readUnsignedShort());
+    }
+    return map;
+  }
+
+  private int category(int freeSlots) {
+    if (freeSlots == 0) {
+      return 0;
+    }
+    return 1 + (int) ((long) (freeSlots - 1) * (NUM_CATEGORIES - 1) / this.numSlots);
+  }
+
+  private void addToCategory(int pageNum) {
+    int category = this.category(this.freeSlots[pageNum]);
+    int size = this.categorySizes[category];
+    if (size == this.categories[category].length) {
+      this.categories[category] = Arrays.copyOf(this.categories[category], size * 2);
+    }
+    this.categories[category][size] = pageNum;
+    this.positions[pageNum] = size;
+    this.categorySizes[category] = size + 1;
+  }
+
+  private void removeFromCategory(int pageNum) {
+    int category = this.category(this.freeSlots[pageNum]);
+    int last = this.categories[category][this.categorySizes[category] - 1];
+    this.categories[category][this.positions[pageNum]] = last;
+    this.positions[last] = this.positions[pageNum];
+    this.categorySizes[category]--;
+  }
+
+  private void ensureCapacity(int numPages) {
+    if (numPages > this.tracked.length) {
+      int capacity = Math.max(numPages, this.tracked.length * 2);
+      this.freeSlots = Arrays.copyOf(this.freeSlots, capacity);
+      this.positions = Arrays.copyOf(this.positions, capacity);
+      this.tracked = Arrays.copyOf(this.tracked, capacity);
+    }
+  }
+}
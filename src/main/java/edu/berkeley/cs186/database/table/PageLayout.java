@@ -0,0 +1,157 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.util.List;
+
+/**
+ * The arrangement of records within the data pages of a Table. A layout numbers the records of a
+ * page with slots from 0 to getNumSlots() - 1, and a record keeps its slot, and so its RecordID,
+ * until it is deleted. Table takes care of choosing pages, the free page set, and stats; the
+ * layout only reads and writes single pages.
+ *
+ * A layout only uses the first pageSize bytes of a page: when the table's pages have checksums,
+ * the last Page.checksumSize bytes of each page are its checksum trailer and belong to the
+ * PageAllocator.
+ *
+ * Properties:
+ * `schema`: the schema of the records stored in pages of this layout
+ * `pageSize`: the number of bytes of a page available to this layout
+ */
+abstract class PageLayout {
+  protected final Schema schema;
+  protected final int pageSize;
+
+  PageLayout(Schema schema, boolean checksums) {
+    this.schema = schema;
+    this.pageSize = Page.pageSize - (checksums ? Page.checksumSize : 0);
+  }
+
+  /**
+   * @param layout the kind of layout
+   * @param schema the schema of the records to store
+   * @param checksums whether the pages end with a checksum trailer that must be left alone
+   * @return the layout for records of schema
+   */
+  static PageLayout create(Table.Layout layout, Schema schema, boolean checksums) {
+    switch (layout) {
+      case SLOTTED:
+        return new SlottedPageLayout(schema, checksums);
+      case PAX:
+        return new PaxPageLayout(schema, checksums);
+      default:
+        return new FixedPageLayout(schema, checksums);
+    }
+  }
+
+  /**
+   * @return the number of slots of a page; no record has a slot number at or above this
+   */
+  abstract int getNumSlots();
+
+  /**
+   * @return the number of bytes at the start of a page used for bookkeeping when the page holds
+   *         getNumSlots() records
+   */
+  abstract int getHeaderSize();
+
+  /**
+   * Reads which slots of a page hold records, as a slot bitmap of getNumSlots() bits in the format
+   * of SlotBitmap. The returned array is a copy.
+   *
+   * @param page the page to read
+   * @return the slot bitmap of page
+   */
+  abstract byte[] readSlotBits(Page page);
+
+  /**
+   * @param page the page to read
+   * @param slot a slot number below getNumSlots()
+   * @return true if slot of page holds a record
+   */
+  boolean isUsed(Page page, int slot) {
+    return new SlotBitmap(this.readSlotBits(page), this.getNumSlots()).isSet(slot);
+  }
+
+  /**
+   * @param page the page to check
+   * @return true if some record could still be inserted into page
+   */
+  abstract boolean hasSpace(Page page);
+
+  /**
+   * Stores record in a free slot of page.
+   *
+   * @param page the page to insert into
+   * @param record the record to insert, which conforms to the schema
+   * @return the slot of the record, or -1 if it does not fit in page
+   */
+  abstract int insert(Page page, Record record);
+
+  /**
+   * Stores records.get(start), records.get(start + 1), ... in page until the page is full. The
+   * default inserts them one at a time; layouts can override it to update a page in bulk.
+   *
+   * @param page the page to insert into, which is pinned
+   * @param records the records to insert, which conform to the schema
+   * @param start the index of the first record to insert
+   * @param slots receives the slot of each inserted record, in order
+   * @return the number of records inserted
+   */
+  int fill(Page page, List<Record> records, int start, List<Integer> slots) {
+    int count = 0;
+    while (start + count < records.size()) {
+      int slot = this.insert(page, records.get(start + count));
+      if (slot < 0) {
+        break;
+      }
+      slots.add(slot);
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * @param page the page to read from
+   * @param slot a used slot of page
+   * @return the record in slot
+   */
+  abstract Record read(Page page, int slot);
+
+  /**
+   * Locates one column of a stored record without reading the rest of it, for RecordView. A string
+   * column is stored as in Schema#encode, or as in Schema#encodeVariable if hasVariableStrings().
+   *
+   * @param page the page to read from
+   * @param slot a used slot of page
+   * @param column the index of a column of the schema
+   * @return the offset in page of the column's bytes
+   */
+  abstract int getColumnOffset(Page page, int slot, int column);
+
+  /**
+   * @return true if strings are stored with a length prefix and without padding
+   */
+  boolean hasVariableStrings() {
+    return false;
+  }
+
+  /**
+   * Frees a used slot of page.
+   *
+   * @param page the page to delete from
+   * @param slot a used slot of page
+   */
+  abstract void delete(Page page, int slot);
+
+  /**
+   * Replaces the record in a used slot of page, keeping its slot.
+   *
+   * @param page the page to update
+   * @param slot a used slot of page
+   * @param record the new record, which conforms to the schema
+   * @throws DatabaseException if the new record does not fit in page
+   */
+  abstract void update(Page page, int slot, Record record) throws DatabaseException;
+}
@@ -0,0 +1,70 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * A PAX layout: the same slot bitmap and number of slots as FixedPageLayout, but the rest of the
+ * page is split into one minipage per column, and each minipage holds that column's value for
+ * every slot:
+ *
+ *   | slot bitmap | column 0 of slots 0..n-1 | column 1 of slots 0..n-1 | ... |
+ *
+ * A scan that reads one column of every record, such as a RecordView predicate or projection,
+ * reads one contiguous run of bytes instead of striding across whole records.
+ *
+ * Properties:
+ * `columnStarts`: the offset of each column's minipage in a page
+ * `columnSizes`: the size (in bytes) of each column's values
+ */
+class PaxPageLayout extends FixedPageLayout {
+  private final int[] columnStarts;
+  private final int[] columnSizes;
+
+  PaxPageLayout(Schema schema, boolean checksums) {
+    super(schema, checksums);
+    List<DataBox> fieldTypes = schema.getFieldTypes();
+    this.columnStarts = new int[fieldTypes.size()];
+    this.columnSizes = new int[fieldTypes.size()];
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      this.columnStarts[i] = this.getHeaderSize() + this.getNumSlots() * schema.getFieldOffset(i);
+      this.columnSizes[i] = fieldTypes.get(i).getSize();
+    }
+  }
+
+  @Override
+  Record read(Page page, int slot) {
+    byte[] bytes = new byte[this.schema.getEntrySize()];
+    for (int i = 0; i < this.columnSizes.length; i++) {
+      byte[] column = page.readBytes(this.getColumnOffset(page, slot, i), this.columnSizes[i]);
+      System.arraycopy(column, 0, bytes, this.schema.getFieldOffset(i), column.length);
+    }
+    return this.schema.decode(bytes);
+  }
+
+  @Override
+  int getColumnOffset(Page page, int slot, int column) {
+    return this.columnStarts[column] + slot * this.columnSizes[column];
+  }
+
+  @Override
+  void writeEntry(Page page, int slot, Record record) {
+    List<DataBox> values = record.getValues();
+    for (int i = 0; i < values.size(); i++) {
+      byte[] bytes = values.get(i).getBytes();
+      page.writeBytes(this.getColumnOffset(page, slot, i), bytes.length, bytes);
+    }
+  }
+
+  @Override
+  void writeEntry(ByteBuffer image, int slot, Record record) {
+    List<DataBox> values = record.getValues();
+    for (int i = 0; i < values.size(); i++) {
+      image.position(this.columnStarts[i] + slot * this.columnSizes[i]);
+      image.put(values.get(i).getBytes());
+    }
+  }
+}
@@ -0,0 +1,159 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.io.Page;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+
+/**
+ * A Record that reads its columns straight out of the page that stores it. Nothing is copied when
+ * the view is created; a column is decoded into a DataBox the first time getValues() returns it,
+ * and compareColumn and columnEquals compare numeric and boolean columns against a value without
+ * decoding them at all. A scan that only looks at a few columns of each record therefore only
+ * touches those columns' bytes.
+ *
+ * A view reads the page whenever an undecoded column is used, so it must only be used while its
+ * record is unchanged. Views are meant for read-only scans such as query plans; copy the values
+ * out of a view before updating or deleting its record.
+ *
+ * Properties:
+ * `columns`: the values of the record, which know the page, slot, and layout the record is in
+ */
+public class RecordView extends Record {
+  private final Columns columns;
+
+  RecordView(PageLayout layout, Page page, int slot) {
+    this(new Columns(layout, page, slot));
+  }
+
+  private RecordView(Columns columns) {
+    super(columns);
+    this.columns = columns;
+  }
+
+  /**
+   * Compares a column of this record with value, as column.compareTo(value) would.
+   *
+   * @param column the index of the column
+   * @param value the value to compare against, which has the column's type
+   * @return a negative number, zero, or a positive number as the column is less than, equal to, or
+   *         greater than value
+   * @throws DataBoxException if value does not have the column's type
+   */
+  public int compareColumn(int column, DataBox value) {
+    DataBox.Types type = this.columns.layout.schema.getFieldTypes().get(column).type();
+    if (value.type() != type) {
+      throw new DataBoxException("Invalid Comparsion");
+    }
+
+    switch (type) {
+      case INT:
+        return Integer.compare(this.columns.page.getInt(this.position(column)), value.getInt());
+      case FLOAT:
+        return Float.compare(this.columns.page.getFloat(this.position(column)), value.getFloat());
+      case BOOL:
+        return Boolean.compare(this.columns.page.readByte(this.position(column)) != 0, value.getBool());
+      default:
+        return this.columns.get(column).compareTo(value);
+    }
+  }
+
+  /**
+   * Checks a column of this record for equality with value, as column.equals(value) would.
+   *
+   * @param column the index of the column
+   * @param value the value to compare against
+   * @return whether the column equals value
+   */
+  public boolean columnEquals(int column, DataBox value) {
+    DataBox.Types type = this.columns.layout.schema.getFieldTypes().get(column).type();
+    if (value.type() != type) {
+      return false;
+    }
+
+    switch (type) {
+      case INT:
+        return this.columns.page.getInt(this.position(column)) == value.getInt();
+      case FLOAT:
+        return this.columns.page.getFloat(this.position(column)) == value.getFloat();
+      case BOOL:
+        return (this.columns.page.readByte(this.position(column)) != 0) == value.getBool();
+      default:
+        return this.columns.get(column).equals(value);
+    }
+  }
+
+  /**
+   * @return the RecordID of the record this view reads
+   */
+  public RecordID getRecordID() {
+    return new RecordID(this.columns.page.getPageNum(), this.columns.slot);
+  }
+
+  /**
+   * @return a Record holding a copy of every column, which stays valid after the record changes
+   */
+  public Record materialize() {
+    return new Record(Arrays.<DataBox>asList(this.columns.toArray(new DataBox[this.columns.size()])));
+  }
+
+  private int position(int column) {
+    return this.columns.layout.getColumnOffset(this.columns.page, this.columns.slot, column);
+  }
+
+  /**
+   * The values of a RecordView, decoded from the page one column at a time and kept once decoded.
+   */
+  private static class Columns extends AbstractList<DataBox> {
+    private final PageLayout layout;
+    private final Page page;
+    private final int slot;
+    private DataBox[] decoded;
+
+    Columns(PageLayout layout, Page page, int slot) {
+      this.layout = layout;
+      this.page = page;
+      this.slot = slot;
+    }
+
+    @Override
+    public DataBox get(int column) {
+      if (this.decoded == null) {
+        this.decoded = new DataBox[this.size()];
+      }
+      if (this.decoded[column] == null) {
+        this.decoded[column] = this.decode(column);
+      }
+      return this.decoded[column];
+    }
+
+    @Override
+    public int size() {
+      return this.layout.schema.getFieldTypes().size();
+    }
+
+    private DataBox decode(int column) {
+      DataBox field = this.layout.schema.getFieldTypes().get(column);
+      int position = this.layout.getColumnOffset(this.page, this.slot, column);
+
+      switch (field.type()) {
+        case INT:
+          return new IntDataBox(this.page.getInt(position));
+        case FLOAT:
+          return new FloatDataBox(this.page.getFloat(position));
+        case BOOL:
+          return new BoolDataBox(this.page.readByte(position) != 0);
+        default:
+          if (!this.layout.hasVariableStrings()) {
+            return new StringDataBox(this.page.readBytes(position, field.getSize()));
+          }
+          byte[] bytes = new byte[field.getSize()];
+          int length = this.page.getShort(position);
+          this.page.readBytes(position + 2, length, bytes);
+          Arrays.fill(bytes, length, bytes.length, (byte) ' ');
+          return new StringDataBox(bytes);
+      }
+    }
+  }
+}
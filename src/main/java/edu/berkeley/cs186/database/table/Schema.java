@@ -14,11 +14,13 @@ import java.util.List;
  * `fields`: an ordered list of column names
  * `fieldTypes`: an ordered list of data types corresponding to the columns
  * `size`: physical size (in bytes) of a record conforming to this schema
+ * `fieldOffsets`: the offset (in bytes) of each column within a record encoded by encode
  */
 public class Schema {
   private List<String> fields;
   private List<DataBox> fieldTypes;
   private int size;
+  private int[] fieldOffsets;
 
   public Schema(List<String> fields, List<DataBox> fieldTypes) {
     assert(fields.size() == fieldTypes.size());
@@ -26,9 +28,11 @@ public class Schema {
     this.fields = fields;
     this.fieldTypes = fieldTypes;
     this.size = 0;
+    this.fieldOffsets = new int[fieldTypes.size()];
 
-    for (DataBox dt : fieldTypes) {
-      this.size += dt.getSize();
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      this.fieldOffsets[i] = this.size;
+      this.size += fieldTypes.get(i).getSize();
     }
   }
 
@@ -82,6 +86,19 @@ public class Schema {
     return byteBuffer.array();
   }
 
+  /**
+   * Serializes the provided record into buf at its current position, advancing the position by
+   * getEntrySize() bytes. This method assumes that the input record corresponds to this schema.
+   *
+   * @param record the record to encode
+   * @param buf the buffer to encode the record into
+   */
+  public void encode(Record record, ByteBuffer buf) {
+    for (DataBox value : record.getValues()) {
+      buf.put(value.getBytes());
+    }
+  }
+
   /**
    * Takes a byte[] and decodes it into a Record. This method assumes that the
    * input byte[] represents a record that corresponds to this schema.
@@ -116,10 +133,119 @@ public class Schema {
     return new Record(values);
   }
 
+  /**
+   * Serializes the provided record in the variable-length format used by slotted pages. Each
+   * string is written as a two byte length followed by its UTF-8 bytes without the trailing
+   * padding; other types are written as in encode. This method assumes that the input record
+   * corresponds to this schema.
+   *
+   * @param record the record to encode
+   * @return the encoded record as a byte[]
+   */
+  public byte[] encodeVariable(Record record) {
+    List<DataBox> values = record.getValues();
+    byte[][] fieldBytes = new byte[values.size()][];
+    int size = 0;
+    for (int i = 0; i < values.size(); i++) {
+      byte[] bytes = values.get(i).getBytes();
+      if (values.get(i).type() == DataBox.Types.STRING) {
+        int length = bytes.length;
+        while (length > 0 && bytes[length - 1] == ' ') {
+          length--;
+        }
+        bytes = Arrays.copyOf(bytes, length);
+        size += 2;
+      }
+      fieldBytes[i] = bytes;
+      size += bytes.length;
+    }
+
+    ByteBuffer byteBuffer = ByteBuffer.allocate(size);
+    for (int i = 0; i < values.size(); i++) {
+      if (values.get(i).type() == DataBox.Types.STRING) {
+        byteBuffer.putShort((short) fieldBytes[i].length);
+      }
+      byteBuffer.put(fieldBytes[i]);
+    }
+    return byteBuffer.array();
+  }
+
+  /**
+   * Decodes a record written by encodeVariable. Strings are padded back to their column's size,
+   * so the result equals the record that was encoded.
+   *
+   * @param input the byte array to decode
+   * @return the decoded Record
+   */
+  public Record decodeVariable(byte[] input) {
+    ByteBuffer buf = ByteBuffer.wrap(input);
+
+    List<DataBox> values = new ArrayList<DataBox>();
+    for (DataBox field : fieldTypes) {
+      byte[] fieldBytes = new byte[field.getSize()];
+      if (field.type() == DataBox.Types.STRING) {
+        int length = buf.getShort();
+        buf.get(fieldBytes, 0, length);
+        Arrays.fill(fieldBytes, length, fieldBytes.length, (byte) ' ');
+      } else {
+        buf.get(fieldBytes);
+      }
+
+      switch (field.type()) {
+        case STRING:
+          values.add(new StringDataBox(fieldBytes));
+          break;
+        case INT:
+          values.add(new IntDataBox(fieldBytes));
+          break;
+        case FLOAT:
+          values.add(new FloatDataBox(fieldBytes));
+          break;
+        case BOOL:
+          values.add(new BoolDataBox(fieldBytes));
+          break;
+      }
+    }
+
+    return new Record(values);
+  }
+
+  /**
+   * @return the physical size (in bytes) of the smallest record encodeVariable can produce for
+   *         this schema, the one whose strings are all empty
+   */
+  public int getMinVariableSize() {
+    int minSize = 0;
+    for (DataBox dt : this.fieldTypes) {
+      minSize += dt.type() == DataBox.Types.STRING ? 2 : dt.getSize();
+    }
+    return minSize;
+  }
+
+  /**
+   * @return the physical size (in bytes) of the largest record encodeVariable can produce for
+   *         this schema
+   */
+  public int getMaxVariableSize() {
+    int maxSize = 0;
+    for (DataBox dt : this.fieldTypes) {
+      maxSize += dt.type() == DataBox.Types.STRING ? 2 + dt.getSize() : dt.getSize();
+    }
+    return maxSize;
+  }
+
   public int getEntrySize() {
     return this.size;
   }
 
+  /**
+   * @param column the index of a column
+   * @return the offset (in bytes) of column within a record encoded by encode
+   */
+  public int getFieldOffset(int column) {
+    return this.fieldOffsets[column];
+  }
+
   public List<String> getFieldNames() {
     return this.fields;
   }
@@ -0,0 +1,120 @@
+package edu.berkeley.cs186.database.table;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A view of a data page's slot bitmap that works on 64 slots at a time. Slot i is the bit
+ * (7 - i % 8) of byte i / 8, so reading the bitmap as big-endian longs puts slot 64 * w in the
+ * most significant bit of word w, and Long.numberOfLeadingZeros finds the lowest numbered slot.
+ *
+ * The backing array may be longer than the bitmap (for instance a whole page image); bits past
+ * numSlots are never read or written.
+ *
+ * Properties:
+ * `bits`: the bytes holding the bitmap, starting at index 0
+ * `words`: bits as a big-endian ByteBuffer
+ * `numSlots`: the number of slots in the bitmap
+ */
+class SlotBitmap {
+  private final byte[] bits;
+  private final ByteBuffer words;
+  private final int numSlots;
+
+  /**
+   * @param bits the bytes holding the bitmap, starting at index 0
+   * @param numSlots the number of slots in the bitmap
+   */
+  SlotBitmap(byte[] bits, int numSlots) {
+    this.bits = bits;
+    this.words = ByteBuffer.wrap(bits);
+    this.numSlots = numSlots;
+  }
+
+  /**
+   * @param slot the first slot to consider
+   * @return the first free slot at or after slot, or numSlots if there is none
+   */
+  int nextClear(int slot) {
+    return next(slot, true);
+  }
+
+  /**
+   * @param slot the first slot to consider
+   * @return the first used slot at or after slot, or numSlots if there is none
+   */
+  int nextSet(int slot) {
+    return next(slot, false);
+  }
+
+  /**
+   * @return the number of used slots
+   */
+  int count() {
+    int count = 0;
+    int numWords = (this.numSlots + 63) / 64;
+    for (int w = 0; w < numWords; w++) {
+      count += Long.bitCount(word(w));
+    }
+    return count;
+  }
+
+  /**
+   * @return the bytes holding the bitmap
+   */
+  byte[] getBits() {
+    return this.bits;
+  }
+
+  boolean isSet(int slot) {
+    return (this.bits[slot / 8] & (1 << (7 - (slot % 8)))) != 0;
+  }
+
+  void set(int slot) {
+    this.bits[slot / 8] |= (byte) (1 << (7 - (slot % 8)));
+  }
+
+  void clear(int slot) {
+    this.bits[slot / 8] &= (byte) ~(1 << (7 - (slot % 8)));
+  }
+
+  private int next(int slot, boolean clear) {
+    if (slot >= this.numSlots) {
+      return this.numSlots;
+    }
+    int w = slot / 64;
+    // Drop the slots before slot in the first word.
+    long word = (clear ? ~word(w) : word(w)) & (-1L >>> (slot % 64));
+    int numWords = (this.numSlots + 63) / 64;
+    while (true) {
+      if (word != 0) {
+        return Math.min(w * 64 + Long.numberOfLeadingZeros(word), this.numSlots);
+      }
+      w++;
+      if (w >= numWords) {
+        return this.numSlots;
+      }
+      word = clear ? ~word(w) : word(w);
+    }
+  }
+
+  /**
+   * @param w a word index
+   * @return slots 64 * w to 64 * w + 63 as a long, with slots past numSlots reading as 0
+   */
+  private long word(int w) {
+    int start = w * 64;
+    int remaining = this.numSlots - start;
+    if (remaining >= 64) {
+      return this.words.getLong(w * 8);
+    }
+    long word = 0;
+    int numBytes = (remaining + 7) / 8;
+    for (int i = 0; i < 8; i++) {
+      word <<= 8;
+      if (i < numBytes) {
+        word |= this.bits[w * 8 + i] & 0xFF;
+      }
+    }
+    return word & ~(-1L >>> remaining);
+  }
+}
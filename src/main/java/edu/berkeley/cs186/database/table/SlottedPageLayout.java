@@ -0,0 +1,252 @@
+package edu.berkeley.cs186.database.table;
+
+import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.Page;
+
+/**
+ * A slotted page layout for records in the variable-length format of Schema#encodeVariable, so that
+ * strings only take the space of their contents. A page starts with a four byte header and a slot
+ * directory, and records are stored from the end of the page towards the directory:
+ *
+ *   | numSlots (2) | dataStart (2) | offset 0 (2) | length 0 (2) | ... free ... | records |
+ *
+ * numSlots is the number of directory entries in use, and dataStart is the offset of the lowest
+ * record byte (0 on a new page, meaning pageSize). A directory entry with offset 0 is a free slot.
+ * Deleting a record only frees its directory entry; the space of deleted and shrunk records is
+ * reclaimed by compacting the page when a record does not fit in the contiguous free space.
+ *
+ * Properties:
+ * `numSlots`: the maximum number of directory entries of a page
+ * `minRecordSize`: the size of the smallest encoded record
+ */
+class SlottedPageLayout extends PageLayout {
+  private static final int HEADER_SIZE = 4;
+  private static final int SLOT_SIZE = 4;
+
+  private final int numSlots;
+  private final int minRecordSize;
+
+  SlottedPageLayout(Schema schema, boolean checksums) {
+    super(schema, checksums);
+    this.minRecordSize = Math.max(1, schema.getMinVariableSize());
+    this.numSlots = (this.pageSize - HEADER_SIZE) / (SLOT_SIZE + this.minRecordSize);
+  }
+
+  int getNumSlots() {
+    return this.numSlots;
+  }
+
+  int getHeaderSize() {
+    return HEADER_SIZE + SLOT_SIZE * this.numSlots;
+  }
+
+  byte[] readSlotBits(Page page) {
+    SlotBitmap bitmap = new SlotBitmap(new byte[(this.numSlots + 7) / 8], this.numSlots);
+    int used = this.getDirectorySize(page);
+    for (int slot = 0; slot < used; slot++) {
+      if (this.getOffset(page, slot) != 0) {
+        bitmap.set(slot);
+      }
+    }
+    return bitmap.getBits();
+  }
+
+  @Override
+  boolean isUsed(Page page, int slot) {
+    return slot < this.getDirectorySize(page) && this.getOffset(page, slot) != 0;
+  }
+
+  boolean hasSpace(Page page) {
+    int slot = this.findSlot(page);
+    if (slot < 0) {
+      return false;
+    }
+    int directorySize = Math.max(this.getDirectorySize(page), slot + 1);
+    return this.getFreeSpace(page, directorySize) >= this.minRecordSize;
+  }
+
+  int insert(Page page, Record record) {
+    int slot = this.findSlot(page);
+    if (slot < 0) {
+      return -1;
+    }
+
+    byte[] bytes = this.schema.encodeVariable(record);
+    int directorySize = Math.max(this.getDirectorySize(page), slot + 1);
+    int offset = this.allocate(page, directorySize, bytes.length);
+    if (offset < 0) {
+      return -1;
+    }
+
+    page.writeBytes(offset, bytes.length, bytes);
+    page.putShort(0, (short) directorySize);
+    this.setEntry(page, slot, offset, bytes.length);
+    return slot;
+  }
+
+  Record read(Page page, int slot) {
+    return this.schema.decodeVariable(page.readBytes(this.getOffset(page, slot), this.getLength(page, slot)));
+  }
+
+  int getColumnOffset(Page page, int slot, int column) {
+    int position = this.getOffset(page, slot);
+    for (int i = 0; i < column; i++) {
+      DataBox field = this.schema.getFieldTypes().get(i);
+      if (field.type() == DataBox.Types.STRING) {
+        position += 2 + page.getShort(position);
+      } else {
+        position += field.getSize();
+      }
+    }
+    return position;
+  }
+
+  @Override
+  boolean hasVariableStrings() {
+    return true;
+  }
+
+  void delete(Page page, int slot) {
+    int offset = this.getOffset(page, slot);
+    if (offset == this.getDataStart(page)) {
+      this.setDataStart(page, offset + this.getLength(page, slot));
+    }
+    this.setEntry(page, slot, 0, 0);
+
+    int directorySize = this.getDirectorySize(page);
+    while (directorySize > 0 && this.getOffset(page, directorySize - 1) == 0) {
+      directorySize--;
+    }
+    page.putShort(0, (short) directorySize);
+  }
+
+  void update(Page page, int slot, Record record) throws DatabaseException {
+    byte[] bytes = this.schema.encodeVariable(record);
+    int oldOffset = this.getOffset(page, slot);
+    int oldLength = this.getLength(page, slot);
+
+    if (bytes.length <= oldLength) {
+      page.writeBytes(oldOffset, bytes.length, bytes);
+      this.setEntry(page, slot, oldOffset, bytes.length);
+      return;
+    }
+
+    // free the old copy first so that compacting the page can reuse its space
+    this.setEntry(page, slot, 0, 0);
+    int offset = this.allocate(page, this.getDirectorySize(page), bytes.length);
+    if (offset < 0) {
+      this.setEntry(page, slot, oldOffset, oldLength);
+      throw new DatabaseException("Updated record no longer fits on page " + page.getPageNum() + ".");
+    }
+    page.writeBytes(offset, bytes.length, bytes);
+    this.setEntry(page, slot, offset, bytes.length);
+  }
+
+  /**
+   * Reserves length bytes of record space, compacting the page if the contiguous free space is too
+   * small. On success dataStart is moved down to the returned offset.
+   *
+   * @param page the page to allocate in
+   * @param directorySize the number of directory entries the page will have
+   * @param length the number of bytes to reserve
+   * @return the offset of the reserved bytes, or -1 if the page does not have length free bytes
+   */
+  private int allocate(Page page, int directorySize, int length) {
+    int directoryEnd = HEADER_SIZE + SLOT_SIZE * directorySize;
+    if (this.getDataStart(page) - directoryEnd < length) {
+      if (this.getFreeSpace(page, directorySize) < length) {
+        return -1;
+      }
+      this.compact(page);
+    }
+
+    int offset = this.getDataStart(page) - length;
+    this.setDataStart(page, offset);
+    return offset;
+  }
+
+  /**
+   * Moves every record to the end of the page, so that all free space is between the directory
+   * and dataStart.
+   *
+   * @param page the page to compact
+   */
+  private void compact(Page page) {
+    int directorySize = this.getDirectorySize(page);
+    byte[][] records = new byte[directorySize][];
+    for (int slot = 0; slot < directorySize; slot++) {
+      if (this.getOffset(page, slot) != 0) {
+        records[slot] = page.readBytes(this.getOffset(page, slot), this.getLength(page, slot));
+      }
+    }
+
+    int dataStart = this.pageSize;
+    for (int slot = 0; slot < directorySize; slot++) {
+      if (records[slot] != null) {
+        dataStart -= records[slot].length;
+        page.writeBytes(dataStart, records[slot].length, records[slot]);
+        this.setEntry(page, slot, dataStart, records[slot].length);
+      }
+    }
+    this.setDataStart(page, dataStart);
+  }
+
+  /**
+   * @param page the page to search
+   * @return the first free directory entry, a new one past the end of the directory, or -1 if the
+   *         directory is full
+   */
+  private int findSlot(Page page) {
+    int directorySize = this.getDirectorySize(page);
+    for (int slot = 0; slot < directorySize; slot++) {
+      if (this.getOffset(page, slot) == 0) {
+        return slot;
+      }
+    }
+    return directorySize < this.numSlots ? directorySize : -1;
+  }
+
+  /**
+   * @param page the page to check
+   * @param directorySize the number of directory entries the page will have
+   * @return the number of bytes not used by the header, the directory or records, including the
+   *         space of deleted records that compaction would reclaim
+   */
+  private int getFreeSpace(Page page, int directorySize) {
+    int used = HEADER_SIZE + SLOT_SIZE * directorySize;
+    int currentSize = this.getDirectorySize(page);
+    for (int slot = 0; slot < currentSize; slot++) {
+      if (this.getOffset(page, slot) != 0) {
+        used += this.getLength(page, slot);
+      }
+    }
+    return this.pageSize - used;
+  }
+
+  private int getDirectorySize(Page page) {
+    return page.getShort(0);
+  }
+
+  private int getDataStart(Page page) {
+    int dataStart = page.getShort(2);
+    return dataStart == 0 ? this.pageSize : dataStart;
+  }
+
+  private void setDataStart(Page page, int dataStart) {
+    page.putShort(2, (short) dataStart);
+  }
+
+  private int getOffset(Page page, int slot) {
+    return page.getShort(HEADER_SIZE + SLOT_SIZE * slot);
+  }
+
+  private int getLength(Page page, int slot) {
+    return page.getShort(HEADER_SIZE + SLOT_SIZE * slot + 2);
+  }
+
+  private void setEntry(Page page, int slot, int offset, int length) {
+    page.putShort(HEADER_SIZE + SLOT_SIZE * slot, (short) offset);
+    page.putShort(HEADER_SIZE + SLOT_SIZE * slot + 2, (short) length);
+  }
+}
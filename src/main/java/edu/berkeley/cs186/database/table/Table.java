@@ -3,17 +3,31 @@ package edu.berkeley.cs186.database.table;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.databox.*;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
 import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.io.Page;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
 import java.util.List;
-import java.util.TreeSet;
+import java.util.Map;
+import java.util.zip.CRC32;
 
 import java.util.NoSuchElementException;
 import java.util.Iterator;
@@ -25,32 +39,66 @@ import java.io.Closeable;
  * in the page allocator is a header page that serializes the schema, and each
  * subsequent page is a data page containing the table records.
  *
+ * How records are arranged within a data page is the table's Layout, chosen when the table is
+ * created and stored in the header page after the schema. FIXED pages hold fixed-width records
+ * behind a slot bitmap; SLOTTED pages hold variable-length records behind a slot directory, which
+ * packs many more rows per page for tables with wide, mostly short, string columns. Either way a
+ * RecordID is a page number and a slot number, and stays valid until the record is deleted.
+ * A table created with checksums keeps its pages' checksum trailers out of its layout.
+ *
+ * When a table is closed, its record count, free space map and stats are written to a metadata file
+ * next to the table's file, so that reopening the table does not have to decode every record. The
+ * metadata file is deleted as soon as it has been read, so it only exists while the table is
+ * closed cleanly; if it is missing, fails its checksum, or does not match the table's page count,
+ * the table is rescanned instead.
+ *
  * Properties:
  * `schema`: the Schema (column names and column types) for this table
- * `freePages`: a set of page numbers that correspond to allocated pages with free space
+ * `freeSpace`: the number of free slots of each data page
  * `stats`: the TableStats for this table
  * `allocator`: the PageAllocator for this table
  * `tableName`: name of this table
- * `numEntriesPerPage`: number of records a data page of this table can hold
- * `pageHeaderSize`: physical size (in bytes) of a page header slot bitmap
+ * `layout`: the kind of data pages of this table
+ * `pageLayout`: reads and writes records within this table's data pages
  * `numRecords`: number of records currently contained in this table
+ * `metadataPath`: the path of this table's metadata file
+ * `open`: whether this table has not been closed yet
  */
 public class Table implements Iterable<Record>, Closeable {
   public static final String FILENAME_PREFIX = "db";
   public static final String FILENAME_EXTENSION = ".table";
+  public static final String METADATA_EXTENSION = ".meta";
+
+  private static final int METADATA_MAGIC = 0x54424C4D;
+  private static final int METADATA_VERSION = 2;
+
+  /**
+   * The ways a table can arrange records within its data pages.
+   */
+  public enum Layout {
+    /** fixed-width records, with strings padded to their column's size, behind a slot bitmap */
+    FIXED,
+    /** variable-length records behind a slot directory; see Schema#encodeVariable */
+    SLOTTED,
+    /** the slots of FIXED, but with each column's values stored together in a minipage */
+    PAX
+  }
 
   private Schema schema;
-  private TreeSet<Integer> freePages;
+  private FreeSpaceMap freeSpace;
 
   private TableStats stats;
 
   private PageAllocator allocator;
   private String tableName;
 
-  private int numEntriesPerPage;
-  private int pageHeaderSize;
+  private Layout layout;
+  private PageLayout pageLayout;
   private long numRecords;
 
+  private Path metadataPath;
+  private boolean open;
+
   public Table(String tableName) {
     this(tableName, FILENAME_PREFIX);
   }
@@ -59,51 +107,24 @@ public class Table implements Iterable<Record>, Closeable {
     this.tableName = tableName;
 
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
-    this.allocator = new PageAllocator(pathname, false);
+    this.allocator = new PageAllocator(pathname, false, true, BufferPool.getDefault(), 0,
+                                       PageAllocator.hasChecksums(pathname));
+    this.metadataPath = Paths.get(pathname + METADATA_EXTENSION);
+    this.open = true;
     this.readHeaderPage();
 
-    this.stats = new TableStats(this.schema);
-
-    this.freePages = new TreeSet<Integer>();
-    this.setEntryCounts();
-    Iterator<Page> pIter = this.allocator.iterator();
-    pIter.next();
-
-    long freshCountRecords = 0;
-
-    while(pIter.hasNext()) {
-      Page p = pIter.next();
-
-      // add all records in this page to TableStats
-      int entryNum = 0;
-      byte[] header = this.readPageHeader(p);
-      while (entryNum < this.getNumEntriesPerPage()) {
-        byte b = header[entryNum/8];
-        int bitOffset = 7 - (entryNum % 8);
-        byte mask = (byte) (1 << bitOffset);
-
-        byte value = (byte) (b & mask);
-        if (value != 0) {
-          int entrySize = this.schema.getEntrySize();
-
-          int offset = this.pageHeaderSize + (entrySize * entryNum);
-          byte[] bytes = p.readBytes(offset, entrySize);
-
-          Record record = this.schema.decode(bytes);
-          this.stats.addRecord(record);
-        }
-
-        entryNum++;
-      }
-
-      if (spaceOnPage(p)) {
-        this.freePages.add(p.getPageNum());
-      }
+    this.pageLayout = PageLayout.create(this.layout, this.schema, this.allocator.hasChecksums());
+    this.freeSpace = new FreeSpaceMap(this.pageLayout.getNumSlots());
 
-      freshCountRecords += numValidEntries(p);
+    boolean loaded = this.readMetadata();
+    try {
+      Files.deleteIfExists(this.metadataPath);
+    } catch (IOException e) {
+      throw new PageException("Could not delete metadata of Table " + tableName + ": " + e.getMessage());
+    }
+    if (!loaded) {
+      this.rebuildMetadata();
     }
-
-    this.numRecords = freshCountRecords;
   }
 
   public Table(Schema schema, String tableName) {
@@ -118,37 +139,133 @@ public class Table implements Iterable<Record>, Closeable {
    * @param filenamePrefix the prefix select the table's files will be created
    */
   public Table(Schema schema, String tableName, String filenamePrefix) {
+    this(schema, tableName, filenamePrefix, Layout.FIXED);
+  }
+
+  /**
+   * This constructor is used for creating a table with a given page layout in some specified
+   * directory.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix select the table's files will be created
+   * @param layout the arrangement of records in this table's data pages
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, Layout layout) {
+    this(schema, tableName, filenamePrefix, layout, false);
+  }
+
+  /**
+   * This constructor is used for creating a table whose data pages are checksummed (see
+   * PageAllocator), so that a corrupt or torn page is reported instead of being read. Reopening
+   * the table keeps its choice.
+   *
+   * @param schema the schema for this table
+   * @param tableName the name of the table
+   * @param filenamePrefix the prefix select the table's files will be created
+   * @param layout the arrangement of records in this table's data pages
+   * @param checksums whether to checksum this table's pages
+   */
+  public Table(Schema schema, String tableName, String filenamePrefix, Layout layout, boolean checksums) {
     this.schema = schema;
+    this.layout = layout;
     this.tableName = tableName;
     this.stats = new TableStats(this.schema);
 
-    this.freePages = new TreeSet<Integer>();
     String pathname = Paths.get(filenamePrefix, tableName + FILENAME_EXTENSION).toString();
-    this.allocator = new PageAllocator(pathname, true);
+    this.allocator = new PageAllocator(pathname, true, true, BufferPool.getDefault(), 0, checksums);
+    this.metadataPath = Paths.get(pathname + METADATA_EXTENSION);
+    this.open = true;
+    try {
+      Files.deleteIfExists(this.metadataPath);
+    } catch (IOException e) {
+      throw new PageException("Could not delete metadata of Table " + tableName + ": " + e.getMessage());
+    }
 
-    this.setEntryCounts();
+    this.pageLayout = PageLayout.create(this.layout, this.schema, this.allocator.hasChecksums());
+    this.freeSpace = new FreeSpaceMap(this.pageLayout.getNumSlots());
 
     this.writeHeaderPage();
   }
 
+  /**
+   * Closes this table's file and writes its metadata file. If the metadata can't be written the
+   * table is still closed, and will be rescanned the next time it is opened.
+   */
   public void close() {
-    allocator.close();
+    if (!this.open) {
+      return;
+    }
+    this.open = false;
+    this.allocator.close();
+    this.writeMetadata();
+  }
+
+  /**
+   * Sets how long this table's page allocation metadata may go unforced.
+   *
+   * @param durabilityWindow the maximum delay in milliseconds, or 0 to force synchronously
+   * @see PageAllocator#setDurabilityWindow(long)
+   */
+  public void setDurabilityWindow(long durabilityWindow) {
+    this.allocator.setDurabilityWindow(durabilityWindow);
+  }
+
+  /**
+   * Forces any deferred page allocation metadata of this table to disk.
+   */
+  public void sync() {
+    this.allocator.sync();
+  }
+
+  /**
+   * @return the I/O counters of this table's file
+   */
+  public IOStats getIOStats() {
+    return this.allocator.getIOStats();
   }
 
   public Iterator<Record> iterator() {
-      return new TableIterator();
+      return new TableIterator(PageAllocator.DEFAULT_READ_AHEAD_WINDOW, false);
+  }
+
+  /**
+   * @param readAheadWindow the number of pages to prefetch ahead of the scan, or 0 for none
+   * @return an iterator over the records of this table
+   */
+  public Iterator<Record> iterator(int readAheadWindow) {
+      return new TableIterator(readAheadWindow, false);
+  }
+
+  /**
+   * Iterates over the records of this table as RecordViews, which decode columns from the pages
+   * only when they are used. The records must not be updated or deleted while their views are in
+   * use.
+   *
+   * @return an iterator over RecordViews of the records of this table
+   */
+  public Iterator<Record> viewIterator() {
+      return new TableIterator(PageAllocator.DEFAULT_READ_AHEAD_WINDOW, true);
   }
 
   public Iterator<Page> pageIterator() {
     return this.allocator.iterator();
   }
 
+  /**
+   * @param readAheadWindow the number of pages to prefetch ahead of the scan, or 0 for none
+   * @return an iterator over the pages of this table
+   */
+  public Iterator<Page> pageIterator(int readAheadWindow) {
+    return this.allocator.iterator(readAheadWindow);
+  }
+
   /**
    * Adds a new record to this table. The record should be added to the first
    * free slot of the first free page if one exists, otherwise a new page should
    * be allocated and the record should be placed in the first slot of that
    * page. Recall that a free slot in the slot bitmap means the bit is set to 0.
-   * Make sure to update this.stats, this.freePages, and this.numRecords as
+   * Make sure to update this.stats, this.freeSpace, and this.numRecords as
    * necessary.
    *
    * @param values the values of the record being added
@@ -164,60 +281,143 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException(se.getMessage());
     }
 
-    boolean found = false;
     Page page = null;
-    int entryNum = 0;
+    int entryNum = -1;
+
+    while (entryNum < 0) {
+      int pageNum = this.freeSpace.getPageWithSpace();
+      boolean newPage = pageNum < 0;
+      if (newPage) {
+        pageNum = this.allocator.allocPage();
+        this.freeSpace.setFreeSlots(pageNum, this.pageLayout.getNumSlots());
+      }
+      page = this.allocator.fetchPage(pageNum);
+      entryNum = this.pageLayout.insert(page, record);
 
-    while (!found) {
-      if (!this.freePages.isEmpty()) {
-        page = this.allocator.fetchPage(this.freePages.first());
+      if (entryNum < 0) {
+        if (newPage) {
+          throw new DatabaseException("Record does not fit in an empty page of Table " + this.tableName + ".");
+        }
+        this.freeSpace.setFreeSlots(pageNum, 0);
       } else {
-        int pageNum = this.allocator.allocPage();
-        page = this.allocator.fetchPage(pageNum);
-        this.freePages.add(page.getPageNum());
+        this.freeSpace.setFreeSlots(pageNum, this.freeSpace.getFreeSlots(pageNum) - 1);
       }
-      entryNum = 0;
-      byte[] header = this.readPageHeader(page);
-
-      for (byte b : header) {
-        if (b != (byte) 0xFF) {
-          for (int j = 7; j >= 0; j--) {
-            byte mask = (byte) (1 << j);
-            if ((b & mask) == (byte) 0) {
-              found = true;
-              break;
-            }
-            entryNum++;
-          }
-        } else {
-          entryNum += 8;
-        }
+    }
 
-        if (found) {
+    this.numRecords++;
+    this.stats.addRecord(record);
+
+    return new RecordID(page.getPageNum(), entryNum);
+  }
+
+  /**
+   * Adds every record produced by rows to this table. Unlike calling addRecord once per row, each
+   * page is pinned and filled once (FIXED pages in memory, with their slot bitmap updated once),
+   * and the table's stats are updated once per page. Pages with free space are filled first, in
+   * the order the free space map hands them out, and then new pages are allocated.
+   *
+   * If a row does not conform to the schema, the rows before it are kept and a
+   * DatabaseException is thrown. The returned list holds a RecordID per row added, so loads of
+   * very many rows should be split into batches (see Database.Transaction#bulkLoad).
+   *
+   * @param rows the values of the records being added
+   * @return the RecordIDs of the added records, in the order of rows
+   * @throws DatabaseException if some row does not correspond to the schema of this table
+   */
+  public List<RecordID> addRecords(Iterator<List<DataBox>> rows) throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    List<Record> batch = new ArrayList<Record>();
+    int batchSize = this.pageLayout.getNumSlots();
+
+    while (rows.hasNext()) {
+      // verify a page's worth of rows at a time, keeping the rows before a bad one
+      batch.clear();
+      DatabaseException badRow = null;
+      while (rows.hasNext() && batch.size() < batchSize) {
+        try {
+          batch.add(this.schema.verify(rows.next()));
+        } catch (SchemaException se) {
+          badRow = new DatabaseException(se.getMessage());
           break;
         }
       }
 
-      if (!found) {
-        this.freePages.pollFirst();
+      int added = 0;
+      while (added < batch.size()) {
+        added += this.fillPage(batch, added, rids);
+      }
+      if (badRow != null) {
+        throw badRow;
       }
     }
 
-    this.writeBitToHeader(page, entryNum, (byte) 1);
+    return rids;
+  }
 
-    int offset = this.pageHeaderSize + (entryNum * this.schema.getEntrySize());
-    byte[] bytes = this.schema.encode(record);
+  /**
+   * Adds records to this table like addRecords(Iterator), for callers that have already checked
+   * each record against this table's schema with Schema#verify, so it is not verified again.
+   *
+   * @param records the verified records being added
+   * @return the RecordIDs of the added records, in the order of records
+   * @throws DatabaseException if some record does not fit in an empty page
+   */
+  public List<RecordID> addRecords(List<Record> records) throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>(records.size());
+    int added = 0;
+    while (added < records.size()) {
+      added += this.fillPage(records, added, rids);
+    }
+    return rids;
+  }
 
-    page.writeBytes(offset, bytes.length, bytes);
-    this.numRecords++;
-    this.stats.addRecord(record);
+  /**
+   * Inserts records.get(start), ... into the first page with free space, or a new page if there
+   * is none, until the page is full.
+   *
+   * @param records the verified records to insert
+   * @param start the index of the first record to insert
+   * @param rids receives the RecordIDs of the inserted records
+   * @return the number of records inserted
+   * @throws DatabaseException if records.get(start) does not fit in an empty page
+   */
+  private int fillPage(List<Record> records, int start, List<RecordID> rids) throws DatabaseException {
+    int pageNum = this.freeSpace.getPageWithSpace();
+    boolean newPage = pageNum < 0;
+    if (newPage) {
+      pageNum = this.allocator.allocPage();
+      this.freeSpace.setFreeSlots(pageNum, this.pageLayout.getNumSlots());
+    }
 
-    return new RecordID(page.getPageNum(), entryNum);
+    Page page = this.allocator.pinPage(pageNum);
+    List<Integer> slots = new ArrayList<Integer>();
+    int added = 0;
+    try {
+      added = this.pageLayout.fill(page, records, start, slots);
+      for (int slot : slots) {
+        rids.add(new RecordID(pageNum, slot));
+      }
+      if (added > 0) {
+        this.numRecords += added;
+        this.stats.addRecords(records.subList(start, start + added));
+      }
+    } finally {
+      if (added == 0 || !this.pageLayout.hasSpace(page)) {
+        this.freeSpace.setFreeSlots(pageNum, 0);
+      } else {
+        this.freeSpace.setFreeSlots(pageNum, this.freeSpace.getFreeSlots(pageNum) - added);
+      }
+      this.allocator.unpinPage(page, added > 0);
+    }
+    if (added == 0 && newPage) {
+      throw new DatabaseException("Record does not fit in an empty page of Table " + this.tableName + ".");
+    }
+    return added;
   }
 
   /**
    * Deletes the record specified by rid from the table. Make sure to update
-   * this.stats, this.freePages, and this.numRecords as necessary.
+   * this.stats, this.freeSpace, and this.numRecords as necessary.
    *
    * @param rid the RecordID of the record to delete
    * @return the Record referenced by rid that was removed
@@ -229,14 +429,10 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     Page page = this.allocator.fetchPage(rid.getPageNum());
-    int entrySize = this.schema.getEntrySize();
-    int entryNum = rid.getEntryNumber();
-
-    int offset = this.pageHeaderSize + (entrySize * entryNum);
-    Record oldRecord = this.schema.decode(page.readBytes(offset, entrySize));
+    Record oldRecord = this.pageLayout.read(page, rid.getEntryNumber());
 
-    this.writeBitToHeader(page, entryNum, (byte) 0);
-    this.freePages.add(page.getPageNum());
+    this.pageLayout.delete(page, rid.getEntryNumber());
+    this.freeSpace.setFreeSlots(page.getPageNum(), this.freeSpace.getFreeSlots(page.getPageNum()) + 1);
     this.numRecords--;
 
     this.stats.removeRecord(oldRecord);
@@ -257,12 +453,19 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     Page page = this.allocator.fetchPage(rid.getPageNum());
-    int entrySize = this.schema.getEntrySize();
-
-    int offset = this.pageHeaderSize + (entrySize * rid.getEntryNumber());
-    byte[] bytes = page.readBytes(offset, entrySize);
+    return this.pageLayout.read(page, rid.getEntryNumber());
+  }
 
-    return this.schema.decode(bytes);
+  /**
+   * Reads the record in a used slot of one of this table's data pages, for callers that scan the
+   * pages of pageIterator themselves; readPageHeader tells which slots are used.
+   *
+   * @param page a data page of this table
+   * @param entryNum a used slot of page
+   * @return the record in that slot
+   */
+  public Record readRecord(Page page, int entryNum) {
+    return this.pageLayout.read(page, entryNum);
   }
 
   /**
@@ -272,8 +475,9 @@ public class Table implements Iterable<Record>, Closeable {
    * @param values the new values of the record
    * @param rid the RecordID of the record to update
    * @return the old version of the record
-   * @throws DatabaseException if rid does not correspond to a valid record or
-   *         if the values do not correspond to the schema of this table
+   * @throws DatabaseException if rid does not correspond to a valid record,
+   *         if the values do not correspond to the schema of this table, or if
+   *         a SLOTTED record grows too large for the free space of its page
    */
   public Record updateRecord(List<DataBox> values, RecordID rid) throws DatabaseException {
     if (!this.checkRecordIDValidity(rid)) {
@@ -288,14 +492,9 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     Page page = this.allocator.fetchPage(rid.getPageNum());
-    int entrySize = this.schema.getEntrySize();
+    Record oldRecord = this.pageLayout.read(page, rid.getEntryNumber());
 
-    int offset = this.pageHeaderSize + (entrySize * rid.getEntryNumber());
-
-    Record oldRecord = this.schema.decode(page.readBytes(offset, entrySize));
-
-    byte[] bytes = this.schema.encode(record);
-    page.writeBytes(offset, bytes.length, bytes);
+    this.pageLayout.update(page, rid.getEntryNumber(), record);
 
     this.stats.removeRecord(oldRecord);
     this.stats.addRecord(record);
@@ -304,7 +503,7 @@ public class Table implements Iterable<Record>, Closeable {
   }
 
   public int getNumEntriesPerPage() {
-    return this.numEntriesPerPage;
+    return this.pageLayout.getNumSlots();
   }
 
   public int getNumDataPages() {
@@ -319,8 +518,108 @@ public class Table implements Iterable<Record>, Closeable {
     return this.schema;
   }
 
+  public Layout getLayout() {
+    return this.layout;
+  }
+
   public TableStats getStats() { return this.stats; }
 
+  /**
+   * @return the fraction of the slots of this table's data pages that hold records, or 1 if the
+   *         table has no data pages
+   */
+  public double getFillFactor() {
+    if (this.getNumDataPages() == 0) {
+      return 1;
+    }
+    return (double) this.numRecords / ((long) this.getNumDataPages() * this.getNumEntriesPerPage());
+  }
+
+  /**
+   * @param minFillFactor the fill factor below which the table is considered sparse
+   * @return true if the fill factor is below minFillFactor and compact could free at least one
+   *         data page
+   */
+  public boolean isSparse(double minFillFactor) {
+    long pagesNeeded = (this.numRecords + this.getNumEntriesPerPage() - 1) / this.getNumEntriesPerPage();
+    return this.getFillFactor() < minFillFactor && pagesNeeded < this.getNumDataPages();
+  }
+
+  /**
+   * Moves records out of the emptiest data pages into the fullest data pages that still have room,
+   * and frees every data page that is left empty, so that scans fetch fewer pages. Records keep
+   * their values but not their RecordIDs, so the caller must update anything that refers to moved
+   * records, such as indices, from the returned map. No iterator of this table may be in use while
+   * it is compacted.
+   *
+   * Pages are drained in order of increasing occupancy, into pages in order of decreasing
+   * occupancy, until the two meet, so at most one page is left partially drained.
+   *
+   * @return the new RecordID of every moved record, keyed by its old RecordID
+   */
+  public Map<RecordID, RecordID> compact() {
+    // order the data pages by the number of records they hold
+    List<int[]> pages = new ArrayList<int[]>();
+    Iterator<Page> pIter = this.allocator.iterator();
+    pIter.next();
+    while (pIter.hasNext()) {
+      Page p = pIter.next();
+      pages.add(new int[] {p.getPageNum(), this.readSlotBitmap(p).count()});
+    }
+    Collections.sort(pages, new Comparator<int[]>() {
+      public int compare(int[] a, int[] b) {
+        return a[1] != b[1] ? Integer.compare(a[1], b[1]) : Integer.compare(a[0], b[0]);
+      }
+    });
+
+    Map<RecordID, RecordID> moved = new HashMap<RecordID, RecordID>();
+    int source = 0;
+    int target = pages.size() - 1;
+    while (source < target) {
+      Page sourcePage = this.allocator.pinPage(pages.get(source)[0]);
+      try {
+        SlotBitmap bitmap = this.readSlotBitmap(sourcePage);
+        int slot = bitmap.nextSet(0);
+        while (slot < this.pageLayout.getNumSlots() && source < target) {
+          Record record = this.pageLayout.read(sourcePage, slot);
+          Page targetPage = this.allocator.pinPage(pages.get(target)[0]);
+          int targetSlot;
+          try {
+            targetSlot = this.pageLayout.insert(targetPage, record);
+          } finally {
+            this.allocator.unpinPage(targetPage, true);
+          }
+
+          if (targetSlot < 0) {
+            this.updateFreeSpace(targetPage, pages.get(target)[1]);
+            target--;
+            continue;
+          }
+          pages.get(target)[1]++;
+          this.pageLayout.delete(sourcePage, slot);
+          pages.get(source)[1]--;
+          moved.put(new RecordID(sourcePage.getPageNum(), slot), new RecordID(targetPage.getPageNum(), targetSlot));
+          slot = bitmap.nextSet(slot + 1);
+        }
+      } finally {
+        this.allocator.unpinPage(sourcePage, true);
+      }
+
+      if (pages.get(source)[1] > 0) {
+        break;
+      }
+      this.freeSpace.removePage(sourcePage.getPageNum());
+      this.allocator.freePage(sourcePage.getPageNum());
+      source++;
+    }
+
+    // the pages that were not freed may have changed
+    for (int i = source; i < pages.size(); i++) {
+      this.updateFreeSpace(this.allocator.fetchPage(pages.get(i)[0]), pages.get(i)[1]);
+    }
+    return moved;
+  }
+
   /**
    * Checks whether a RecordID is valid or not. That is, check to see if the slot
    * in the page specified by the RecordID contains a valid record (i.e. whether
@@ -342,78 +641,18 @@ public class Table implements Iterable<Record>, Closeable {
       throw new DatabaseException("Page " + rid.getPageNum() + " is not valid in Table " + this.tableName + ".");
     }
 
-    byte[] header = this.readPageHeader(page);
     int entryNum = rid.getEntryNumber();
 
     if (entryNum >= this.getNumEntriesPerPage()) {
       throw new DatabaseException("Entry Number is out of bounds of Page. Number of Entries per Page: " + this.getNumEntriesPerPage() + " Requested: " + entryNum);
     }
 
-    int byteOffset = entryNum / 8;
-    int bitOffset = 7 - (entryNum % 8);
-    byte mask = (byte) (1 << bitOffset);
-
-    byte value = (byte) (header[byteOffset] & mask);
-
-    return value != 0;
-  }
-
-  /**
-   * Based on the Schema known to this table, calculates the number of record
-   * entries a data page can hold and the size (in bytes) of the page header.
-   * The page header only contains the slot bitmap and takes up no other space.
-   * For ease of calculations and to prevent header byte splitting, ensure that
-   * `numEntriesPerPage` is a multiple of 8 (this may waste some space).
-   *
-   * Should set this.pageHeaderSize and this.numEntriesPerPage.
-   */
-  private void setEntryCounts() {
-    this.pageHeaderSize = ((Page.pageSize * 8) / (1 + 8 * this.schema.getEntrySize())) / 8;
-    this.numEntriesPerPage = this.pageHeaderSize * 8;
-  }
-
-  /**
-   * Checks if there is any free space on the given page.
-   *
-   * @param p the page to check
-   * @return true if there exists free space, otherwise false
-   */
-  private boolean spaceOnPage(Page p) {
-    byte[] header = this.readPageHeader(p);
-
-    for (byte b : header) {
-      if (b != (byte) 0xFF) {
-        return true;
-      }
-    }
-
-    return false;
-  }
-
-  /**
-   * Checks how many valid record entries are in the given page.
-   *
-   * @param p the page to check
-   * @return number of record entries in p
-   */
-  private int numValidEntries(Page p) {
-    byte[] header = this.readPageHeader(p);
-    int count = 0;
-
-    for (byte b : header) {
-      for (int mask = 0x01; mask != 0x100; mask <<= 1) {
-        if ((b & (byte) mask) != 0) {
-          count++;
-        }
-      }
-    }
-
-    return count;
+    return this.pageLayout.isUsed(page, entryNum);
   }
 
   /**
-   * Utility method to write the header page of the table. The only information written into
-   * the header page is the table's schema.
+   * Utility method to write the header page of the table. The header page holds the table's
+   * schema followed by the ordinal of its Layout.
    */
   private void writeHeaderPage() {
     int numBytesWritten = 0;
@@ -422,11 +661,11 @@ public class Table implements Iterable<Record>, Closeable {
     assert(0 == headerPage.getPageNum());
 
     List<String> fieldNames = this.schema.getFieldNames();
-    headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(fieldNames.size()).array());
+    headerPage.putInt(numBytesWritten, fieldNames.size());
     numBytesWritten += 4;
 
     for (String fieldName : fieldNames) {
-      headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(fieldName.length()).array());
+      headerPage.putInt(numBytesWritten, fieldName.length());
       numBytesWritten += 4;
     }
 
@@ -436,14 +675,16 @@ public class Table implements Iterable<Record>, Closeable {
     }
 
     for (DataBox field : this.schema.getFieldTypes()) {
-      headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(field.type().ordinal()).array());
+      headerPage.putInt(numBytesWritten, field.type().ordinal());
       numBytesWritten += 4;
 
       if (field.type().equals(DataBox.Types.STRING)) {
-        headerPage.writeBytes(numBytesWritten, 4, ByteBuffer.allocate(4).putInt(field.getSize()).array());
+        headerPage.putInt(numBytesWritten, field.getSize());
         numBytesWritten += 4;
       }
     }
+
+    headerPage.putInt(numBytesWritten, this.layout.ordinal());
   }
 
   /**
@@ -453,12 +694,12 @@ public class Table implements Iterable<Record>, Closeable {
     int numBytesRead = 0;
     Page headerPage = this.allocator.fetchPage(0);
 
-    int numFields = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+    int numFields = headerPage.getInt(numBytesRead);
     numBytesRead += 4;
 
     List<Integer> fieldNameLengths = new ArrayList<Integer>();
     for (int i = 0; i < numFields; i++) {
-      fieldNameLengths.add(ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt());
+      fieldNameLengths.add(headerPage.getInt(numBytesRead));
       numBytesRead += 4;
     }
 
@@ -472,7 +713,7 @@ public class Table implements Iterable<Record>, Closeable {
 
     List<DataBox> fieldTypes = new ArrayList<DataBox>();
     for (int i = 0; i < numFields; i++) {
-      int ordinal = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+      int ordinal = headerPage.getInt(numBytesRead);
       DataBox.Types type = DataBox.Types.values()[ordinal];
       numBytesRead += 4;
 
@@ -481,7 +722,7 @@ public class Table implements Iterable<Record>, Closeable {
           fieldTypes.add(new IntDataBox());
           break;
         case STRING:
-          int len = ByteBuffer.wrap(headerPage.readBytes(numBytesRead, 4)).getInt();
+          int len = headerPage.getInt(numBytesRead);
           numBytesRead += 4;
 
           fieldTypes.add(new StringDataBox(len));
@@ -497,46 +738,149 @@ public class Table implements Iterable<Record>, Closeable {
 
     this.schema = new Schema(fieldNames, fieldTypes);
 
+    // tables written before layouts existed have zeroes here, which is FIXED
+    this.layout = Layout.values()[headerPage.getInt(numBytesRead)];
   }
 
   /**
-   * Utility method to write a particular bit into the header of a particular page.
-   *
-   * @param page the page to modify
-   * @param entryNum the header slot to modify
-   * @param value the value of the bit to write (should either be 0 or 1)
+   * Rebuilds this table's stats, free space map and record count by decoding every record.
    */
-  private void writeBitToHeader(Page page, int entryNum, byte value) {
-    byte[] header = this.readPageHeader(page);
-    int byteOffset = entryNum / 8;
-    int bitOffset = 7 - (entryNum % 8);
+  private void rebuildMetadata() {
+    this.stats = new TableStats(this.schema);
+    this.freeSpace.clear();
 
-    if (value == 0) {
-      byte mask = (byte) ~((1 << bitOffset));
+    Iterator<Page> pIter = this.allocator.iterator();
+    pIter.next();
+
+    long freshCountRecords = 0;
+
+    while(pIter.hasNext()) {
+      Page p = pIter.next();
 
-      header[byteOffset] = (byte) (header[byteOffset] & mask);
-      page.writeBytes(0, this.pageHeaderSize, header);
+      // add all records in this page to TableStats
+      SlotBitmap bitmap = this.readSlotBitmap(p);
+      int numSlots = this.pageLayout.getNumSlots();
+      int entryNum = bitmap.nextSet(0);
+      while (entryNum < numSlots) {
+        this.stats.addRecord(this.pageLayout.read(p, entryNum));
+        entryNum = bitmap.nextSet(entryNum + 1);
+      }
+
+      this.updateFreeSpace(p, bitmap.count());
+      freshCountRecords += bitmap.count();
+    }
+
+    this.numRecords = freshCountRecords;
+  }
+
+  /**
+   * Sets the free space map's count for a page from the page itself.
+   *
+   * @param page a data page
+   * @param numUsed the number of used slots of page
+   */
+  private void updateFreeSpace(Page page, int numUsed) {
+    if (this.pageLayout.hasSpace(page)) {
+      this.freeSpace.setFreeSlots(page.getPageNum(), this.pageLayout.getNumSlots() - numUsed);
     } else {
-      byte mask = (byte) (1 << bitOffset);
+      this.freeSpace.setFreeSlots(page.getPageNum(), 0);
+    }
+  }
 
-      header[byteOffset] = (byte) (header[byteOffset] | mask);
+  /**
+   * Writes this table's record count, free space map and stats to its metadata file, followed by a
+   * CRC32 of everything before it. The file is written under a temporary name and then renamed
+   * so that a crash never leaves a partially written metadata file behind.
+   */
+  private void writeMetadata() {
+    Path tmpPath = Paths.get(this.metadataPath.toString() + ".tmp");
+    try {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream out = new DataOutputStream(bytes);
+      out.writeInt(METADATA_MAGIC);
+      out.writeInt(METADATA_VERSION);
+      out.writeInt(this.allocator.getNumPages());
+      out.writeLong(this.numRecords);
+      this.freeSpace.writeTo(out);
+      this.stats.writeTo(out);
+
+      CRC32 crc = new CRC32();
+      crc.update(bytes.toByteArray());
+      out.writeLong(crc.getValue());
+      out.close();
+
+      Files.write(tmpPath, bytes.toByteArray());
+      Files.move(tmpPath, this.metadataPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      try {
+        Files.deleteIfExists(tmpPath);
+        Files.deleteIfExists(this.metadataPath);
+      } catch (IOException ignored) {
+      }
     }
+  }
 
-    page.writeBytes(0, this.pageHeaderSize, header);
+  /**
+   * Loads this table's record count, free space map and stats from its metadata file.
+   *
+   * @return true if the metadata was loaded, or false if it is missing, corrupt or out of date
+   */
+  private boolean readMetadata() {
+    byte[] bytes;
+    try {
+      if (!Files.exists(this.metadataPath)) {
+        return false;
+      }
+      bytes = Files.readAllBytes(this.metadataPath);
+    } catch (IOException e) {
+      return false;
+    }
+    if (bytes.length < 8) {
+      return false;
+    }
+
+    CRC32 crc = new CRC32();
+    crc.update(bytes, 0, bytes.length - 8);
+    if (ByteBuffer.wrap(bytes).getLong(bytes.length - 8) != crc.getValue()) {
+      return false;
+    }
+
+    try {
+      DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes, 0, bytes.length - 8));
+      if (in.readInt() != METADATA_MAGIC || in.readInt() != METADATA_VERSION
+          || in.readInt() != this.allocator.getNumPages()) {
+        return false;
+      }
+      long numRecords = in.readLong();
+      FreeSpaceMap freeSpace = FreeSpaceMap.readFrom(this.pageLayout.getNumSlots(), in);
+      TableStats stats = TableStats.readFrom(this.schema, in);
+
+      this.numRecords = numRecords;
+      this.freeSpace = freeSpace;
+      this.stats = stats;
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
   }
 
   /**
-   * Read the slot header of a page.
+   * Read the slot bitmap of a page: bit (7 - i % 8) of byte i / 8 is set if slot i holds a record.
+   * For FIXED pages this is the page's header; for other layouts it is built from the page.
    *
    * @param page the page to read from
-   * @return a byte[] with the slot header
+   * @return a byte[] with the slot bitmap
    */
   public byte[] readPageHeader(Page page) {
-    return page.readBytes(0, this.pageHeaderSize);
+    return this.pageLayout.readSlotBits(page);
+  }
+
+  private SlotBitmap readSlotBitmap(Page page) {
+    return new SlotBitmap(this.readPageHeader(page), this.pageLayout.getNumSlots());
   }
 
   public int getPageHeaderSize() {
-    return this.pageHeaderSize;
+    return this.pageLayout.getHeaderSize();
   }
 
   public int getEntrySize()  {
@@ -553,17 +897,19 @@ public class Table implements Iterable<Record>, Closeable {
 
     private Iterator<Page> pageIter;
     private Page currPage = null;
-    private byte[] currHeader;
+    private SlotBitmap currBitmap;
     private int entryNum;
     private long recordCount;
+    private boolean views;
 
-    public TableIterator() {
+    public TableIterator(int readAheadWindow, boolean views) {
       this.entryNum = 0;
-      this.pageIter = Table.this.allocator.iterator();
+      this.views = views;
+      this.pageIter = Table.this.allocator.iterator(readAheadWindow);
       assert(this.pageIter.next().getPageNum() == 0);
       if (this.pageIter.hasNext()) {
         this.currPage = this.pageIter.next();
-        currHeader = Table.this.readPageHeader(this.currPage);
+        this.currBitmap = Table.this.readSlotBitmap(this.currPage);
       }
     }
 
@@ -584,31 +930,23 @@ public class Table implements Iterable<Record>, Closeable {
      */
     public Record next() {
       while (this.hasNext()) {
-        while (this.entryNum < Table.this.getNumEntriesPerPage()) {
-          byte b = currHeader[this.entryNum/8];
-          int bitOffset = 7 - (this.entryNum % 8);
-          byte mask = (byte) (1 << bitOffset);
-
-          byte value = (byte) (b & mask);
-          if (value != 0) {
-            int entrySize = Table.this.schema.getEntrySize();
-
-            int offset = Table.this.pageHeaderSize + (entrySize * entryNum);
-            byte[] bytes = this.currPage.readBytes(offset, entrySize);
-
-            Record toRtn = Table.this.schema.decode(bytes);
-            this.recordCount++;
-            this.entryNum++;
-            return toRtn;
+        this.entryNum = this.currBitmap.nextSet(this.entryNum);
+        if (this.entryNum < Table.this.getNumEntriesPerPage()) {
+          Record toRtn;
+          if (this.views) {
+            toRtn = new RecordView(Table.this.pageLayout, this.currPage, this.entryNum);
+          } else {
+            toRtn = Table.this.pageLayout.read(this.currPage, this.entryNum);
           }
-
+          this.recordCount++;
           this.entryNum++;
+          return toRtn;
         }
 
         if (this.hasNext()) {
           this.entryNum = 0;
           this.currPage = this.pageIter.next();
-          currHeader = Table.this.readPageHeader(this.currPage);
+          this.currBitmap = Table.this.readSlotBitmap(this.currPage);
         }
       }
 
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -170,4 +173,27 @@ public class BoolHistogram implements Histogram<Boolean> {
 
     return numDistinct;
   }
-}
\ No newline at end of file
+
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeBoolean(this.estimate);
+    out.writeInt(this.numDistinct);
+    out.writeInt(this.buckets.get(0).getCount());
+    out.writeInt(this.buckets.get(1).getCount());
+  }
+
+  /**
+   * Reads a BoolHistogram written by writeTo.
+   *
+   * @param in the input to read from
+   * @return the BoolHistogram that was written
+   * @throws IOException if in can't be read
+   */
+  public static BoolHistogram readFrom(DataInput in) throws IOException {
+    BoolHistogram histogram = new BoolHistogram();
+    histogram.estimate = in.readBoolean();
+    histogram.numDistinct = in.readInt();
+    histogram.buckets.get(0).increment(in.readInt());
+    histogram.buckets.get(1).increment(in.readInt());
+    return histogram;
+  }
+}
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -69,4 +72,19 @@ public class FloatHistogram implements Histogram<Float> {
   public int getNumDistinct() {
     return this.histogram.getNumDistinct();
   }
-}
\ No newline at end of file
+
+  public void writeTo(DataOutput out) throws IOException {
+    this.histogram.writeTo(out);
+  }
+
+  /**
+   * Reads a FloatHistogram written by writeTo.
+   *
+   * @param in the input to read from
+   * @return the FloatHistogram that was written
+   * @throws IOException if in can't be read
+   */
+  public static FloatHistogram readFrom(DataInput in) throws IOException {
+    return new FloatHistogram(IntHistogram.readFrom(in));
+  }
+}
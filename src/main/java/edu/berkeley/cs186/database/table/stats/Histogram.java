@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.List;
 
 import edu.berkeley.cs186.database.databox.DataBox;
@@ -47,4 +49,13 @@ public interface Histogram<T> {
 
   Histogram<T> copyWithPredicate(PredicateOperator predicate,
                                  DataBox value);
+
+  /**
+   * Writes the state of this Histogram so that it can be read back by the
+   * implementing class's static readFrom method.
+   *
+   * @param out the output to write to
+   * @throws IOException if out can't be written
+   */
+  void writeTo(DataOutput out) throws IOException;
 }
\ No newline at end of file
@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -317,6 +320,61 @@ public class IntHistogram implements Histogram<Integer>{
     }
   }
 
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeBoolean(this.estimate);
+    out.writeInt(this.rangeMin);
+    out.writeInt(this.rangeMax);
+
+    out.writeInt(this.buckets.size());
+    for (Bucket<Integer> bucket : this.buckets) {
+      out.writeInt(bucket.getStart());
+      out.writeInt(bucket.getEnd());
+      out.writeInt(bucket.getCount());
+    }
+
+    if (this.estimate) {
+      out.writeInt(this.numDistinct);
+    } else {
+      out.writeInt(this.entrySet.size());
+      for (int entry : this.entrySet) {
+        out.writeInt(entry);
+      }
+    }
+  }
+
+  /**
+   * Reads an IntHistogram written by writeTo.
+   *
+   * @param in the input to read from
+   * @return the IntHistogram that was written
+   * @throws IOException if in can't be read
+   */
+  public static IntHistogram readFrom(DataInput in) throws IOException {
+    IntHistogram histogram = new IntHistogram();
+    histogram.estimate = in.readBoolean();
+    histogram.rangeMin = in.readInt();
+    histogram.rangeMax = in.readInt();
+
+    int numBuckets = in.readInt();
+    histogram.buckets = new ArrayList<Bucket<Integer>>(numBuckets);
+    for (int i = 0; i < numBuckets; i++) {
+      Bucket<Integer> bucket = new Bucket<Integer>(in.readInt(), in.readInt());
+      bucket.increment(in.readInt());
+      histogram.buckets.add(bucket);
+    }
+
+    if (histogram.estimate) {
+      histogram.numDistinct = in.readInt();
+      histogram.entrySet = null;
+    } else {
+      int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        histogram.entrySet.add(in.readInt());
+      }
+    }
+    return histogram;
+  }
+
   /**
    * Refactors the buckets backing this IntHistogram to allow
    * the given value to belong in a bucket of this IntHistogram.
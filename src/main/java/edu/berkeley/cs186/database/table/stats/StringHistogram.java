@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
@@ -185,4 +188,54 @@ public class StringHistogram implements Histogram<String> {
       return entrySet.size();
     }
   }
-}
\ No newline at end of file
+
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeBoolean(this.estimate);
+
+    out.writeInt(this.buckets.size());
+    for (Bucket<String> bucket : this.buckets) {
+      out.writeUTF(bucket.getStart());
+      out.writeInt(bucket.getCount());
+    }
+
+    if (this.estimate) {
+      out.writeInt(this.numDistinct);
+    } else {
+      out.writeInt(this.entrySet.size());
+      for (String entry : this.entrySet) {
+        out.writeUTF(entry);
+      }
+    }
+  }
+
+  /**
+   * Reads a StringHistogram written by writeTo.
+   *
+   * @param in the input to read from
+   * @return the StringHistogram that was written
+   * @throws IOException if in can't be read
+   */
+  public static StringHistogram readFrom(DataInput in) throws IOException {
+    StringHistogram histogram = new StringHistogram();
+    histogram.estimate = in.readBoolean();
+
+    int numBuckets = in.readInt();
+    histogram.buckets = new ArrayList<Bucket<String>>(numBuckets);
+    for (int i = 0; i < numBuckets; i++) {
+      Bucket<String> bucket = new Bucket<String>(in.readUTF());
+      bucket.increment(in.readInt());
+      histogram.buckets.add(bucket);
+    }
+
+    if (histogram.estimate) {
+      histogram.numDistinct = in.readInt();
+      histogram.entrySet = null;
+    } else {
+      int numEntries = in.readInt();
+      for (int i = 0; i < numEntries; i++) {
+        histogram.entrySet.add(in.readUTF());
+      }
+    }
+    return histogram;
+  }
+}
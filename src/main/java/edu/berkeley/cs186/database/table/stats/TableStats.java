@@ -1,5 +1,8 @@
 package edu.berkeley.cs186.database.table.stats;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -77,6 +80,59 @@ public class TableStats {
     this.numPages = this.calculateNumPages();
   }
 
+  /**
+   * Reads the TableStats of a table written by writeTo.
+   *
+   * @param tableSchema the schema instance associated with the target table
+   * @param in the input to read from
+   * @return the TableStats that were written
+   * @throws IOException if in can't be read or does not hold stats for tableSchema
+   */
+  public static TableStats readFrom(Schema tableSchema, DataInput in) throws IOException {
+    TableStats stats = new TableStats(tableSchema);
+    stats.numRecords = in.readInt();
+    stats.numPages = stats.calculateNumPages();
+
+    List<DataBox> fieldTypes = tableSchema.getFieldTypes();
+    if (in.readInt() != fieldTypes.size()) {
+      throw new IOException("Stats do not match the table schema.");
+    }
+    for (int i = 0; i < fieldTypes.size(); i++) {
+      switch(fieldTypes.get(i).type()) {
+        case INT:
+          stats.histograms.set(i, IntHistogram.readFrom(in));
+          break;
+        case FLOAT:
+          stats.histograms.set(i, FloatHistogram.readFrom(in));
+          break;
+        case BOOL:
+          stats.histograms.set(i, BoolHistogram.readFrom(in));
+          break;
+        case STRING:
+          stats.histograms.set(i, StringHistogram.readFrom(in));
+          break;
+        default:
+          break;
+      }
+    }
+    return stats;
+  }
+
+  /**
+   * Writes the record count and histograms of these stats so that they can be
+   * read back with readFrom.
+   *
+   * @param out the output to write to
+   * @throws IOException if out can't be written
+   */
+  public void writeTo(DataOutput out) throws IOException {
+    out.writeInt(this.numRecords);
+    out.writeInt(this.histograms.size());
+    for (Histogram<?> histogram : this.histograms) {
+      histogram.writeTo(out);
+    }
+  }
+
   /**
    * Calculates the estimate number of pages the target table
    * contains - assumes that the table is densely packed.
@@ -100,6 +156,24 @@ public class TableStats {
     this.numRecords++;
     this.numPages = this.calculateNumPages();
 
+    this.addValues(record);
+  }
+
+  /**
+   * Adds the stats for a batch of new records, recalculating the page count once.
+   *
+   * @param records the new records
+   */
+  public void addRecords(List<Record> records) {
+    this.numRecords += records.size();
+    this.numPages = this.calculateNumPages();
+
+    for (Record record : records) {
+      this.addValues(record);
+    }
+  }
+
+  private void addValues(Record record) {
     int count = 0;
     for (DataBox value : record.getValues()) {
       switch(value.type()) {
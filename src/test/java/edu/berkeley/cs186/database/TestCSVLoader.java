@@ -0,0 +1,165 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+public class TestCSVLoader {
+  private Database db;
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Before
+  public void beforeEach() throws Exception {
+    File testDir = tempFolder.newFolder("testCSVLoader");
+    this.db = new Database(testDir.getAbsolutePath());
+  }
+
+  @After
+  public void afterEach() {
+    this.db.deleteAllTables();
+    this.db.close();
+  }
+
+  private File writeIntRows(int numRows, int badRow) throws IOException {
+    File csv = tempFolder.newFile("ints.csv");
+    PrintWriter out = new PrintWriter(csv);
+    for (int i = 1; i <= numRows; i++) {
+      if (i == badRow) {
+        out.println(i + ",oops");
+      } else {
+        out.println(i + ", " + (i * 3));
+      }
+    }
+    out.close();
+    return csv;
+  }
+
+  @Test
+  public void testLoadStudents() throws Exception {
+    List<String> names = new ArrayList<String>();
+    names.add("sid");
+    names.add("name");
+    names.add("major");
+    names.add("gpa");
+    List<DataBox> types = new ArrayList<DataBox>();
+    types.add(new IntDataBox());
+    types.add(new StringDataBox(20));
+    types.add(new StringDataBox(20));
+    types.add(new FloatDataBox());
+    Schema schema = new Schema(names, types);
+    db.createTable(schema, "Students");
+
+    Database.Transaction t = db.beginTransaction();
+    CSVLoader loader = new CSVLoader(t, "Students", 3, 2);
+    assertEquals(200, loader.load(Paths.get("students.csv")));
+    assertEquals(200, t.getNumRecords("Students"));
+
+    List<String> lines = Files.readAllLines(Paths.get("students.csv"), Charset.defaultCharset());
+    Iterator<Record> records = t.getRecordIterator("Students");
+    for (int i = 0; i < lines.size(); i++) {
+      String[] splits = lines.get(i).split(",");
+      List<DataBox> values = records.next().getValues();
+      assertEquals(new IntDataBox(Integer.parseInt(splits[0])), values.get(0));
+      assertEquals(new StringDataBox(splits[1].trim(), 20), values.get(1));
+      assertEquals(new FloatDataBox(Float.parseFloat(splits[3])), values.get(3));
+    }
+    assertFalse(records.hasNext());
+    t.end();
+  }
+
+  @Test
+  public void testLoadManyBatchesInOrder() throws Exception {
+    db.createTable(TestUtils.createSchemaWithTwoInts(), "Ints");
+    File csv = writeIntRows(5000, -1);
+
+    Database.Transaction t = db.beginTransaction();
+    CSVLoader loader = new CSVLoader(t, "Ints", 4, 2);
+    ByteArrayOutputStream report = new ByteArrayOutputStream();
+    loader.reportProgress(new PrintStream(report), 0);
+    assertEquals(5000, loader.load(csv.toPath()));
+    assertEquals(5000, loader.getNumRowsLoaded());
+    assertTrue(loader.getRowsPerSecond() > 0);
+    assertTrue(report.toString().contains("rows/sec"));
+
+    Iterator<Record> records = t.getRecordIterator("Ints");
+    for (int i = 1; i <= 5000; i++) {
+      List<DataBox> values = records.next().getValues();
+      assertEquals(new IntDataBox(i), values.get(0));
+      assertEquals(new IntDataBox(i * 3), values.get(1));
+    }
+    assertFalse(records.hasNext());
+    t.end();
+  }
+
+  @Test
+  public void testLoadBadLine() throws Exception {
+    db.createTable(TestUtils.createSchemaWithTwoInts(), "Ints");
+    File csv = writeIntRows(5000, 3000);
+
+    Database.Transaction t = db.beginTransaction();
+    CSVLoader loader = new CSVLoader(t, "Ints", 2, 1);
+    boolean thrown = false;
+    try {
+      loader.load(csv.toPath());
+    } catch (DatabaseException e) {
+      assertTrue(e.getMessage().contains("Line 3000"));
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    // the batches before the bad one are kept
+    assertEquals(2 * CSVLoader.BATCH_SIZE, loader.getNumRowsLoaded());
+    assertEquals(2 * CSVLoader.BATCH_SIZE, t.getNumRecords("Ints"));
+    t.end();
+  }
+
+  @Test
+  public void testParseLine() throws DatabaseException {
+    Record expected = TestUtils.createRecordWithAllTypes();
+    List<DataBox> values = CSVLoader.parseLine("true, 1, abcdefg, 1.2", 1, TestUtils.createSchemaWithAllTypes());
+    assertEquals(expected.getValues(), values);
+
+    boolean thrown = false;
+    try {
+      CSVLoader.parseLine("true, 1, abc", 7, TestUtils.createSchemaWithAllTypes());
+    } catch (DatabaseException e) {
+      assertTrue(e.getMessage().contains("Line 7"));
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    values = CSVLoader.parseLine("FALSE, 1, abcdefg, 1.2", 2, TestUtils.createSchemaWithAllTypes());
+    assertFalse(values.get(0).getBool());
+
+    thrown = false;
+    try {
+      CSVLoader.parseLine("yes, 1, abcdefg, 1.2", 9, TestUtils.createSchemaWithAllTypes());
+    } catch (DatabaseException e) {
+      assertTrue(e.getMessage().contains("Line 9"));
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+}
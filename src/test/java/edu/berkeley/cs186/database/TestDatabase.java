@@ -3,6 +3,13 @@ package edu.berkeley.cs186.database;
 import edu.berkeley.cs186.database.Database;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.io.BufferPool;
+import edu.berkeley.cs186.database.io.IOStats;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
 import edu.berkeley.cs186.database.table.*;
 
 import org.junit.After;
@@ -17,6 +24,8 @@ import org.junit.experimental.categories.Category;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.util.List;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -132,4 +141,388 @@ public class TestDatabase {
     assertEquals(input, rec);
     t1.end();
   }
+
+  @Test
+  public void testIOStatsPerTable() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithAllTypes();
+    Record input = TestUtils.createRecordWithAllTypes();
+    db.createTable(s, "testTable1");
+    db.createTable(s, "testTable2");
+    db.resetIOStats();
+
+    Database.Transaction t1 = db.beginTransaction();
+    IOStats before = t1.getIOStats("testTable1").snapshot();
+    for (int i = 0; i < 10; i++) {
+      t1.addRecord("testTable1", input.getValues());
+    }
+    IOStats delta = t1.getIOStats("testTable1").minus(before);
+    t1.end();
+
+    assertEquals(1, delta.getAllocations());
+    assertTrue(delta.getLogicalReads() >= 10);
+    assertEquals(0, db.getIOStats("testTable2").getLogicalReads());
+    assertEquals(2, db.getIOStats().size());
+    assertSame(db.getIOStats("testTable1"), db.getIOStats().get("testTable1"));
+
+    db.resetIOStats();
+    assertEquals(0, db.getIOStats("testTable1").getLogicalReads());
+    assertEquals(0, db.getIOStats("testTable1").getAllocations());
+  }
+
+  @Test
+  public void testTransactionBulkLoad() throws DatabaseException {
+    Schema s = TestUtils.createSchemaWithTwoInts();
+    List<String> indexColumns = new ArrayList<String>();
+    indexColumns.add("int1");
+    db.createTableWithIndices(s, "testTable1", indexColumns);
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 2000; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox(i));
+      values.add(new IntDataBox(i * 2));
+      rows.add(values);
+    }
+
+    Database.Transaction t1 = db.beginTransaction();
+    assertEquals(2000, t1.bulkLoad("testTable1", rows.iterator()));
+    assertEquals(2000, t1.getNumRecords("testTable1"));
+
+    Iterator<Record> found = t1.lookupKey("testTable1", "int1", new IntDataBox(1234));
+    assertTrue(found.hasNext());
+    assertEquals(new IntDataBox(2468), found.next().getValues().get(1));
+    assertFalse(found.hasNext());
+
+    // the index is no longer empty, so these rows are inserted into it one at a time
+    rows.clear();
+    for (int i = 2000; i < 2100; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox(i));
+      values.add(new IntDataBox(i * 2));
+      rows.add(values);
+    }
+    assertEquals(100, t1.bulkLoad("testTable1", rows.iterator()));
+    found = t1.lookupKey("testTable1", "int1", new IntDataBox(2050));
+    assertEquals(new IntDataBox(4100), found.next().getValues().get(1));
+    assertFalse(found.hasNext());
+    t1.end();
+  }
+
+  private void createIndexedTables(int numTables) throws DatabaseException {
+    List<String> indexColumns = new ArrayList<String>();
+    indexColumns.add("int1");
+    for (int i = 0; i < numTables; i++) {
+      db.createTableWithIndices(TestUtils.createSchemaWithTwoInts(), "testTable" + i, indexColumns);
+      Database.Transaction t = db.beginTransaction();
+      for (int j = 0; j < 50; j++) {
+        List<DataBox> values = new ArrayList<DataBox>();
+        values.add(new IntDataBox(j));
+        values.add(new IntDataBox(i * 100 + j));
+        t.addRecord("testTable" + i, values);
+      }
+      t.end();
+    }
+  }
+
+  private void checkIndexedTables(int numTables) throws DatabaseException {
+    Database.Transaction t = db.beginTransaction();
+    for (int i = 0; i < numTables; i++) {
+      assertEquals(50, t.getNumRecords("testTable" + i));
+      Iterator<Record> found = t.lookupKey("testTable" + i, "int1", new IntDataBox(42));
+      assertEquals(new IntDataBox(i * 100 + 42), found.next().getValues().get(1));
+      assertFalse(found.hasNext());
+    }
+    t.end();
+  }
+
+  @Test
+  public void testDatabaseFailedOpenClosesOpened() throws Exception {
+    createIndexedTables(3);
+    db.close();
+
+    // an invalid key type in one index's header page makes that index fail to open
+    RandomAccessFile raf = new RandomAccessFile(new File(this.filename, "testTable1,int1" + BPlusTree.FILENAME_EXTENSION), "rw");
+    raf.seek(2L * Page.pageSize + 8);
+    raf.writeInt(99);
+    raf.close();
+
+    int resident = BufferPool.getDefault().size();
+    try {
+      db = new Database(this.filename, 5, 0, 1, false);
+      fail("opened a database with a corrupt index");
+    } catch (DatabaseException e) {
+      // expected
+    }
+    assertEquals(resident, BufferPool.getDefault().size());
+    db = new Database(this.filename, 5, 0, 1, true);
+  }
+
+  /**
+   * Makes an index file look like one written before BPlusTree.FORMAT_VERSION was recorded.
+   */
+  private void clearIndexFormatVersion(String indexName) throws IOException {
+    File indexFile = new File(this.filename, indexName + BPlusTree.FILENAME_EXTENSION);
+    RandomAccessFile raf = new RandomAccessFile(indexFile, "rw");
+    raf.seek(2L * Page.pageSize + 12);
+    raf.writeInt(0);
+    raf.close();
+    assertEquals(0, BPlusTree.readFormatVersion(indexName, this.filename));
+  }
+
+  @Test
+  public void testDatabaseRebuildsOldIndex() throws Exception {
+    createIndexedTables(2);
+    db.close();
+
+    clearIndexFormatVersion("testTable1,int1");
+    db = new Database(this.filename, 5, 0, 1, false);
+    assertEquals(BPlusTree.FORMAT_VERSION, BPlusTree.readFormatVersion("testTable1,int1", this.filename));
+    checkIndexedTables(2);
+    db.close();
+
+    // an index opened lazily by a transaction holding the table lock is rebuilt too
+    clearIndexFormatVersion("testTable0,int1");
+    db = new Database(this.filename, 5, 0, 1, true);
+    checkIndexedTables(2);
+    assertEquals(BPlusTree.FORMAT_VERSION, BPlusTree.readFormatVersion("testTable0,int1", this.filename));
+  }
+
+  @Test
+  public void testDatabaseChecksums() throws DatabaseException {
+    db.setChecksums(true);
+    createIndexedTables(2);
+    db.close();
+    assertTrue(PageAllocator.hasChecksums(new File(this.filename, "testTable1" + Table.FILENAME_EXTENSION).getPath()));
+    assertTrue(PageAllocator.hasChecksums(new File(this.filename, "testTable1,int1" + BPlusTree.FILENAME_EXTENSION).getPath()));
+
+    // tables and indices are reopened with their checksums, which a new Database doesn't default to
+    db = new Database(this.filename, 5, 0, 1, false);
+    checkIndexedTables(2);
+    db.createTable(TestUtils.createSchemaWithTwoInts(), "plainTable");
+    db.close();
+    assertFalse(PageAllocator.hasChecksums(new File(this.filename, "plainTable" + Table.FILENAME_EXTENSION).getPath()));
+
+    db = new Database(this.filename, 5, 0, 1, false);
+    checkIndexedTables(2);
+  }
+
+  @Test
+  public void testDatabaseParallelOpen() throws DatabaseException {
+    createIndexedTables(6);
+    db.close();
+
+    db = new Database(this.filename, 5, 0, 3, false);
+    assertEquals(12, db.getIOStats().size());
+    checkIndexedTables(6);
+  }
+
+  @Test
+  public void testDatabaseLazyOpen() throws DatabaseException {
+    createIndexedTables(3);
+    db.close();
+
+    db = new Database(this.filename, 5, 0, 1, true);
+    assertEquals(0, db.getIOStats().size());
+
+    Database.Transaction t = db.beginTransaction();
+    assertEquals(50, t.getNumRecords("testTable1"));
+    t.end();
+    assertEquals(1, db.getIOStats().size());
+    assertNotNull(db.getIOStats().get("testTable1"));
+
+    checkIndexedTables(3);
+    assertEquals(6, db.getIOStats().size());
+
+    // unopened tables can still be deleted and recreated
+    db.close();
+    db = new Database(this.filename, 5, 0, 1, true);
+    assertTrue(db.deleteTable("testTable0"));
+    assertFalse(new File(this.filename, "testTable0" + Table.FILENAME_EXTENSION).exists());
+    db.createTable(TestUtils.createSchemaWithTwoInts(), "testTable0");
+  }
+
+  @Test
+  public void testTransactionCompactsSparseTable() throws DatabaseException {
+    db.createTable(TestUtils.createSchemaWithTwoInts(), "testTable1");
+    db.setCompactionThreshold(0.25);
+
+    Database.Transaction t1 = db.beginTransaction();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 2000; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox(i));
+      values.add(new IntDataBox(i * 2));
+      rids.add(t1.addRecord("testTable1", values));
+    }
+    int numPages = t1.getNumDataPages("testTable1");
+
+    // the table is compacted when t1 ends, so its RecordIDs stay valid until then
+    for (int i = 0; i < rids.size(); i++) {
+      if (i % 10 != 0) {
+        t1.deleteRecord("testTable1", rids.get(i));
+      }
+    }
+    assertEquals(numPages, t1.getNumDataPages("testTable1"));
+    for (int i = 0; i < rids.size(); i += 10) {
+      assertEquals(i * 2, t1.getRecord("testTable1", rids.get(i)).getValues().get(1).getInt());
+    }
+    t1.end();
+
+    Database.Transaction t2 = db.beginTransaction();
+    assertTrue(t2.getNumDataPages("testTable1") < numPages);
+    int count = 0;
+    Iterator<Record> records = t2.getRecordIterator("testTable1");
+    while (records.hasNext()) {
+      Record r = records.next();
+      int key = r.getValues().get(0).getInt();
+      assertEquals(0, key % 10);
+      assertEquals(key * 2, r.getValues().get(1).getInt());
+      count++;
+    }
+    assertEquals(200, count);
+    assertEquals(200, t2.getNumRecords("testTable1"));
+    t2.end();
+  }
+
+  @Test
+  public void testCreateIndexOnPopulatedTable() throws Exception {
+    // two memory pages make the sort spill several runs and merge them in several passes
+    Database small = new Database(tempFolder.newFolder("smallDatabase").getAbsolutePath(), 2);
+    small.createTable(TestUtils.createSchemaWithTwoInts(), "testTable1");
+
+    Database.Transaction t1 = small.beginTransaction();
+    for (int i = 0; i < 5000; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox((i * 7919) % 1000));
+      values.add(new IntDataBox(i));
+      t1.addRecord("testTable1", values);
+    }
+    assertFalse(t1.indexExists("testTable1", "int1"));
+    t1.end();
+
+    small.createIndex("testTable1", "int1");
+
+    Database.Transaction t2 = small.beginTransaction();
+    assertTrue(t2.indexExists("testTable1", "int1"));
+    int count = 0;
+    int previous = -1;
+    Iterator<Record> records = t2.sortedScan("testTable1", "int1");
+    while (records.hasNext()) {
+      Record r = records.next();
+      int key = r.getValues().get(0).getInt();
+      assertTrue(key >= previous);
+      assertEquals(key, (r.getValues().get(1).getInt() * 7919) % 1000);
+      previous = key;
+      count++;
+    }
+    assertEquals(5000, count);
+
+    count = 0;
+    records = t2.lookupKey("testTable1", "int1", new IntDataBox(123));
+    while (records.hasNext()) {
+      assertEquals(123, records.next().getValues().get(0).getInt());
+      count++;
+    }
+    assertEquals(5, count);
+
+    // records added afterwards are indexed too
+    List<DataBox> values = new ArrayList<DataBox>();
+    values.add(new IntDataBox(5000));
+    values.add(new IntDataBox(5000));
+    t2.addRecord("testTable1", values);
+    assertTrue(t2.contains("testTable1", "int1", new IntDataBox(5000)));
+    t2.end();
+
+    try {
+      small.createIndex("testTable1", "int1");
+      fail("created the same index twice");
+    } catch (DatabaseException e) {
+      // expected
+    }
+    try {
+      small.createIndex("testTable1", "int3");
+      fail("created an index on a column that does not exist");
+    } catch (DatabaseException e) {
+      // expected
+    }
+    small.close();
+  }
+
+  @Test
+  public void testBulkLoadSortDeletesRuns() throws Exception {
+    // two memory pages make the sort that builds the empty index spill and merge in several passes
+    String dir = tempFolder.newFolder("smallDatabase").getAbsolutePath();
+    Database small = new Database(dir, 2);
+    List<String> indexColumns = new ArrayList<String>();
+    indexColumns.add("int1");
+    small.createTableWithIndices(TestUtils.createSchemaWithTwoInts(), "testTable1", indexColumns);
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 5000; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox((i * 7919) % 1000));
+      values.add(new IntDataBox(i));
+      rows.add(values);
+    }
+    Database.Transaction t1 = small.beginTransaction();
+    assertEquals(5000, t1.bulkLoad("testTable1", rows.iterator()));
+
+    // every run is deleted once it has been merged, before the transaction ends
+    File[] tempFiles = new File(dir + "temp/").listFiles();
+    assertNotNull(tempFiles);
+    assertEquals(0, tempFiles.length);
+
+    // a deleted temporary table's name can be used again
+    t1.createTempTable(TestUtils.createSchemaWithTwoInts(), "tempTable");
+    t1.deleteTempTable("tempTable");
+    t1.createTempTable(TestUtils.createSchemaWithTwoInts(), "tempTable");
+
+    int count = 0;
+    Iterator<Record> records = t1.lookupKey("testTable1", "int1", new IntDataBox(123));
+    while (records.hasNext()) {
+      assertEquals(123, records.next().getValues().get(0).getInt());
+      count++;
+    }
+    assertEquals(5, count);
+    t1.end();
+    small.close();
+  }
+
+  @Test(timeout = 10000)
+  public void testCreateIndexWaitsForTableLock() throws Exception {
+    db.createTable(TestUtils.createSchemaWithTwoInts(), "testTable1");
+    Database.Transaction t1 = db.beginTransaction();
+    for (int i = 0; i < 100; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox(i));
+      values.add(new IntDataBox(i));
+      t1.addRecord("testTable1", values);
+    }
+
+    final Exception[] error = new Exception[1];
+    Thread creator = new Thread(new Runnable() {
+      public void run() {
+        try {
+          db.createIndex("testTable1", "int1");
+        } catch (Exception e) {
+          error[0] = e;
+        }
+      }
+    });
+    creator.start();
+    Thread.sleep(100);
+
+    // createIndex is waiting for t1's lock, which must not keep other transactions from starting
+    Database.Transaction t2 = db.beginTransaction();
+    t2.end();
+    assertTrue(creator.isAlive());
+    t1.end();
+    creator.join();
+    assertNull(error[0]);
+
+    Database.Transaction t3 = db.beginTransaction();
+    assertTrue(t3.indexExists("testTable1", "int1"));
+    assertTrue(t3.contains("testTable1", "int1", new IntDataBox(42)));
+    t3.end();
+  }
 }
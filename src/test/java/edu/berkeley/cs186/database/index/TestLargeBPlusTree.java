@@ -3,6 +3,8 @@ package edu.berkeley.cs186.database.index;
 import edu.berkeley.cs186.database.table.RecordID;
 import edu.berkeley.cs186.database.databox.*;
 import edu.berkeley.cs186.database.StudentTestP2;
+import edu.berkeley.cs186.database.io.Page;
+import edu.berkeley.cs186.database.io.PageAllocator;
 
 import org.junit.After;
 import org.junit.Before;
@@ -14,7 +16,10 @@ import org.junit.rules.Timeout;
 import org.junit.runners.MethodSorters;
 import org.junit.experimental.categories.Category;
 
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 import static org.junit.Assert.*;
 
 public class TestLargeBPlusTree {
@@ -52,4 +57,279 @@ public class TestLargeBPlusTree {
         }
         assertEquals(1, this.bp.getNumNodes());
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testBPlusTreeUpdateRecordID() {
+        /** Enough duplicates of each key to span several leaves. */
+        for (int i = 0; i < 3000; i++) {
+            bp.insertKey(new IntDataBox(i % 3), new RecordID(i, 0));
+        }
+        assertTrue(this.bp.getNumNodes() > 3);
+
+        for (int i = 0; i < 3000; i += 7) {
+            assertTrue(bp.updateRecordID(new IntDataBox(i % 3), new RecordID(i, 0), new RecordID(i, 1)));
+        }
+        assertFalse(bp.updateRecordID(new IntDataBox(1), new RecordID(0, 0), new RecordID(0, 1)));
+
+        int count = 0;
+        Iterator<RecordID> rids = bp.lookupKey(new IntDataBox(2));
+        while (rids.hasNext()) {
+            RecordID rid = rids.next();
+            assertEquals(2, rid.getPageNum() % 3);
+            assertEquals(rid.getPageNum() % 7 == 0 ? 1 : 0, rid.getEntryNumber());
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testBPlusTreeUnorderedInsertsStaySorted() {
+        /** Insert keys 0..1999, each twice, in a scrambled order. */
+        for (int i = 0; i < 4000; i++) {
+            int key = (i * 7919) % 2000;
+            bp.insertKey(new IntDataBox(key), new RecordID(key, (short) (i / 2000)));
+        }
+        assertTrue(this.bp.getNumNodes() > 3);
+
+        Iterator<RecordID> rids = bp.sortedScan();
+        int count = 0;
+        while (rids.hasNext()) {
+            RecordID rid = rids.next();
+            assertEquals(count / 2, rid.getPageNum());
+            assertEquals(count % 2, rid.getEntryNumber());
+            count++;
+        }
+        assertEquals(4000, count);
+
+        for (int key = 0; key < 2000; key += 37) {
+            assertTrue(bp.containsKey(new IntDataBox(key)));
+            rids = bp.lookupKey(new IntDataBox(key));
+            assertEquals(new RecordID(key, 0), rids.next());
+            assertEquals(new RecordID(key, 1), rids.next());
+            assertFalse(rids.hasNext());
+        }
+        assertFalse(bp.containsKey(new IntDataBox(2000)));
+
+        rids = bp.sortedScanFrom(new IntDataBox(1500));
+        count = 0;
+        while (rids.hasNext()) {
+            assertEquals(1500 + count / 2, rids.next().getPageNum());
+            count++;
+        }
+        assertEquals(1000, count);
+    }
+
+    @Test
+    public void testBPlusTreeStringKeys() throws Exception {
+        String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+        BPlusTree tree = new BPlusTree(new StringDataBox(6), "StringBPlusTreeTest", tempFolderPath);
+        for (int i = 0; i < 1000; i++) {
+            int key = (i * 617) % 1000;
+            tree.insertKey(new StringDataBox("k" + key, 6), new RecordID(key, 0));
+        }
+
+        Iterator<RecordID> rids = tree.lookupKey(new StringDataBox("k123", 6));
+        assertEquals(new RecordID(123, 0), rids.next());
+        assertFalse(rids.hasNext());
+        assertFalse(tree.containsKey(new StringDataBox("k1000", 6)));
+
+        // "k10" < "k100" < "k101" < ... < "k11" in string order
+        rids = tree.sortedScanFrom(new StringDataBox("k99", 6));
+        assertEquals(new RecordID(99, 0), rids.next());
+        assertEquals(new RecordID(990, 0), rids.next());
+    }
+
+    @Test
+    public void testBPlusTreeChecksums() {
+        String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+        // 80 entries of 45 byte keys fill a leaf up to its last byte, over
+        // the checksum trailer; with checksums the leaf splits instead
+        BPlusTree tree = new BPlusTree(new StringDataBox(45), "ChecksumBPlusTreeTest", tempFolderPath, true);
+        for (int i = 0; i < 80; i++) {
+            tree.insertKey(new StringDataBox(String.format("%045d", i), 45), new RecordID(i, 0));
+        }
+        assertEquals(3, tree.getNumNodes());
+        tree.close();
+
+        // reopening verifies every page against its checksum
+        tree = new BPlusTree("ChecksumBPlusTreeTest", tempFolderPath);
+        assertTrue(tree.hasChecksums());
+        Iterator<RecordID> rids = tree.sortedScan();
+        for (int i = 0; i < 80; i++) {
+            assertEquals(new RecordID(i, 0), rids.next());
+        }
+        assertFalse(rids.hasNext());
+        tree.close();
+    }
+
+    @Test
+    public void testBPlusTreeRejectsOldFormat() {
+        String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+        for (int i = 0; i < 10; i++) {
+            bp.insertKey(new IntDataBox(i), new RecordID(i, 0));
+        }
+        bp.close();
+
+        BPlusTree reopened = new BPlusTree(testFile, tempFolderPath);
+        assertTrue(reopened.containsKey(new IntDataBox(7)));
+        reopened.close();
+
+        // files written before FORMAT_VERSION have nothing after the key type
+        String path = Paths.get(tempFolderPath, testFile + BPlusTree.FILENAME_EXTENSION).toString();
+        PageAllocator allocator = new PageAllocator(path, false);
+        Page header = allocator.fetchPage(0);
+        header.writeInt(12, 0);
+        header.flush();
+        allocator.close();
+
+        try {
+            new BPlusTree(testFile, tempFolderPath);
+            fail("opened an index with an old leaf format");
+        } catch (BPlusTreeException e) {
+            assertTrue(e.getMessage().contains("format version 0"));
+        }
+    }
+
+    @Test
+    public void testBPlusTreeBulkLoad() {
+        /** Keys 0..9999, each twice, packed to 90% fill. */
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        for (int i = 0; i < 20000; i++) {
+            entries.add(new LeafEntry(new IntDataBox(i / 2), new RecordID(i / 2, (short) (i % 2))));
+        }
+        bp.bulkLoad(entries.iterator());
+
+        // 400 entries per leaf at 90% is 360, so 20000 entries take 56 leaves
+        // and one inner node
+        assertEquals(57, bp.getNumNodes());
+
+        Iterator<RecordID> rids = bp.sortedScan();
+        int count = 0;
+        while (rids.hasNext()) {
+            RecordID rid = rids.next();
+            assertEquals(count / 2, rid.getPageNum());
+            assertEquals(count % 2, rid.getEntryNumber());
+            count++;
+        }
+        assertEquals(20000, count);
+
+        for (int key = 0; key < 10000; key += 179) {
+            rids = bp.lookupKey(new IntDataBox(key));
+            assertEquals(new RecordID(key, 0), rids.next());
+            assertEquals(new RecordID(key, 1), rids.next());
+            assertFalse(rids.hasNext());
+        }
+
+        // the tree stays usable for inserts
+        for (int i = 0; i < 1000; i++) {
+            bp.insertKey(new IntDataBox(5000), new RecordID(20000 + i, 0));
+        }
+        rids = bp.lookupKey(new IntDataBox(5000));
+        count = 0;
+        while (rids.hasNext()) {
+            rids.next();
+            count++;
+        }
+        assertEquals(1002, count);
+    }
+
+    @Test
+    public void testBPlusTreeBulkLoadSeveralLevels() {
+        /** A low fill factor builds a deeper tree from fewer entries. */
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        for (int i = 0; i < 5000; i++) {
+            entries.add(new LeafEntry(new IntDataBox(i), new RecordID(i, 0)));
+        }
+        bp.bulkLoad(entries.iterator(), 0.01);
+
+        // 4 entries per leaf and 4 per inner node: 1250 leaves under 5 levels
+        assertTrue(bp.getNumNodes() > 1250 + 250 + 50 + 10 + 2);
+        for (int key = 0; key < 5000; key += 97) {
+            Iterator<RecordID> rids = bp.lookupKey(new IntDataBox(key));
+            assertEquals(new RecordID(key, 0), rids.next());
+            assertFalse(rids.hasNext());
+        }
+        Iterator<RecordID> rids = bp.sortedScanFrom(new IntDataBox(4990));
+        for (int key = 4990; key < 5000; key++) {
+            assertEquals(key, rids.next().getPageNum());
+        }
+        assertFalse(rids.hasNext());
+    }
+
+    @Test(expected = BPlusTreeException.class)
+    public void testBPlusTreeBulkLoadUnsorted() {
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        entries.add(new LeafEntry(new IntDataBox(2), new RecordID(2, 0)));
+        entries.add(new LeafEntry(new IntDataBox(1), new RecordID(1, 0)));
+        bp.bulkLoad(entries.iterator());
+    }
+
+    @Test(expected = BPlusTreeException.class)
+    public void testBPlusTreeBulkLoadNonEmpty() {
+        bp.insertKey(new IntDataBox(1), new RecordID(1, 0));
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        bp.bulkLoad(entries.iterator());
+    }
+
+    @Test
+    public void testBPlusTreeRangeScan() {
+        /** Keys 0..2999, each three times, inserted out of order. */
+        for (int i = 0; i < 9000; i++) {
+            int key = (i * 7919) % 3000;
+            bp.insertKey(new IntDataBox(key), new RecordID(key, (short) (i / 3000)));
+        }
+        assertTrue(this.bp.getNumNodes() > 20);
+
+        Iterator<RecordID> rids = bp.rangeScan(new IntDataBox(1000), new IntDataBox(1999));
+        int count = 0;
+        while (rids.hasNext()) {
+            RecordID rid = rids.next();
+            assertEquals(1000 + count / 3, rid.getPageNum());
+            assertEquals(count % 3, rid.getEntryNumber());
+            count++;
+        }
+        assertEquals(3000, count);
+
+        rids = bp.rangeScan(new IntDataBox(-5), new IntDataBox(0));
+        for (int i = 0; i < 3; i++) {
+            assertEquals(new RecordID(0, i), rids.next());
+        }
+        assertFalse(rids.hasNext());
+        assertFalse(bp.rangeScan(new IntDataBox(3000), new IntDataBox(4000)).hasNext());
+        assertFalse(bp.rangeScan(new IntDataBox(20), new IntDataBox(10)).hasNext());
+    }
+
+    @Test
+    public void testBPlusTreeBulkLoadLinksLeaves() {
+        List<LeafEntry> entries = new ArrayList<LeafEntry>();
+        for (int i = 0; i < 5000; i++) {
+            entries.add(new LeafEntry(new IntDataBox(i), new RecordID(i, 0)));
+        }
+        bp.bulkLoad(entries.iterator(), 0.5);
+
+        // inserts after the bulk load split leaves in the middle of the chain
+        for (int i = 0; i < 1000; i++) {
+            bp.insertKey(new IntDataBox(2500), new RecordID(5000 + i, 0));
+        }
+
+        Iterator<RecordID> rids = bp.sortedScan();
+        int count = 0;
+        int previous = -1;
+        while (rids.hasNext()) {
+            RecordID rid = rids.next();
+            int key = rid.getPageNum() >= 5000 ? 2500 : rid.getPageNum();
+            assertTrue(key >= previous);
+            previous = key;
+            count++;
+        }
+        assertEquals(6000, count);
+
+        rids = bp.rangeScan(new IntDataBox(2499), new IntDataBox(2501));
+        count = 0;
+        while (rids.hasNext()) {
+            rids.next();
+            count++;
+        }
+        assertEquals(1003, count);
+    }
+}
@@ -0,0 +1,108 @@
+package edu.berkeley.cs186.database.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * JMH benchmark of the PageAllocator.fetchPage hit path. Every page touched is resident in the
+ * BufferPool, so this measures lookup overhead only. Run it after `mvn test-compile` with
+ *
+ *   java -cp target/test-classes:target/classes:$(mvn -q dependency:build-classpath -Dmdep.outputFile=/dev/stdout) \
+ *     edu.berkeley.cs186.database.io.BufferPoolBenchmark
+ *
+ * which reports throughput at 1, 4 and 16 threads, both for threads sharing one table and for
+ * threads each scanning their own table.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BufferPoolBenchmark {
+  private static final int NUM_PAGES = 128;
+
+  // Large enough that 16 threads with their own tables never evict.
+  private static final BufferPool pool = new BufferPool(4096);
+
+  @State(Scope.Benchmark)
+  public static class SharedTable {
+    File file;
+    PageAllocator allocator;
+
+    @Setup
+    public void setup() throws IOException {
+      this.file = File.createTempFile("BufferPoolBenchmark", ".temp");
+      this.allocator = BufferPoolBenchmark.openAllocator(this.file);
+    }
+
+    @TearDown
+    public void tearDown() {
+      this.allocator.close();
+      this.file.delete();
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class OwnTable {
+    File file;
+    PageAllocator allocator;
+
+    @Setup
+    public void setup() throws IOException {
+      this.file = File.createTempFile("BufferPoolBenchmark", ".temp");
+      this.allocator = BufferPoolBenchmark.openAllocator(this.file);
+    }
+
+    @TearDown
+    public void tearDown() {
+      this.allocator.close();
+      this.file.delete();
+    }
+  }
+
+  private static PageAllocator openAllocator(File file) {
+    PageAllocator allocator = new PageAllocator(file.getAbsolutePath(), true, false, pool);
+    for (int i = 0; i < NUM_PAGES; i++) {
+      allocator.allocPage();
+    }
+    return allocator;
+  }
+
+  @Benchmark
+  public Page fetchSharedTable(SharedTable state) {
+    return state.allocator.fetchPage(ThreadLocalRandom.current().nextInt(NUM_PAGES));
+  }
+
+  @Benchmark
+  public Page fetchOwnTable(OwnTable state) {
+    return state.allocator.fetchPage(ThreadLocalRandom.current().nextInt(NUM_PAGES));
+  }
+
+  public static void main(String[] args) throws RunnerException {
+    for (int threads : new int[] {1, 4, 16}) {
+      Options opts = new OptionsBuilder()
+          .include(BufferPoolBenchmark.class.getSimpleName())
+          .threads(threads)
+          .build();
+      new Runner(opts).run();
+    }
+  }
+}
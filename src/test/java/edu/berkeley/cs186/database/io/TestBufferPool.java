@@ -0,0 +1,322 @@
+package edu.berkeley.cs186.database.io;
+
+import static org.junit.Assert.*;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import java.io.IOException;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+* Tests BufferPool.java and its use by PageAllocator
+*/
+
+public class TestBufferPool {
+  private final String fName = "TestBufferPool.temp";
+
+  @Rule
+  public TemporaryFolder tempFolder = new TemporaryFolder();
+
+  @Test
+  public void TestBufferPoolEviction() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(4);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 8; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertEquals(4, pool.size());
+
+    long misses = pA.getNumMisses();
+    for (int i = 4; i < 8; i++) {
+      pA.fetchPage(i);
+    }
+    assertEquals(misses, pA.getNumMisses());
+
+    pA.fetchPage(0);
+    assertEquals(misses + 1, pA.getNumMisses());
+    assertEquals(5, pA.getNumEvictions());
+    pA.close();
+    assertEquals(0, pool.size());
+  }
+
+  @Test
+  public void TestBufferPoolSecondChance() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(3);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+
+    // page 1 is referenced again, so the clock hand passes over it and takes page 2
+    pA.fetchPage(1);
+    pA.fetchPage(0);
+
+    long misses = pA.getNumMisses();
+    pA.fetchPage(1);
+    assertEquals(misses, pA.getNumMisses());
+    pA.fetchPage(2);
+    assertEquals(misses + 1, pA.getNumMisses());
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolPinnedNotEvicted() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(2);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+
+    Page pinned = pA.pinPage(0);
+    assertTrue(pinned.isPinned());
+    for (int i = 1; i < 4; i++) {
+      pA.fetchPage(i);
+    }
+
+    long hits = pA.getNumHits();
+    assertSame(pinned, pA.fetchPage(0));
+    assertEquals(hits + 1, pA.getNumHits());
+
+    pA.unpinPage(pinned, false);
+    assertFalse(pinned.isPinned());
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolAllPinned() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(2);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    Page p0 = pA.pinPage(1);
+    Page p1 = pA.pinPage(2);
+
+    boolean thrown = false;
+    try {
+      pA.fetchPage(0);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    pA.unpinPage(p0, false);
+    assertEquals(0, pA.fetchPage(0).getPageNum());
+    pA.unpinPage(p1, false);
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolUnpinTwice() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(4));
+
+    assertEquals(0, pA.allocPage());
+    Page p = pA.pinPage(0);
+    pA.unpinPage(p, true);
+    assertTrue(p.isDirty());
+
+    boolean thrown = false;
+    try {
+      pA.unpinPage(p, false);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolDirtyTracking() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, new BufferPool(4));
+
+    assertEquals(0, pA.allocPage());
+    Page p = pA.fetchPage(0);
+    p.flush();
+    assertFalse(p.isDirty());
+
+    p.writeByte(0, (byte) 1);
+    assertTrue(p.isDirty());
+    p.flush();
+    assertFalse(p.isDirty());
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolConcurrentPins() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    final PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(8));
+
+    for (int i = 0; i < 32; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final long seed = t;
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          Random random = new Random(seed);
+          for (int i = 0; i < 2000; i++) {
+            int pageNum = random.nextInt(32);
+            Page p = pA.pinPage(pageNum);
+            if (p.getPageNum() != pageNum || !p.isPinned()) {
+              failed.set(true);
+            }
+            pA.unpinPage(p, false);
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertFalse(failed.get());
+    assertEquals(8, pA.getBufferPool().size());
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolConcurrentHitsLRUK() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(8, new LRUKPolicy(2));
+    final PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 32; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+
+    // unpinned hits record their access while evictions reuse slots; none may leave a page pinned
+    final AtomicBoolean failed = new AtomicBoolean(false);
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int t = 0; t < 4; t++) {
+      final long seed = t;
+      Thread thread = new Thread(new Runnable() {
+        public void run() {
+          Random random = new Random(seed);
+          for (int i = 0; i < 2000; i++) {
+            int pageNum = random.nextInt(32);
+            if (pA.fetchPage(pageNum).getPageNum() != pageNum) {
+              failed.set(true);
+            }
+          }
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertFalse(failed.get());
+    for (int i = 0; i < 8; i++) {
+      assertTrue(pool.isEvictable(i));
+    }
+    pA.close();
+  }
+
+  /**
+   * Touches hot pages 0 and 1 twice each, then scans pages 2 through 19 once.
+   *
+   * @return the number of misses when pages 0 and 1 are fetched after the scan
+   */
+  private long missesAfterScan(PageAllocator pA) {
+    for (int i = 0; i < 20; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    pA.fetchPage(0);
+    pA.fetchPage(1);
+    pA.fetchPage(0);
+    pA.fetchPage(2);
+    pA.fetchPage(1);
+    for (int i = 3; i < 20; i++) {
+      pA.fetchPage(i);
+    }
+
+    long misses = pA.getNumMisses();
+    pA.fetchPage(0);
+    pA.fetchPage(1);
+    return pA.getNumMisses() - misses;
+  }
+
+  @Test
+  public void TestBufferPoolLRUKScanResistant() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(8, new LRUKPolicy(2));
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    assertEquals(0, missesAfterScan(pA));
+    pA.close();
+
+    tempFile = tempFolder.newFile("Clock" + fName);
+    pool = new BufferPool(8, new ClockPolicy());
+    pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    assertEquals(2, missesAfterScan(pA));
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolLRUKPinned() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(2, new LRUKPolicy(2));
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+
+    for (int i = 0; i < 3; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    Page p1 = pA.pinPage(1);
+    Page p2 = pA.pinPage(2);
+    boolean thrown = false;
+    try {
+      pA.fetchPage(0);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    pA.unpinPage(p2, false);
+    assertEquals(0, pA.fetchPage(0).getPageNum());
+    assertSame(p1, pA.fetchPage(1));
+    pA.unpinPage(p1, false);
+    pA.close();
+  }
+
+  @Test
+  public void TestBufferPoolSetEvictionPolicy() throws IOException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(8);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+
+    LRUKPolicy policy = new LRUKPolicy(2);
+    pool.setEvictionPolicy(policy);
+    assertSame(policy, pool.getEvictionPolicy());
+    assertEquals(4, pool.size());
+
+    for (int i = 4; i < 20; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertEquals(8, pool.size());
+    pA.close();
+    assertEquals(0, pool.size());
+  }
+}
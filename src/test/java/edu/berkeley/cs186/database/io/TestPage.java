@@ -7,6 +7,7 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 import org.junit.experimental.categories.Category;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 import java.io.RandomAccessFile;
 import java.io.FileNotFoundException;
@@ -144,4 +145,67 @@ public class TestPage {
     fc.close();
   }
 
+  @Test
+  public void TestPagePrimitives() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+
+    p.putShort(0, (short) -7);
+    p.putInt(2, 123456789);
+    p.putLong(6, Long.MIN_VALUE + 5);
+    p.putFloat(14, 3.5f);
+    assertEquals((short) -7, p.getShort(0));
+    assertEquals(123456789, p.getInt(2));
+    assertEquals(Long.MIN_VALUE + 5, p.getLong(6));
+    assertEquals(3.5f, p.getFloat(14), 0.0f);
+    assertEquals(123456789, p.readInt(2));
+
+    // values are stored big-endian, as ByteBuffer.wrap(...).getInt() expects
+    byte[] b = p.readBytes(2, 4);
+    assertEquals(123456789, ByteBuffer.wrap(b).getInt());
+
+    p.putInt(Page.pageSize - 4, 42);
+    assertEquals(42, p.getInt(Page.pageSize - 4));
+
+    boolean thrown = false;
+    try {
+      p.getInt(Page.pageSize - 3);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    thrown = false;
+    try {
+      p.putLong(-1, 0L);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+
+    fc.close();
+  }
+
+  @Test
+  public void TestPageCompareBytes() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    FileChannel fc = new RandomAccessFile(tempFile, "rw").getChannel();
+    Page p = new Page(fc, 0, 0);
+
+    byte[] key = new byte[] {1, 2, (byte) 0xF0};
+    p.writeBytes(10, key.length, key);
+    assertEquals(0, p.compareBytes(10, key, 0, key.length));
+    assertTrue(p.bytesEqual(10, key));
+    assertFalse(p.bytesEqual(11, key));
+
+    // bytes compare unsigned, so 0xF0 sorts after 0x10
+    byte[] smaller = new byte[] {1, 2, 0x10};
+    assertTrue(p.compareBytes(10, smaller, 0, smaller.length) > 0);
+    byte[] larger = new byte[] {0, 1, 3};
+    assertTrue(p.compareBytes(10, larger, 1, 2) < 0);
+
+    fc.close();
+  }
+
 }
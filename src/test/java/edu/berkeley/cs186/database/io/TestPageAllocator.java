@@ -290,6 +290,26 @@ public class TestPageAllocator {
 
     pA.close();
   }
+  @Test
+  public void TestPageAllocatorFreePageReAllocAcrossHeaders() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+
+    for (int i = 0; i < Page.pageSize + 10; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertTrue(pA.freePage(Page.pageSize + 3));
+    assertTrue(pA.freePage(7));
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(Page.pageSize + 8, pA.getNumPages());
+    assertEquals(7, pA.allocPage());
+    assertEquals(Page.pageSize + 3, pA.allocPage());
+    assertEquals(Page.pageSize + 10, pA.allocPage());
+    pA.close();
+  }
+
   @Test
   public void TestPageAllocatorIterator() throws IOException, FileNotFoundException {
     File tempFile = tempFolder.newFile(fName);
@@ -440,5 +460,316 @@ public class TestPageAllocator {
     }
   }
 
+  @Test
+  public void TestPageAllocatorSegmentMapped() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    int segmentSize = 64 * Page.pageSize;
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(64), segmentSize);
+
+    for (int i = 0; i < 4200; i++) {
+      assertEquals(i, pA.allocPage());
+      Page p = pA.fetchPage(i);
+      p.writeInt(0, i);
+      p.writeInt(Page.pageSize - 4, -i);
+    }
+
+    for (int i = 0; i < 4200; i++) {
+      Page p = pA.fetchPage(i);
+      assertEquals(i, p.getPageNum());
+      assertEquals(i, p.readInt(0));
+      assertEquals(-i, p.readInt(Page.pageSize - 4));
+    }
+    pA.close();
+
+    FileChannel fc = new RandomAccessFile(tempFile, "r").getChannel();
+    assertEquals(0, fc.size() % segmentSize);
+    assertTrue(fc.size() >= byteEstimate(4200));
+    fc.close();
+  }
+
+  @Test
+  public void TestPageAllocatorSegmentMappedReopen() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, new BufferPool(16), 16 * Page.pageSize);
+
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(8, i * 3);
+    }
+    for (int i = 0; i < 100; i += 2) {
+      assertTrue(pA.freePage(i));
+    }
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    assertEquals(50, pA.getNumPages());
+    Iterator<Page> pI = pA.iterator();
+    for (int i = 1; i < 100; i += 2) {
+      Page p = pI.next();
+      assertEquals(i, p.getPageNum());
+      assertEquals(i * 3, p.readInt(8));
+    }
+    assertFalse(pI.hasNext());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorSegmentSizeInvalid() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    boolean thrown = false;
+    try {
+      new PageAllocator(tempFile.getAbsolutePath(), true, false, BufferPool.getDefault(), Page.pageSize + 1);
+    } catch (IllegalArgumentException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  @Test
+  public void TestPageAllocatorGroupCommit() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true);
+    pA.setDurabilityWindow(60 * 60 * 1000);
+
+    for (int i = 0; i < Page.pageSize + 1; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertEquals(2, pA.getNumPendingSync());
+    pA.sync();
+    assertEquals(0, pA.getNumPendingSync());
+
+    assertTrue(pA.freePage(3));
+    assertEquals(1, pA.getNumPendingSync());
+    pA.setDurabilityWindow(0);
+    assertEquals(0, pA.getNumPendingSync());
+
+    assertEquals(3, pA.allocPage());
+    assertEquals(0, pA.getNumPendingSync());
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, true);
+    assertEquals(Page.pageSize + 1, pA.getNumPages());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorGroupCommitTimer() throws Exception {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true);
+    pA.setDurabilityWindow(10);
+
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    for (int i = 0; i < 100 && pA.getNumPendingSync() > 0; i++) {
+      Thread.sleep(10);
+    }
+    assertEquals(0, pA.getNumPendingSync());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorReadAhead() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    BufferPool pool = new BufferPool(64);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false, pool);
+    for (int i = 0; i < 40; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertTrue(pA.freePage(5));
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false, pool);
+    ReadAhead readAhead = new ReadAhead(pA, 32);
+    assertEquals(16, readAhead.getWindow());
+
+    // a single access is not a sequential scan
+    pA.fetchPage(0);
+    readAhead.access(0);
+    readAhead.awaitPending();
+    assertEquals(1, pA.getNumMisses());
+
+    pA.fetchPage(1);
+    readAhead.access(1);
+    readAhead.awaitPending();
+    assertEquals(2 + 15, pA.getNumMisses());
+
+    long misses = pA.getNumMisses();
+    for (int i = 2; i <= 17; i++) {
+      if (i != 5) {
+        pA.fetchPage(i);
+      }
+    }
+    assertEquals(misses, pA.getNumMisses());
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorIteratorReadAhead() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, false);
+    for (int i = 0; i < 200; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).writeInt(0, i);
+    }
+    for (int i = 0; i < 200; i += 3) {
+      assertTrue(pA.freePage(i));
+    }
+    pA.close();
+
+    pA = new PageAllocator(tempFile.getAbsolutePath(), false, false);
+    for (int window : new int[] {0, 1, 8, 64}) {
+      Iterator<Page> pI = pA.iterator(window);
+      for (int i = 0; i < 200; i++) {
+        if (i % 3 != 0) {
+          Page p = pI.next();
+          assertEquals(i, p.getPageNum());
+          assertEquals(i, p.getInt(0));
+        }
+      }
+      assertFalse(pI.hasNext());
+    }
+    pA.close();
+  }
+
+  private PageAllocator openChecksummed(File file, boolean wipe, boolean checksums) {
+    return new PageAllocator(file.getAbsolutePath(), wipe, true, BufferPool.getDefault(), 0, checksums);
+  }
+
+  private void corruptPage(File file, int pageNum) throws IOException {
+    RandomAccessFile raf = new RandomAccessFile(file, "rw");
+    raf.seek((2L + pageNum) * Page.pageSize + 100);
+    raf.write(0x5A);
+    raf.close();
+  }
+
+  @Test
+  public void TestPageAllocatorChecksums() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = openChecksummed(tempFile, true, true);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i, pA.allocPage());
+      pA.fetchPage(i).putInt(0, i + 1);
+    }
+    pA.close();
+    assertTrue(new File(tempFile.getAbsolutePath() + ".crc").exists());
+
+    pA = openChecksummed(tempFile, false, true);
+    for (int i = 0; i < 4; i++) {
+      assertEquals(i + 1, pA.fetchPage(i).getInt(0));
+    }
+    pA.close();
+
+    corruptPage(tempFile, 2);
+    pA = openChecksummed(tempFile, false, true);
+    assertEquals(2, pA.fetchPage(1).getInt(0));
+    boolean thrown = false;
+    try {
+      pA.fetchPage(2);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorChecksumsUnsealed() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = openChecksummed(tempFile, true, true);
+    assertEquals(0, pA.allocPage());
+    pA.fetchPage(0).putInt(0, 7);
+    pA.close();
+
+    // a change unseals the page first, so if the mapped page reaches the disk before it is
+    // flushed, as the kernel may write it back at any time, it is not mistaken for a torn page
+    pA = openChecksummed(tempFile, false, true);
+    pA.fetchPage(0).putInt(0, 8);
+    RandomAccessFile raf = new RandomAccessFile(tempFile, "r");
+    raf.seek(3L * Page.pageSize - Page.checksumSize);
+    assertEquals(0, raf.readInt());
+    raf.close();
+
+    PageAllocator other = openChecksummed(tempFile, false, true);
+    assertEquals(8, other.fetchPage(0).getInt(0));
+    other.close();
+    pA.close();
+
+    corruptPage(tempFile, 0);
+    pA = openChecksummed(tempFile, false, true);
+    boolean thrown = false;
+    try {
+      pA.fetchPage(0);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    pA.close();
+  }
+
+  @Test
+  public void TestPageAllocatorChecksumsMismatch() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = openChecksummed(tempFile, true, true);
+    assertEquals(0, pA.allocPage());
+    pA.close();
+
+    // whether a file has checksums can only be changed by wiping it
+    boolean thrown = false;
+    try {
+      openChecksummed(tempFile, false, false);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    assertTrue(new File(tempFile.getAbsolutePath() + ".crc").exists());
+
+    pA = openChecksummed(tempFile, true, false);
+    assertFalse(new File(tempFile.getAbsolutePath() + ".crc").exists());
+    assertEquals(0, pA.allocPage());
+    pA.close();
+
+    thrown = false;
+    try {
+      openChecksummed(tempFile, false, true);
+    } catch (PageException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+  }
+
+  @Test
+  public void TestPageAllocatorIOStats() throws IOException, FileNotFoundException {
+    File tempFile = tempFolder.newFile(fName);
+    PageAllocator pA = new PageAllocator(tempFile.getAbsolutePath(), true, true, new BufferPool(4));
+    IOStats stats = pA.getIOStats();
+
+    for (int i = 0; i < 6; i++) {
+      assertEquals(i, pA.allocPage());
+    }
+    assertEquals(6, stats.getAllocations());
+    assertEquals(6, stats.getFaults());
+    assertEquals(2, stats.getEvictions());
 
+    IOStats before = stats.snapshot();
+    pA.fetchPage(5);
+    pA.fetchPage(0);
+    IOStats delta = stats.minus(before);
+    assertEquals(2, delta.getLogicalReads());
+    assertEquals(1, delta.getHits());
+    assertEquals(1, delta.getFaults());
+    assertEquals(6, before.getAllocations());
+
+    assertTrue(pA.freePage(3));
+    assertEquals(1, stats.getFrees());
+
+    long flushes = stats.getFlushes();
+    pA.fetchPage(0).writeByte(0, (byte) 1);
+    pA.close();
+    assertTrue(stats.getFlushes() > flushes);
+
+    stats.reset();
+    assertEquals(0, stats.getLogicalReads());
+    assertEquals(0, stats.getAllocations());
+  }
 }
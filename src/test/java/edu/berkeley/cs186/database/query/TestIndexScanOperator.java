@@ -520,4 +520,91 @@ public class TestIndexScanOperator {
 
     QueryOperator s1 = new IndexScanOperator(transaction,"myTable", "nonexistentField", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(10));
   }
-}
\ No newline at end of file
+
+  @Test(timeout=5000)
+  public void testIndexScanRangeRecords() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("rangeTest");
+    Database d = new Database(tempDir.getAbsolutePath(), 4);
+    List<String> indexList = new ArrayList<String>();
+    indexList.add("int1");
+    d.createTableWithIndices(TestUtils.createSchemaWithTwoInts(), "myTable", indexList);
+    Database.Transaction transaction = d.beginTransaction();
+
+    for (int i = 0; i < 2000; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox((i * 7919) % 1000));
+      values.add(new IntDataBox(i));
+      transaction.addRecord("myTable", values);
+    }
+
+    // 100 < int1 <= 200
+    QueryOperator s1 = new IndexScanOperator(transaction, "myTable", "int1",
+        QueryPlan.PredicateOperator.GREATER_THAN, new IntDataBox(100),
+        QueryPlan.PredicateOperator.LESS_THAN_EQUALS, new IntDataBox(200));
+    Iterator<Record> outputIterator = s1.iterator();
+    int count = 0;
+    int previous = 101;
+    while (outputIterator.hasNext()) {
+      int key = outputIterator.next().getValues().get(0).getInt();
+      assertTrue(key >= previous && key <= 200);
+      previous = key;
+      count++;
+    }
+    assertEquals(200, count);
+
+    // the tighter of two bounds on the same side wins
+    QueryOperator s2 = new IndexScanOperator(transaction, "myTable", "int1",
+        QueryPlan.PredicateOperator.LESS_THAN, new IntDataBox(50),
+        QueryPlan.PredicateOperator.LESS_THAN_EQUALS, new IntDataBox(10));
+    outputIterator = s2.iterator();
+    count = 0;
+    while (outputIterator.hasNext()) {
+      assertTrue(outputIterator.next().getValues().get(0).getInt() <= 10);
+      count++;
+    }
+    assertEquals(22, count);
+    transaction.end();
+    d.close();
+  }
+
+  @Test(timeout=5000)
+  public void testQueryPlanCombinesRangePredicates() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("rangePlanTest");
+    Database d = new Database(tempDir.getAbsolutePath(), 4);
+    List<String> indexList = new ArrayList<String>();
+    indexList.add("int1");
+    d.createTableWithIndices(TestUtils.createSchemaWithTwoInts(), "myTable", indexList);
+    Database.Transaction transaction = d.beginTransaction();
+
+    for (int i = 0; i < 1000; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox(i));
+      values.add(new IntDataBox(i % 2));
+      transaction.addRecord("myTable", values);
+    }
+
+    QueryPlan query = transaction.query("myTable");
+    query.select("int1", QueryPlan.PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(10));
+    query.select("int2", QueryPlan.PredicateOperator.EQUALS, new IntDataBox(0));
+    query.select("int1", QueryPlan.PredicateOperator.LESS_THAN, new IntDataBox(20));
+    Iterator<Record> outputIterator = query.execute();
+
+    // both bounds on int1 are applied by the index scan, and int2 by a select
+    QueryOperator operator = query.getFinalOperator();
+    assertEquals(QueryOperator.OperatorType.SELECT, operator.getType());
+    assertEquals(QueryOperator.OperatorType.INDEXSCAN, operator.getSource().getType());
+    assertTrue(operator.getSource().str().contains("GREATER_THAN_EQUALS"));
+    assertTrue(operator.getSource().str().contains("LESS_THAN"));
+
+    int count = 0;
+    while (outputIterator.hasNext()) {
+      List<DataBox> values = outputIterator.next().getValues();
+      assertEquals(10 + 2 * count, values.get(0).getInt());
+      assertEquals(0, values.get(1).getInt());
+      count++;
+    }
+    assertEquals(5, count);
+    transaction.end();
+    d.close();
+  }
+}
@@ -19,6 +19,7 @@ import edu.berkeley.cs186.database.databox.IntDataBox;
 import edu.berkeley.cs186.database.databox.StringDataBox;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import org.junit.rules.TemporaryFolder;
 
 import static org.junit.Assert.*;
@@ -443,4 +444,47 @@ public class TestJoinOperator {
 
   }
 
-}
\ No newline at end of file
+  @Test(timeout=5000)
+  public void testJoinSlottedTables() throws QueryPlanException, DatabaseException, IOException {
+    File tempDir = tempFolder.newFolder("joinTest");
+    Database d = new Database(tempDir.getAbsolutePath(), 3);
+    List<String> names = new ArrayList<String>();
+    names.add("int");
+    names.add("string");
+    List<DataBox> types = new ArrayList<DataBox>();
+    types.add(new IntDataBox());
+    types.add(new StringDataBox(100));
+    Schema schema = new Schema(names, types);
+    d.createTable(schema, "leftTable", Table.Layout.SLOTTED);
+    d.createTable(schema, "rightTable", Table.Layout.SLOTTED);
+
+    // 200 short rows fit on one slotted page; as FIXED rows they would take six
+    Database.Transaction transaction = d.beginTransaction();
+    for (int i = 0; i < 200; i++) {
+      List<DataBox> values = new ArrayList<DataBox>();
+      values.add(new IntDataBox(i % 10));
+      values.add(new StringDataBox("row" + i, 100));
+      transaction.addRecord("leftTable", values);
+      transaction.addRecord("rightTable", values);
+    }
+
+    QueryOperator s1 = new SequentialScanOperator(transaction, "leftTable");
+    QueryOperator s2 = new SequentialScanOperator(transaction, "rightTable");
+    QueryOperator[] joins = {
+      new PNLJOperator(s1, s2, "int", "int", transaction),
+      new BNLJOperator(s1, s2, "int", "int", transaction)
+    };
+    for (QueryOperator joinOperator : joins) {
+      int count = 0;
+      Iterator<Record> outputIterator = joinOperator.iterator();
+      while (outputIterator.hasNext()) {
+        List<DataBox> values = outputIterator.next().getValues();
+        assertEquals(values.get(0), values.get(2));
+        assertTrue(values.get(1).getString().startsWith("row"));
+        count++;
+      }
+      assertEquals(200 * 20, count);
+    }
+    transaction.end();
+  }
+}
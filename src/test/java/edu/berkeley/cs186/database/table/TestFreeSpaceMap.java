@@ -0,0 +1,75 @@
+package edu.berkeley.cs186.database.table;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import static org.junit.Assert.*;
+
+public class TestFreeSpaceMap {
+
+  @Test
+  public void testFreeSpaceMapPrefersEmptierPages() {
+    FreeSpaceMap map = new FreeSpaceMap(100);
+    assertEquals(-1, map.getPageWithSpace());
+
+    map.setFreeSlots(1, 0);
+    map.setFreeSlots(2, 3);
+    map.setFreeSlots(3, 90);
+    assertEquals(3, map.getPageWithSpace());
+
+    map.setFreeSlots(3, 0);
+    assertEquals(2, map.getPageWithSpace());
+    map.setFreeSlots(2, 0);
+    assertEquals(-1, map.getPageWithSpace());
+
+    map.setFreeSlots(1, map.getFreeSlots(1) + 1);
+    assertEquals(1, map.getPageWithSpace());
+    assertEquals(1, map.getFreeSlots(1));
+    assertEquals(0, map.getFreeSlots(50));
+  }
+
+  @Test
+  public void testFreeSpaceMapManyPages() {
+    FreeSpaceMap map = new FreeSpaceMap(8);
+    for (int pageNum = 1; pageNum <= 1000; pageNum++) {
+      map.setFreeSlots(pageNum, pageNum % 9);
+    }
+    // take pages off the map the way inserts would, until none has room
+    int numFreeSlots = 0;
+    int pageNum = map.getPageWithSpace();
+    while (pageNum >= 0) {
+      assertTrue(map.getFreeSlots(pageNum) > 0);
+      map.setFreeSlots(pageNum, map.getFreeSlots(pageNum) - 1);
+      numFreeSlots++;
+      pageNum = map.getPageWithSpace();
+    }
+
+    int expected = 0;
+    for (int i = 1; i <= 1000; i++) {
+      expected += i % 9;
+    }
+    assertEquals(expected, numFreeSlots);
+  }
+
+  @Test
+  public void testFreeSpaceMapRoundTrip() throws IOException {
+    FreeSpaceMap map = new FreeSpaceMap(3640);
+    map.setFreeSlots(1, 3640);
+    map.setFreeSlots(7, 0);
+    map.setFreeSlots(40, 12);
+
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    map.writeTo(new DataOutputStream(bytes));
+    FreeSpaceMap read = FreeSpaceMap.readFrom(3640, new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+
+    assertEquals(3640, read.getFreeSlots(1));
+    assertEquals(0, read.getFreeSlots(7));
+    assertEquals(12, read.getFreeSlots(40));
+    assertEquals(1, read.getPageWithSpace());
+  }
+}
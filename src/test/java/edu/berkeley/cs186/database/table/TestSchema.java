@@ -54,4 +54,32 @@ public class TestSchema {
     schema.verify(values);
   }
 
+  @Test
+  public void testVariableEncoding() {
+    List<String> names = new ArrayList<String>();
+    names.add("int");
+    names.add("string");
+    names.add("empty");
+    List<DataBox> types = new ArrayList<DataBox>();
+    types.add(new IntDataBox());
+    types.add(new StringDataBox(255));
+    types.add(new StringDataBox(10));
+    Schema schema = new Schema(names, types);
+    assertEquals(2 + 2 + 4, schema.getMinVariableSize());
+    assertEquals(4 + 257 + 12, schema.getMaxVariableSize());
+
+    List<DataBox> values = new ArrayList<DataBox>();
+    values.add(new IntDataBox(7));
+    values.add(new StringDataBox("hello", 255));
+    values.add(new StringDataBox("", 10));
+    Record input = new Record(values);
+
+    byte[] encoded = schema.encodeVariable(input);
+    assertEquals(4 + 2 + 5 + 2, encoded.length);
+    assertEquals(input, schema.decodeVariable(encoded));
+
+    Record allTypes = TestUtils.createRecordWithAllTypes();
+    Schema allTypesSchema = TestUtils.createSchemaWithAllTypes();
+    assertEquals(allTypes, allTypesSchema.decodeVariable(allTypesSchema.encodeVariable(allTypes)));
+  }
 }
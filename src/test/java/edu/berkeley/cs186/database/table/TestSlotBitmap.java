@@ -0,0 +1,85 @@
+package edu.berkeley.cs186.database.table;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class TestSlotBitmap {
+
+  @Test
+  public void testSlotBitmapSetAndClear() {
+    byte[] bits = new byte[9];
+    SlotBitmap bitmap = new SlotBitmap(bits, 72);
+    bitmap.set(0);
+    bitmap.set(9);
+    bitmap.set(71);
+    assertEquals((byte) 0x80, bits[0]);
+    assertEquals((byte) 0x40, bits[1]);
+    assertEquals((byte) 0x01, bits[8]);
+    assertTrue(bitmap.isSet(9));
+    assertFalse(bitmap.isSet(10));
+
+    bitmap.clear(9);
+    assertFalse(bitmap.isSet(9));
+    assertEquals(0, bits[1]);
+  }
+
+  @Test
+  public void testSlotBitmapNextSet() {
+    byte[] bits = new byte[36];
+    SlotBitmap bitmap = new SlotBitmap(bits, 288);
+    assertEquals(288, bitmap.nextSet(0));
+
+    int[] slots = {3, 63, 64, 200, 287};
+    for (int slot : slots) {
+      bitmap.set(slot);
+    }
+    int found = bitmap.nextSet(0);
+    for (int slot : slots) {
+      assertEquals(slot, found);
+      found = bitmap.nextSet(found + 1);
+    }
+    assertEquals(288, found);
+    assertEquals(288, bitmap.nextSet(300));
+    assertEquals(slots.length, bitmap.count());
+  }
+
+  @Test
+  public void testSlotBitmapNextClear() {
+    byte[] bits = new byte[36];
+    SlotBitmap bitmap = new SlotBitmap(bits, 288);
+    for (int i = 0; i < 288; i++) {
+      if (i != 130) {
+        bitmap.set(i);
+      }
+    }
+    assertEquals(130, bitmap.nextClear(0));
+    assertEquals(288, bitmap.nextClear(131));
+    assertEquals(287, bitmap.count());
+
+    bitmap.set(130);
+    assertEquals(288, bitmap.nextClear(0));
+  }
+
+  @Test
+  public void testSlotBitmapIgnoresTrailingBytes() {
+    // a page image: the bitmap is followed by record bytes that must not be read as slots
+    byte[] image = new byte[64];
+    for (int i = 0; i < image.length; i++) {
+      image[i] = (byte) 0xFF;
+    }
+    image[1] = 0;
+    SlotBitmap bitmap = new SlotBitmap(image, 16);
+    assertEquals(8, bitmap.count());
+    assertEquals(8, bitmap.nextClear(0));
+    for (int i = 8; i < 15; i++) {
+      bitmap.set(i);
+    }
+    assertEquals(15, bitmap.count());
+    assertEquals(15, bitmap.nextClear(9));
+    bitmap.set(15);
+    assertEquals(16, bitmap.count());
+    assertEquals(16, bitmap.nextClear(0));
+    assertEquals(16, bitmap.nextSet(16));
+  }
+}
@@ -4,6 +4,7 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.StudentTest;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.table.stats.IntHistogram;
 
 import org.junit.After;
 import org.junit.Before;
@@ -15,9 +16,14 @@ import org.junit.rules.TemporaryFolder;
 import org.junit.experimental.categories.Category;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Iterator;
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 
 import static org.junit.Assert.*;
 
@@ -391,4 +397,454 @@ public class TestTable {
     assertFalse(iRec.hasNext());
   }
 
+
+  @Test
+  public void testTableAddRecords() throws DatabaseException {
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 1000; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+
+    List<RecordID> rids = table.addRecords(rows.iterator());
+    assertEquals(1000, rids.size());
+    assertEquals(1000, table.getNumRecords());
+    assertEquals(1000, table.getStats().getNumRecords());
+    assertEquals(4, table.getNumDataPages());
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(new RecordID(1 + i / 288, i % 288), rids.get(i));
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), table.getRecord(rids.get(i)));
+    }
+
+    Iterator<Record> iRec = table.iterator();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), iRec.next());
+    }
+    assertFalse(iRec.hasNext());
+  }
+
+  @Test
+  public void testTableAddRecordsFillsFreeSlots() throws DatabaseException {
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 3; i++) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    table.deleteRecord(rids.get(1));
+
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    rows.add(TestUtils.createRecordWithAllTypesWithValue(10).getValues());
+    rows.add(TestUtils.createRecordWithAllTypesWithValue(11).getValues());
+    List<RecordID> added = table.addRecords(rows.iterator());
+
+    assertEquals(rids.get(1), added.get(0));
+    assertEquals(new RecordID(1, 3), added.get(1));
+    assertEquals(4, table.getNumRecords());
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(10), table.getRecord(added.get(0)));
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(11), table.getRecord(added.get(1)));
+  }
+
+  @Test
+  public void testTableAddRecordsBadRow() throws DatabaseException {
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    rows.add(TestUtils.createRecordWithAllTypesWithValue(0).getValues());
+    rows.add(TestUtils.createRecordWithAllTypesWithValue(1).getValues());
+    List<DataBox> bad = new ArrayList<DataBox>();
+    bad.add(new IntDataBox(2));
+    rows.add(bad);
+
+    boolean thrown = false;
+    try {
+      table.addRecords(rows.iterator());
+    } catch (DatabaseException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    assertEquals(2, table.getNumRecords());
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(1), table.getRecord(new RecordID(1, 1)));
+  }
+
+  private Path metadataPath() {
+    return Paths.get(tempFolder.getRoot().getAbsolutePath(), TABLENAME + Table.FILENAME_EXTENSION + Table.METADATA_EXTENSION);
+  }
+
+  @Test
+  public void testTableReopenUsesMetadata() throws Exception {
+    int numRecords = table.getNumEntriesPerPage() * 2;
+    for (int i = 0; i < numRecords; i++) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    table.deleteRecord(new RecordID(1, 5));
+    int numDistinct = table.getStats().getNumDistinct(1);
+    int numInRange = ((IntHistogram) table.getStats().getHistogram(1)).getEntriesInRange(0, numRecords);
+    table.close();
+    assertTrue(Files.exists(metadataPath()));
+
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    this.table = new Table(TABLENAME, tempFolderPath);
+    // the metadata is only trusted until the table is next modified, so it is consumed on open
+    assertFalse(Files.exists(metadataPath()));
+    assertEquals(numRecords - 1, table.getNumRecords());
+    assertEquals(numRecords - 1, table.getStats().getNumRecords());
+    assertEquals(numDistinct, table.getStats().getNumDistinct(1));
+    assertEquals(numInRange, ((IntHistogram) table.getStats().getHistogram(1)).getEntriesInRange(0, numRecords));
+
+    // the freed slot is still known to be free
+    RecordID rid = table.addRecord(TestUtils.createRecordWithAllTypes().getValues());
+    assertEquals(new RecordID(1, 5), rid);
+  }
+
+  @Test
+  public void testTableReopenCorruptMetadata() throws Exception {
+    for (int i = 0; i < 100; i++) {
+      table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    table.close();
+
+    byte[] bytes = Files.readAllBytes(metadataPath());
+    bytes[bytes.length / 2] ^= 0x5A;
+    Files.write(metadataPath(), bytes);
+
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    this.table = new Table(TABLENAME, tempFolderPath);
+    assertEquals(100, table.getNumRecords());
+    assertEquals(100, table.getStats().getNumDistinct(1));
+    assertEquals(new RecordID(1, 100), table.addRecord(TestUtils.createRecordWithAllTypes().getValues()));
+  }
+
+  @Test
+  public void testTableReopenStaleMetadata() throws Exception {
+    table.addRecord(TestUtils.createRecordWithAllTypes().getValues());
+    table.close();
+    byte[] stale = Files.readAllBytes(metadataPath());
+
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    this.table = new Table(TABLENAME, tempFolderPath);
+    int numRecords = table.getNumEntriesPerPage() + 1;
+    for (int i = 1; i < numRecords; i++) {
+      table.addRecord(TestUtils.createRecordWithAllTypes().getValues());
+    }
+    table.close();
+
+    // metadata left over from before the table grew is not used
+    Files.write(metadataPath(), stale);
+    this.table = new Table(TABLENAME, tempFolderPath);
+    assertEquals(numRecords, table.getNumRecords());
+    assertEquals(numRecords, table.getStats().getNumRecords());
+  }
+
+  private Schema createWideStringSchema() {
+    List<String> names = new ArrayList<String>();
+    names.add("id");
+    names.add("name");
+    List<DataBox> types = new ArrayList<DataBox>();
+    types.add(new IntDataBox());
+    types.add(new StringDataBox(255));
+    return new Schema(names, types);
+  }
+
+  private List<DataBox> wideStringRow(int id, String name) {
+    List<DataBox> values = new ArrayList<DataBox>();
+    values.add(new IntDataBox(id));
+    values.add(new StringDataBox(name, 255));
+    return values;
+  }
+
+  @Test
+  public void testSlottedTablePacksShortStrings() throws DatabaseException {
+    Schema s = createWideStringSchema();
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table fixed = new Table(s, "fixedtable", tempFolderPath);
+    Table slotted = new Table(s, "slottedtable", tempFolderPath, Table.Layout.SLOTTED);
+    assertEquals(Table.Layout.SLOTTED, slotted.getLayout());
+
+    for (int i = 0; i < 1000; i++) {
+      fixed.addRecord(wideStringRow(i, "name" + i));
+      slotted.addRecord(wideStringRow(i, "name" + i));
+    }
+    assertEquals(1000, slotted.getNumRecords());
+    assertTrue(slotted.getNumDataPages() * 10 < fixed.getNumDataPages());
+
+    Iterator<Record> records = slotted.iterator();
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(new Record(wideStringRow(i, "name" + i)), records.next());
+    }
+    assertFalse(records.hasNext());
+    fixed.close();
+    slotted.close();
+  }
+
+  @Test
+  public void testSlottedTableDeleteAndUpdate() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table slotted = new Table(createWideStringSchema(), "slottedtable", tempFolderPath, Table.Layout.SLOTTED);
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 100; i++) {
+      rids.add(slotted.addRecord(wideStringRow(i, "x")));
+    }
+    assertEquals(new RecordID(1, 99), rids.get(99));
+
+    // freed slots are reused
+    slotted.deleteRecord(rids.get(10));
+    assertEquals(rids.get(10), slotted.addRecord(wideStringRow(10, "y")));
+
+    // grow records in place until the page has to be compacted, then past what it can hold
+    String longName = String.format("%0200d", 0);
+    slotted.updateRecord(wideStringRow(20, longName), rids.get(20));
+    slotted.updateRecord(wideStringRow(21, "short"), rids.get(21));
+    slotted.updateRecord(wideStringRow(22, longName), rids.get(22));
+    assertEquals(new Record(wideStringRow(20, longName)), slotted.getRecord(rids.get(20)));
+    assertEquals(new Record(wideStringRow(21, "short")), slotted.getRecord(rids.get(21)));
+    assertEquals(new Record(wideStringRow(22, longName)), slotted.getRecord(rids.get(22)));
+    assertEquals(new Record(wideStringRow(23, "x")), slotted.getRecord(rids.get(23)));
+
+    boolean thrown = false;
+    try {
+      for (int i = 30; i < 100; i++) {
+        slotted.updateRecord(wideStringRow(i, longName), rids.get(i));
+      }
+    } catch (DatabaseException e) {
+      thrown = true;
+    }
+    assertTrue(thrown);
+    assertEquals(100, slotted.getNumRecords());
+
+    int count = 0;
+    Iterator<Record> records = slotted.iterator();
+    while (records.hasNext()) {
+      records.next();
+      count++;
+    }
+    assertEquals(100, count);
+    slotted.close();
+  }
+
+  @Test
+  public void testSlottedTableReopen() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table slotted = new Table(createWideStringSchema(), "slottedtable", tempFolderPath, Table.Layout.SLOTTED);
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 0; i < 500; i++) {
+      rows.add(wideStringRow(i, "bulk" + i));
+    }
+    List<RecordID> rids = slotted.addRecords(rows.iterator());
+    slotted.deleteRecord(rids.get(3));
+    slotted.close();
+    Files.delete(Paths.get(tempFolderPath, "slottedtable" + Table.FILENAME_EXTENSION + Table.METADATA_EXTENSION));
+
+    slotted = new Table("slottedtable", tempFolderPath);
+    assertEquals(Table.Layout.SLOTTED, slotted.getLayout());
+    assertEquals(499, slotted.getNumRecords());
+    assertEquals(new Record(wideStringRow(499, "bulk499")), slotted.getRecord(rids.get(499)));
+
+    // the rescan found the freed slot: it is handed out before a new page is allocated
+    int lastPage = slotted.getNumPages() - 1;
+    RecordID rid = slotted.addRecord(wideStringRow(3, "again"));
+    while (!rid.equals(rids.get(3))) {
+      assertTrue(rid.getPageNum() <= lastPage);
+      rid = slotted.addRecord(wideStringRow(3, "again"));
+    }
+    slotted.close();
+  }
+
+  @Test
+  public void testTableViewIterator() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table slotted = new Table(this.schema, "slottedtable", tempFolderPath, Table.Layout.SLOTTED);
+    for (int i = 0; i < 1000; i++) {
+      Record r = TestUtils.createRecordWithAllTypesWithValue(i);
+      this.table.addRecord(r.getValues());
+      slotted.addRecord(r.getValues());
+    }
+
+    Table[] tables = {this.table, slotted};
+    for (Table t : tables) {
+      Iterator<Record> views = t.viewIterator();
+      for (int i = 0; i < 1000; i++) {
+        Record expected = TestUtils.createRecordWithAllTypesWithValue(i);
+        RecordView view = (RecordView) views.next();
+        assertEquals(0, view.compareColumn(1, new IntDataBox(i)));
+        assertTrue(view.compareColumn(3, new FloatDataBox(i + 0.5f)) < 0);
+        assertTrue(view.columnEquals(0, new BoolDataBox(true)));
+        assertFalse(view.columnEquals(1, new FloatDataBox(i)));
+        assertEquals(expected.getValues().get(2), view.getValues().get(2));
+        assertEquals(expected, view);
+        assertEquals(expected, view.materialize());
+      }
+      assertFalse(views.hasNext());
+    }
+    slotted.close();
+  }
+
+  @Test
+  public void testPaxTable() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table pax = new Table(this.schema, "paxtable", tempFolderPath, Table.Layout.PAX);
+    assertEquals(this.table.getNumEntriesPerPage(), pax.getNumEntriesPerPage());
+
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 300; i++) {
+      rids.add(pax.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+    for (int i = 300; i < 1000; i++) {
+      rows.add(TestUtils.createRecordWithAllTypesWithValue(i).getValues());
+    }
+    rids.addAll(pax.addRecords(rows.iterator()));
+
+    pax.updateRecord(TestUtils.createRecordWithAllTypesWithValue(5000).getValues(), rids.get(5));
+    pax.deleteRecord(rids.get(6));
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(5000), pax.getRecord(rids.get(5)));
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(700), pax.getRecord(rids.get(700)));
+
+    Iterator<Record> records = pax.iterator();
+    Iterator<Record> views = pax.viewIterator();
+    for (int i = 0; i < 1000; i++) {
+      if (i == 6) {
+        continue;
+      }
+      Record expected = TestUtils.createRecordWithAllTypesWithValue(i == 5 ? 5000 : i);
+      assertEquals(expected, records.next());
+      RecordView view = (RecordView) views.next();
+      assertTrue(view.columnEquals(1, expected.getValues().get(1)));
+      assertEquals(expected, view);
+    }
+    assertFalse(records.hasNext());
+    pax.close();
+
+    pax = new Table("paxtable", tempFolderPath);
+    assertEquals(Table.Layout.PAX, pax.getLayout());
+    assertEquals(999, pax.getNumRecords());
+    assertEquals(TestUtils.createRecordWithAllTypesWithValue(999), pax.getRecord(rids.get(999)));
+    pax.close();
+  }
+
+  @Test
+  public void testTableInsertsAfterDeleteChurn() throws DatabaseException {
+    Record input = TestUtils.createRecordWithAllTypes();
+    int numEntriesPerPage = table.getNumEntriesPerPage();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < numEntriesPerPage * 4; i++) {
+      rids.add(table.addRecord(input.getValues()));
+    }
+
+    // free one slot on each of the first three pages and most of the last page
+    for (int page = 0; page < 3; page++) {
+      table.deleteRecord(rids.get(page * numEntriesPerPage));
+    }
+    for (int i = numEntriesPerPage * 3; i < numEntriesPerPage * 4 - 10; i++) {
+      table.deleteRecord(rids.get(i));
+    }
+
+    // inserts go to the emptier page rather than the pages with a single free slot
+    for (int i = 0; i < numEntriesPerPage - 10; i++) {
+      assertEquals(4, table.addRecord(input.getValues()).getPageNum());
+    }
+    for (int i = 0; i < 3; i++) {
+      assertTrue(table.addRecord(input.getValues()).getPageNum() <= 3);
+    }
+    assertEquals(5, table.addRecord(input.getValues()).getPageNum());
+    assertEquals(numEntriesPerPage * 4 + 1, table.getNumRecords());
+  }
+
+  @Test
+  public void testTableCompact() throws DatabaseException {
+    int numEntriesPerPage = table.getNumEntriesPerPage();
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < numEntriesPerPage * 4; i++) {
+      rids.add(table.addRecord(TestUtils.createRecordWithAllTypesWithValue(i).getValues()));
+    }
+    // keep every eighth record, half a page's worth
+    for (int i = 0; i < rids.size(); i++) {
+      if (i % 8 != 0) {
+        table.deleteRecord(rids.get(i));
+      }
+    }
+    assertEquals(4, table.getNumDataPages());
+    assertTrue(table.isSparse(0.5));
+
+    Map<RecordID, RecordID> moved = table.compact();
+    assertEquals(1, table.getNumDataPages());
+    assertFalse(table.isSparse(0.5));
+    assertEquals(numEntriesPerPage / 2, table.getNumRecords());
+
+    for (int i = 0; i < rids.size(); i += 8) {
+      RecordID rid = moved.containsKey(rids.get(i)) ? moved.get(rids.get(i)) : rids.get(i);
+      assertEquals(TestUtils.createRecordWithAllTypesWithValue(i), table.getRecord(rid));
+    }
+    int count = 0;
+    Iterator<Record> iRec = table.iterator();
+    while (iRec.hasNext()) {
+      iRec.next();
+      count++;
+    }
+    assertEquals(numEntriesPerPage / 2, count);
+
+    // the remaining page's free slots are still handed out before a new page is allocated
+    for (int i = 0; i < numEntriesPerPage / 2; i++) {
+      table.addRecord(TestUtils.createRecordWithAllTypes().getValues());
+    }
+    assertEquals(1, table.getNumDataPages());
+  }
+
+  @Test
+  public void testSlottedTableCompact() throws DatabaseException {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Table slotted = new Table(createWideStringSchema(), "slottedtable", tempFolderPath, Table.Layout.SLOTTED);
+    List<RecordID> rids = new ArrayList<RecordID>();
+    for (int i = 0; i < 2000; i++) {
+      rids.add(slotted.addRecord(wideStringRow(i, "name" + i)));
+    }
+    int numPages = slotted.getNumDataPages();
+    for (int i = 0; i < rids.size(); i++) {
+      if (i % 4 != 0) {
+        slotted.deleteRecord(rids.get(i));
+      }
+    }
+
+    Map<RecordID, RecordID> moved = slotted.compact();
+    assertTrue(slotted.getNumDataPages() <= (numPages + 3) / 4 + 1);
+    for (int i = 0; i < rids.size(); i += 4) {
+      RecordID rid = moved.containsKey(rids.get(i)) ? moved.get(rids.get(i)) : rids.get(i);
+      assertEquals(new Record(wideStringRow(i, "name" + i)), slotted.getRecord(rid));
+    }
+    slotted.close();
+  }
+
+  @Test
+  public void testChecksummedTableFullLastSlot() throws Exception {
+    String tempFolderPath = tempFolder.getRoot().getAbsolutePath();
+    Schema s = TestUtils.createSchemaWithTwoInts();
+    for (Table.Layout layout : Table.Layout.values()) {
+      String tableName = "checksummed" + layout;
+      Table checksummed = new Table(s, tableName, tempFolderPath, layout, true);
+      int numEntriesPerPage = checksummed.getNumEntriesPerPage();
+      if (layout != Table.Layout.SLOTTED) {
+        // 504 slots of 8 bytes would reach into the checksum trailer
+        assertEquals(496, numEntriesPerPage);
+      }
+
+      // fill the first data page one record at a time, and the second in bulk
+      List<List<DataBox>> rows = new ArrayList<List<DataBox>>();
+      for (int i = 0; i < numEntriesPerPage * 2; i++) {
+        rows.add(Arrays.<DataBox>asList(new IntDataBox(i), new IntDataBox(-i)));
+      }
+      List<RecordID> rids = new ArrayList<RecordID>();
+      for (List<DataBox> row : rows.subList(0, numEntriesPerPage)) {
+        rids.add(checksummed.addRecord(row));
+      }
+      rids.addAll(checksummed.addRecords(rows.subList(numEntriesPerPage, rows.size()).iterator()));
+      assertEquals(2, checksummed.getNumDataPages());
+      assertEquals(new RecordID(1, numEntriesPerPage - 1), rids.get(numEntriesPerPage - 1));
+      checksummed.close();
+
+      // reopening verifies every page against its checksum
+      checksummed = new Table(tableName, tempFolderPath);
+      assertEquals(layout, checksummed.getLayout());
+      for (int i = 0; i < rows.size(); i++) {
+        assertEquals(new Record(rows.get(i)), checksummed.getRecord(rids.get(i)));
+      }
+      checksummed.close();
+    }
+  }
 }